@@ -0,0 +1,231 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses and decompresses literal data.
+ * 
+ * Deflater and Inflater instances are expensive to create and hold native
+ * memory so they are kept in small pools and reused rather than created on
+ * each call.
+ * 
+ * The compressed form is the uncompressed length (4 bytes big endian)
+ * followed by the deflated data. Storing the length allows decompression into
+ * an exactly sized buffer.
+ */
+public final class LiteralCompressor {
+
+	/**
+	 * The size of the uncompressed length header.
+	 */
+	public static final int HEADER_SIZE = Integer.BYTES;
+
+	// the maximum number of idle deflaters/inflaters to keep.
+	private static final int MAX_POOL_SIZE = Runtime.getRuntime()
+			.availableProcessors() * 2;
+
+	// the pools
+	private static final Pool<Deflater> DEFLATERS = new Pool<Deflater>() {
+		@Override
+		protected Deflater create() {
+			return new Deflater(Deflater.BEST_SPEED);
+		}
+
+		@Override
+		protected void reset(final Deflater item) {
+			item.reset();
+		}
+
+		@Override
+		protected void destroy(final Deflater item) {
+			item.end();
+		}
+	};
+
+	private static final Pool<Inflater> INFLATERS = new Pool<Inflater>() {
+		@Override
+		protected Inflater create() {
+			return new Inflater();
+		}
+
+		@Override
+		protected void reset(final Inflater item) {
+			item.reset();
+		}
+
+		@Override
+		protected void destroy(final Inflater item) {
+			item.end();
+		}
+	};
+
+	private LiteralCompressor() {
+	}
+
+	/**
+	 * Compress the data.
+	 * 
+	 * @param data
+	 *            the buffer containing the data to compress.
+	 * @param offset
+	 *            the offset of the data in the buffer.
+	 * @param length
+	 *            the length of the data.
+	 * @return the compressed form of the data.
+	 */
+	public static byte[] compress(final byte[] data, final int offset,
+			final int length) {
+		final Deflater deflater = DEFLATERS.borrow();
+		try {
+			deflater.setInput(data, offset, length);
+			deflater.finish();
+			byte[] buff = new byte[HEADER_SIZE + length + (length >> 3) + 64];
+			ByteBuffer.wrap(buff).order(ByteOrder.BIG_ENDIAN).putInt(length);
+			int pos = HEADER_SIZE;
+			while (!deflater.finished()) {
+				if (pos == buff.length) {
+					buff = Arrays.copyOf(buff, buff.length * 2);
+				}
+				pos += deflater.deflate(buff, pos, buff.length - pos);
+			}
+			return Arrays.copyOf(buff, pos);
+		} finally {
+			DEFLATERS.release(deflater);
+		}
+	}
+
+	/**
+	 * Decompress data created by compress().
+	 * 
+	 * @param data
+	 *            the buffer containing the compressed data.
+	 * @param offset
+	 *            the offset of the compressed data in the buffer.
+	 * @param length
+	 *            the length of the compressed data.
+	 * @return the uncompressed data.
+	 * @throws IOException
+	 *             if the data can not be decompressed.
+	 */
+	public static byte[] decompress(final byte[] data, final int offset,
+			final int length) throws IOException {
+		if (length < HEADER_SIZE) {
+			throw new IOException("Compressed data is too short");
+		}
+		final int size = ByteBuffer.wrap(data, offset, length)
+				.order(ByteOrder.BIG_ENDIAN).getInt();
+		final byte[] retval = new byte[size];
+		final Inflater inflater = INFLATERS.borrow();
+		try {
+			inflater.setInput(data, offset + HEADER_SIZE, length - HEADER_SIZE);
+			int pos = 0;
+			while (pos < size) {
+				final int n = inflater.inflate(retval, pos, size - pos);
+				if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IOException(String.format(
+							"Compressed data truncated at %s of %s bytes",
+							pos, size));
+				}
+				pos += n;
+			}
+			return retval;
+		} catch (final DataFormatException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			INFLATERS.release(inflater);
+		}
+	}
+
+	/**
+	 * A bounded pool of reusable objects.
+	 * 
+	 * @param <T>
+	 *            the type of object in the pool.
+	 */
+	private static abstract class Pool<T> {
+		// the idle objects
+		private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+		// the number of idle objects.
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * Create a new object.
+		 * 
+		 * @return the new object.
+		 */
+		protected abstract T create();
+
+		/**
+		 * Reset an object for reuse.
+		 * 
+		 * @param item
+		 *            the object to reset.
+		 */
+		protected abstract void reset(T item);
+
+		/**
+		 * Release any resources held by the object.
+		 * 
+		 * @param item
+		 *            the object to destroy.
+		 */
+		protected abstract void destroy(T item);
+
+		/**
+		 * Get an object from the pool or create one.
+		 * 
+		 * @return the object.
+		 */
+		T borrow() {
+			final T retval = idle.poll();
+			if (retval == null) {
+				return create();
+			}
+			size.decrementAndGet();
+			return retval;
+		}
+
+		/**
+		 * Return an object to the pool.
+		 * 
+		 * @param item
+		 *            the object to return.
+		 */
+		void release(final T item) {
+			reset(item);
+			if (size.incrementAndGet() <= MAX_POOL_SIZE) {
+				idle.offer(item);
+			}
+			else {
+				size.decrementAndGet();
+				destroy(item);
+			}
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+
+/**
+ * Binary encodings for common XSD typed literals.
+ * 
+ * A typed literal is only written in binary form when the lexical form can be
+ * recreated exactly from the binary value. Any other literal (e.g. "+1",
+ * "1e7" or "0001") is written as a string literal. The datatype is implied by
+ * the node type so the datatype URI is not stored.
+ * 
+ * <ul>
+ * <li>integer and long: zig-zag encoded variable length long.</li>
+ * <li>decimal: variable length scale followed by the zig-zag encoded unscaled
+ * value. Only values whose unscaled value fits in a long are encoded.</li>
+ * <li>double: the 8 byte IEEE 754 bits.</li>
+ * <li>dateTime: the zig-zag encoded epoch second of the local date time, the
+ * variable length nanoseconds, the number of fraction digits, the timezone
+ * flag and, for an offset, the zig-zag encoded offset in minutes.</li>
+ * <li>boolean: a single byte.</li>
+ * </ul>
+ */
+final class NativeLiterals implements NodeTypes {
+
+	// timezone flags for dateTime
+	private static final byte TZ_NONE = 0;
+	private static final byte TZ_UTC = 1;
+	private static final byte TZ_OFFSET = 2;
+
+	private NativeLiterals() {
+	}
+
+	/**
+	 * Get the node type for a datatype URI.
+	 * 
+	 * @param dtURI
+	 *            the datatype URI, may be null.
+	 * @return the native node type or _LIT if there is no native encoding.
+	 */
+	static byte typeFor(final String dtURI) {
+		if (dtURI == null) {
+			return _LIT;
+		}
+		if (dtURI.equals(XSDDatatype.XSDinteger.getURI())) {
+			return _LIT_INTEGER;
+		}
+		if (dtURI.equals(XSDDatatype.XSDlong.getURI())) {
+			return _LIT_LONG;
+		}
+		if (dtURI.equals(XSDDatatype.XSDdecimal.getURI())) {
+			return _LIT_DECIMAL;
+		}
+		if (dtURI.equals(XSDDatatype.XSDdouble.getURI())) {
+			return _LIT_DOUBLE;
+		}
+		if (dtURI.equals(XSDDatatype.XSDdateTime.getURI())) {
+			return _LIT_DATETIME;
+		}
+		if (dtURI.equals(XSDDatatype.XSDboolean.getURI())) {
+			return _LIT_BOOLEAN;
+		}
+		return _LIT;
+	}
+
+	/**
+	 * Get the datatype for a native node type.
+	 * 
+	 * @param type
+	 *            the node type (without flags).
+	 * @return the datatype.
+	 */
+	static XSDDatatype datatypeFor(final int type) {
+		switch (type) {
+			case _LIT_INTEGER:
+				return XSDDatatype.XSDinteger;
+			case _LIT_LONG:
+				return XSDDatatype.XSDlong;
+			case _LIT_DECIMAL:
+				return XSDDatatype.XSDdecimal;
+			case _LIT_DOUBLE:
+				return XSDDatatype.XSDdouble;
+			case _LIT_DATETIME:
+				return XSDDatatype.XSDdateTime;
+			case _LIT_BOOLEAN:
+				return XSDDatatype.XSDboolean;
+			default:
+				throw new IllegalArgumentException(String.format(
+						"Not a native literal type: %s", type));
+		}
+	}
+
+	/**
+	 * Returns true if the node type is a native literal type.
+	 * 
+	 * @param type
+	 *            the node type (without flags).
+	 * @return true if the type is a native literal.
+	 */
+	static boolean isNative(final int type) {
+		return type >= _LIT_INTEGER && type <= _LIT_BOOLEAN;
+	}
+
+	/**
+	 * Encode the lexical form in the native format for the type.
+	 * 
+	 * @param encoder
+	 *            the encoder to write to.
+	 * @param type
+	 *            the native node type.
+	 * @param lex
+	 *            the lexical form.
+	 * @return true if the value was written, false if the lexical form can not
+	 *         be encoded exactly. Nothing is written if false is returned.
+	 */
+	static boolean encode(final NodeEncoder encoder, final byte type,
+			final String lex) {
+		switch (type) {
+			case _LIT_INTEGER:
+			case _LIT_LONG:
+				return encodeLong(encoder, lex);
+			case _LIT_DECIMAL:
+				return encodeDecimal(encoder, lex);
+			case _LIT_DOUBLE:
+				return encodeDouble(encoder, lex);
+			case _LIT_DATETIME:
+				return encodeDateTime(encoder, lex);
+			case _LIT_BOOLEAN:
+				if ("true".equals(lex) || "false".equals(lex)) {
+					encoder.writeByte("true".equals(lex) ? 1 : 0);
+					return true;
+				}
+				return false;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Decode the lexical form from the native format.
+	 * 
+	 * @param type
+	 *            the native node type (without flags).
+	 * @param data
+	 *            the encoded data.
+	 * @return the lexical form.
+	 * @throws IOException
+	 *             if the data can not be decoded.
+	 */
+	static String decode(final int type, final ByteBuffer data)
+			throws IOException {
+		switch (type) {
+			case _LIT_INTEGER:
+			case _LIT_LONG:
+				return Long.toString(readVarLong(data));
+			case _LIT_DECIMAL:
+				final int scale = (int) readVarLong(data);
+				return BigDecimal.valueOf(readVarLong(data), scale)
+						.toPlainString();
+			case _LIT_DOUBLE:
+				return Double.toString(data.getDouble());
+			case _LIT_DATETIME:
+				return decodeDateTime(data);
+			case _LIT_BOOLEAN:
+				return data.get() == 0 ? "false" : "true";
+			default:
+				throw new IOException(String.format(
+						"Not a native literal type: %s", type));
+		}
+	}
+
+	private static boolean encodeLong(final NodeEncoder encoder,
+			final String lex) {
+		try {
+			final long value = Long.parseLong(lex);
+			if (Long.toString(value).equals(lex)) {
+				encoder.writeVarLong(value);
+				return true;
+			}
+		} catch (final NumberFormatException e) {
+			// not a long
+		}
+		return false;
+	}
+
+	private static boolean encodeDecimal(final NodeEncoder encoder,
+			final String lex) {
+		try {
+			final BigDecimal value = new BigDecimal(lex);
+			final BigInteger unscaled = value.unscaledValue();
+			if (unscaled.bitLength() < Long.SIZE && value.scale() >= 0
+					&& value.toPlainString().equals(lex)) {
+				encoder.writeVarLong(value.scale());
+				encoder.writeVarLong(unscaled.longValue());
+				return true;
+			}
+		} catch (final NumberFormatException e) {
+			// not a decimal
+		}
+		return false;
+	}
+
+	private static boolean encodeDouble(final NodeEncoder encoder,
+			final String lex) {
+		try {
+			final double value = Double.parseDouble(lex);
+			if (Double.toString(value).equals(lex)) {
+				encoder.writeLong(Double.doubleToRawLongBits(value));
+				return true;
+			}
+		} catch (final NumberFormatException e) {
+			// not a double
+		}
+		return false;
+	}
+
+	private static boolean encodeDateTime(final NodeEncoder encoder,
+			final String lex) {
+		String local = lex;
+		byte tz = TZ_NONE;
+		int offsetMinutes = 0;
+		final int len = lex.length();
+		if (lex.endsWith("Z")) {
+			tz = TZ_UTC;
+			local = lex.substring(0, len - 1);
+		}
+		else if (len > 6 && lex.charAt(len - 3) == ':'
+				&& (lex.charAt(len - 6) == '+' || lex.charAt(len - 6) == '-')) {
+			tz = TZ_OFFSET;
+			try {
+				final int hours = Integer.parseInt(lex.substring(len - 5,
+						len - 3));
+				final int minutes = Integer.parseInt(lex.substring(len - 2));
+				offsetMinutes = (hours * 60) + minutes;
+			} catch (final NumberFormatException e) {
+				return false;
+			}
+			if (lex.charAt(len - 6) == '-') {
+				offsetMinutes = -offsetMinutes;
+			}
+			local = lex.substring(0, len - 6);
+		}
+		final LocalDateTime ldt;
+		try {
+			ldt = LocalDateTime.parse(local);
+		} catch (final DateTimeParseException e) {
+			return false;
+		}
+		final int dot = local.indexOf('.');
+		final int digits = dot == -1 ? 0 : local.length() - dot - 1;
+		if (digits > 9
+				|| !formatDateTime(ldt, digits, tz, offsetMinutes).equals(lex)) {
+			return false;
+		}
+		encoder.writeVarLong(ldt.toEpochSecond(ZoneOffset.UTC));
+		encoder.writeVarLong(ldt.getNano());
+		encoder.writeByte(digits);
+		encoder.writeByte(tz);
+		if (tz == TZ_OFFSET) {
+			encoder.writeVarLong(offsetMinutes);
+		}
+		return true;
+	}
+
+	private static String decodeDateTime(final ByteBuffer data) {
+		final long seconds = readVarLong(data);
+		final int nanos = (int) readVarLong(data);
+		final int digits = data.get();
+		final byte tz = data.get();
+		final int offsetMinutes = tz == TZ_OFFSET ? (int) readVarLong(data) : 0;
+		return formatDateTime(
+				LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC),
+				digits, tz, offsetMinutes);
+	}
+
+	/**
+	 * Format a dateTime in the XSD lexical form.
+	 * 
+	 * @param ldt
+	 *            the local date time.
+	 * @param digits
+	 *            the number of fraction digits to write.
+	 * @param tz
+	 *            the timezone flag.
+	 * @param offsetMinutes
+	 *            the offset in minutes if tz is TZ_OFFSET.
+	 * @return the lexical form.
+	 */
+	private static String formatDateTime(final LocalDateTime ldt,
+			final int digits, final byte tz, final int offsetMinutes) {
+		final StringBuilder sb = new StringBuilder(35);
+		sb.append(String.format("%04d-%02d-%02dT%02d:%02d:%02d",
+				ldt.getYear(), ldt.getMonthValue(), ldt.getDayOfMonth(),
+				ldt.getHour(), ldt.getMinute(), ldt.getSecond()));
+		if (digits > 0) {
+			sb.append('.').append(
+					String.format("%09d", ldt.getNano()).substring(0, digits));
+		}
+		if (tz == TZ_UTC) {
+			sb.append('Z');
+		}
+		else if (tz == TZ_OFFSET) {
+			final int abs = Math.abs(offsetMinutes);
+			sb.append(String.format("%s%02d:%02d", offsetMinutes < 0 ? "-"
+					: "+", abs / 60, abs % 60));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Read a zig-zag encoded variable length long.
+	 * 
+	 * @see NodeEncoder#writeVarLong(long)
+	 * @param data
+	 *            the buffer to read.
+	 * @return the value.
+	 */
+	static long readVarLong(final ByteBuffer data) {
+		long raw = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data.get();
+			raw |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return (raw >>> 1) ^ -(raw & 1);
+	}
+}
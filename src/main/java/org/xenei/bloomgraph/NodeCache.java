@@ -0,0 +1,291 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * A bounded cache of decoded nodes keyed by their serialized form.
+ * 
+ * The cache is shared by all the pages of a BloomIO so that frequently seen
+ * nodes (e.g. subjects and predicates) are decoded once rather than once per
+ * result. The cache is bounded by an estimate of the memory used by the
+ * entries and evicts the least recently used entries when full.
+ * 
+ * The cache is split into segments to reduce lock contention.
+ */
+public class NodeCache {
+	/**
+	 * The default maximum weight (approximate bytes) of the cache.
+	 */
+	public static final long DEFAULT_MAX_WEIGHT = 16L * 1024 * 1024;
+
+	// the number of segments, must be a power of 2.
+	private static final int SEGMENTS = 16;
+
+	// estimated overhead in bytes of an entry, its key and the node.
+	private static final int ENTRY_OVERHEAD = 128;
+
+	// the segments
+	private final Segment[] segments;
+
+	// the statistics
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
+
+	/**
+	 * Constructor using the default maximum weight.
+	 */
+	public NodeCache() {
+		this(DEFAULT_MAX_WEIGHT);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param maxWeight
+	 *            The maximum weight (approximate bytes) of the cache.
+	 */
+	public NodeCache(final long maxWeight) {
+		if (maxWeight < 0) {
+			throw new IllegalArgumentException(
+					"Maximum weight may not be negative");
+		}
+		this.hits = new AtomicLong();
+		this.misses = new AtomicLong();
+		this.evictions = new AtomicLong();
+		this.segments = new Segment[SEGMENTS];
+		for (int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(maxWeight / SEGMENTS);
+		}
+	}
+
+	/**
+	 * Get the node for the serialized node. If the node is not in the cache
+	 * it is decoded and added.
+	 * 
+	 * @param serNode
+	 *            the serialized node.
+	 * @return the decoded node.
+	 * @throws IOException
+	 *             if the node can not be decoded.
+	 */
+	public Node get(final SerializableNode serNode) throws IOException {
+		final Segment segment = segmentFor(serNode);
+		Node retval = segment.lookup(serNode);
+		if (retval != null) {
+			hits.incrementAndGet();
+			return retval;
+		}
+		misses.incrementAndGet();
+		// decode outside of the lock.
+		retval = serNode.extractNode();
+		segment.store(copyKey(serNode), retval);
+		return retval;
+	}
+
+	/**
+	 * Create a key that does not share the buffer of the serialized node. The
+	 * serialized node is often a view into a triple or page buffer that we do
+	 * not want to keep alive.
+	 * 
+	 * @param serNode
+	 *            the serialized node.
+	 * @return a serialized node with its own buffer.
+	 */
+	private SerializableNode copyKey(final SerializableNode serNode) {
+		final ByteBuffer bb = (ByteBuffer) serNode.getByteBuffer().duplicate()
+				.position(0);
+		final byte[] b = new byte[bb.limit()];
+		bb.get(b);
+		return new SerializableNode(b);
+	}
+
+	/**
+	 * Get the segment for the node.
+	 * 
+	 * @param serNode
+	 *            the node to locate the segment for.
+	 * @return the segment.
+	 */
+	private Segment segmentFor(final SerializableNode serNode) {
+		final int h = serNode.hashCode();
+		return segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Remove all entries from the cache. Statistics are not reset.
+	 */
+	public void clear() {
+		for (final Segment segment : segments) {
+			segment.clearAll();
+		}
+	}
+
+	/**
+	 * Get the number of lookups that were found in the cache.
+	 * 
+	 * @return the hit count.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Get the number of lookups that had to decode the node.
+	 * 
+	 * @return the miss count.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Get the number of entries removed to make space.
+	 * 
+	 * @return the eviction count.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Get the ratio of hits to lookups.
+	 * 
+	 * @return the hit rate in the range [0,1].
+	 */
+	public double getHitRate() {
+		final long h = hits.get();
+		final long total = h + misses.get();
+		return total == 0 ? 0 : (1.0 * h) / total;
+	}
+
+	/**
+	 * Get the number of entries in the cache.
+	 * 
+	 * @return the number of entries.
+	 */
+	public int size() {
+		int retval = 0;
+		for (final Segment segment : segments) {
+			retval += segment.entries();
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the estimated weight (approximate bytes) of the cache.
+	 * 
+	 * @return the weight of the cache.
+	 */
+	public long getWeight() {
+		long retval = 0;
+		for (final Segment segment : segments) {
+			retval += segment.weight();
+		}
+		return retval;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"Entries: %s Weight: %s Hits: %s Misses: %s Evictions: %s",
+				size(), getWeight(), getHitCount(), getMissCount(),
+				getEvictionCount());
+	}
+
+	/**
+	 * Estimate the weight of an entry.
+	 * 
+	 * @param serNode
+	 *            the key for the entry
+	 * @return the estimated weight.
+	 */
+	private static long weigh(final SerializableNode serNode) {
+		// the serialized bytes plus the decoded strings (2 bytes per char).
+		return (serNode.getByteBuffer().limit() * 3L) + ENTRY_OVERHEAD;
+	}
+
+	/**
+	 * A segment of the cache. An access ordered map that tracks its weight.
+	 */
+	private class Segment extends LinkedHashMap<SerializableNode, Node> {
+		private static final long serialVersionUID = 1L;
+		// the maximum weight of the segment
+		private final long maxWeight;
+		// the current weight of the segment.
+		private long weight;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param maxWeight
+		 *            the maximum weight of this segment.
+		 */
+		private Segment(final long maxWeight) {
+			super(16, 0.75f, true);
+			this.maxWeight = maxWeight;
+			this.weight = 0;
+		}
+
+		private synchronized Node lookup(final SerializableNode key) {
+			return get(key);
+		}
+
+		private synchronized void store(final SerializableNode key,
+				final Node value) {
+			final long w = weigh(key);
+			if (w > maxWeight) {
+				// too big to ever fit.
+				return;
+			}
+			if (put(key, value) == null) {
+				weight += w;
+			}
+			final Iterator<Map.Entry<SerializableNode, Node>> iter = entrySet()
+					.iterator();
+			while (weight > maxWeight && iter.hasNext()) {
+				final SerializableNode eldest = iter.next().getKey();
+				iter.remove();
+				weight -= weigh(eldest);
+				evictions.incrementAndGet();
+			}
+		}
+
+		private synchronized void clearAll() {
+			clear();
+			weight = 0;
+		}
+
+		private synchronized int entries() {
+			return size();
+		}
+
+		private synchronized long weight() {
+			return weight;
+		}
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.hp.hpl.jena.graph.Node;
+
+/**
+ * Encodes nodes into the SerializableNode format.
+ * 
+ * The encoder writes the hash code, type and data for each node directly into
+ * a reusable scratch buffer. Callers copy the result out once they have
+ * written everything they need. This avoids the intermediate streams and
+ * arrays that are otherwise created for every node.
+ * 
+ * Typed literals with a binary encoding are written in that form (see
+ * NativeLiterals) when their lexical form can be restored exactly.
+ * 
+ * Nodes whose strings are all ASCII are flagged with _ASCII so that they can
+ * be decoded without UTF-8 validation.
+ * 
+ * An encoder is not thread safe. Use get() to retrieve the encoder for the
+ * current thread or construct one for private use.
+ */
+public final class NodeEncoder implements NodeTypes {
+
+	// the initial size of the scratch buffer.
+	private static final int INITIAL_SIZE = 1024;
+
+	// the largest scratch buffer that is kept between uses.
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	// the thread local encoders.
+	private static final ThreadLocal<NodeEncoder> LOCAL = new ThreadLocal<NodeEncoder>() {
+		@Override
+		protected NodeEncoder initialValue() {
+			return new NodeEncoder();
+		}
+	};
+
+	// the scratch buffer
+	private byte[] buff;
+
+	// the current write position.
+	private int pos;
+
+	// true if all the strings written for the current node were ASCII.
+	private boolean ascii;
+
+	/**
+	 * Get the encoder for the current thread. The encoder is reset to position
+	 * 0.
+	 * 
+	 * @return the encoder for the current thread.
+	 */
+	public static NodeEncoder get() {
+		final NodeEncoder retval = LOCAL.get();
+		if (retval.buff.length > MAX_RETAINED_SIZE) {
+			// a large literal grew the buffer; do not hold on to it.
+			retval.buff = new byte[INITIAL_SIZE];
+		}
+		retval.pos = 0;
+		return retval;
+	}
+
+	/**
+	 * Constructor.
+	 */
+	public NodeEncoder() {
+		buff = new byte[INITIAL_SIZE];
+		pos = 0;
+	}
+
+	/**
+	 * Set the write position.
+	 * 
+	 * @param position
+	 *            the new position.
+	 */
+	public void reset(final int position) {
+		ensureCapacity(position);
+		pos = position;
+	}
+
+	/**
+	 * Get the current write position.
+	 * 
+	 * @return the current write position.
+	 */
+	public int position() {
+		return pos;
+	}
+
+	/**
+	 * Get a view of the scratch buffer. The view is only valid until the next
+	 * write to this encoder.
+	 * 
+	 * @param offset
+	 *            the start of the view.
+	 * @param length
+	 *            the length of the view.
+	 * @return the view of the buffer
+	 */
+	public ByteBuffer view(final int offset, final int length) {
+		return ByteBuffer.wrap(buff, offset, length).slice()
+				.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Copy the data written so far into a new exactly sized array.
+	 * 
+	 * @return a copy of the data from 0 to the current position.
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(buff, pos);
+	}
+
+	/**
+	 * Put an int at the specified position.
+	 * 
+	 * @param offset
+	 *            the position to write at.
+	 * @param value
+	 *            the value to write.
+	 */
+	public void putInt(final int offset, final int value) {
+		ensureCapacity(offset + Integer.BYTES);
+		buff[offset] = (byte) (value >>> 24);
+		buff[offset + 1] = (byte) (value >>> 16);
+		buff[offset + 2] = (byte) (value >>> 8);
+		buff[offset + 3] = (byte) value;
+	}
+
+	/**
+	 * Write a single byte at the current position.
+	 * 
+	 * @param value
+	 *            the byte to write.
+	 */
+	void writeByte(final int value) {
+		ensureCapacity(pos + 1);
+		buff[pos++] = (byte) value;
+	}
+
+	/**
+	 * Write a long (8 bytes big endian) at the current position.
+	 * 
+	 * @param value
+	 *            the value to write.
+	 */
+	void writeLong(final long value) {
+		putInt(pos, (int) (value >>> 32));
+		putInt(pos + Integer.BYTES, (int) value);
+		pos += Long.BYTES;
+	}
+
+	/**
+	 * Write a zig-zag encoded variable length long at the current position.
+	 * Small positive and negative values take fewer bytes.
+	 * 
+	 * @param value
+	 *            the value to write.
+	 */
+	void writeVarLong(final long value) {
+		ensureCapacity(pos + 10);
+		long raw = (value << 1) ^ (value >> 63);
+		while ((raw & ~0x7FL) != 0) {
+			buff[pos++] = (byte) ((raw & 0x7F) | 0x80);
+			raw >>>= 7;
+		}
+		buff[pos++] = (byte) raw;
+	}
+
+	/**
+	 * Encode the node at the current position.
+	 * 
+	 * @param n
+	 *            the node to encode.
+	 * @param maxBlob
+	 *            the maximum size of a literal before it is compressed.
+	 * @return the number of bytes written.
+	 */
+	public int write(final Node n, final int maxBlob) {
+		final int start = pos;
+		ascii = true;
+		ensureCapacity(pos + SerializableNode.DATA_OFFSET);
+		putInt(pos, n.hashCode());
+		pos += SerializableNode.DATA_OFFSET;
+		if (n.equals(Node.ANY)) {
+			buff[start + SerializableNode.TYPE_OFFSET] = _ANY;
+		}
+		else if (n.isVariable()) {
+			buff[start + SerializableNode.TYPE_OFFSET] = _VAR;
+			writeUTF8(n.getName());
+		}
+		else if (n.isURI()) {
+			buff[start + SerializableNode.TYPE_OFFSET] = _URI;
+			writeUTF8(n.getURI());
+		}
+		else if (n.isBlank()) {
+			buff[start + SerializableNode.TYPE_OFFSET] = _ANON;
+			writeUTF8(n.getBlankNodeId().getLabelString());
+		}
+		else if (n.isLiteral()) {
+			final byte nativeType = StringUtils.isEmpty(n
+					.getLiteralLanguage()) ? NativeLiterals.typeFor(n
+					.getLiteralDatatypeURI()) : _LIT;
+			if (nativeType != _LIT
+					&& NativeLiterals.encode(this, nativeType,
+							n.getLiteralLexicalForm())) {
+				buff[start + SerializableNode.TYPE_OFFSET] = nativeType;
+			}
+			else {
+				buff[start + SerializableNode.TYPE_OFFSET] = _LIT;
+				writeLiteral(n, maxBlob);
+			}
+		}
+		else {
+			pos = start;
+			throw new IllegalArgumentException("Unknown node type " + n);
+		}
+		final int typePos = start + SerializableNode.TYPE_OFFSET;
+		if (ascii && buff[typePos] != _ANY
+				&& !NativeLiterals.isNative(buff[typePos])) {
+			buff[typePos] |= _ASCII;
+		}
+		return pos - start;
+	}
+
+	/**
+	 * Encode the node at the current position in the form used to calculate
+	 * bloom filter hashes. Literals are not compressed and the _ASCII flag is
+	 * cleared as it only describes the data.
+	 * 
+	 * @param n
+	 *            the node to encode.
+	 * @return the number of bytes written.
+	 */
+	public int writeForHash(final Node n) {
+		final int start = pos;
+		final int length = write(n, Integer.MAX_VALUE);
+		buff[start + SerializableNode.TYPE_OFFSET] &= ~_ASCII;
+		return length;
+	}
+
+	/**
+	 * Write the literal data. Each of the lexical form, language and datatype
+	 * URI is written as a length followed by the UTF-8 bytes. A null string
+	 * has a length of -1.
+	 * 
+	 * @param n
+	 *            the literal node.
+	 * @param maxBlob
+	 *            the maximum size of the literal before it is compressed.
+	 */
+	private void writeLiteral(final Node n, final int maxBlob) {
+		final int dataStart = pos;
+		writeLengthAndUTF8(n.getLiteralLexicalForm());
+		writeLengthAndUTF8(n.getLiteralLanguage());
+		writeLengthAndUTF8(n.getLiteralDatatypeURI());
+		final int length = pos - dataStart;
+		if (length > maxBlob) {
+			final byte[] compressed = LiteralCompressor.compress(buff,
+					dataStart, length);
+			// only keep the compressed form if it is actually smaller.
+			if (compressed.length < length) {
+				System.arraycopy(compressed, 0, buff, dataStart,
+						compressed.length);
+				pos = dataStart + compressed.length;
+				buff[dataStart - SerializableNode.DATA_OFFSET
+						+ SerializableNode.TYPE_OFFSET] = _LIT | _COMPRESSED;
+			}
+		}
+	}
+
+	/**
+	 * Write the length of the encoded string followed by the encoded string.
+	 * 
+	 * @param s
+	 *            the string to write, may be null.
+	 */
+	private void writeLengthAndUTF8(final String s) {
+		final int lenPos = pos;
+		ensureCapacity(pos + Integer.BYTES);
+		pos += Integer.BYTES;
+		if (s == null) {
+			putInt(lenPos, -1);
+		}
+		else {
+			putInt(lenPos, writeUTF8(s));
+		}
+	}
+
+	/**
+	 * Write the string as UTF-8 bytes. Unpaired surrogates are written as '?'
+	 * to match String.getBytes().
+	 * 
+	 * @param s
+	 *            the string to write.
+	 * @return the number of bytes written.
+	 */
+	private int writeUTF8(final String s) {
+		final int start = pos;
+		final int len = s.length();
+		// worst case is 3 bytes per char.
+		ensureCapacity(pos + (len * 3));
+		int i = 0;
+		// ASCII prefix
+		while (i < len) {
+			final char c = s.charAt(i);
+			if (c >= 0x80) {
+				break;
+			}
+			buff[pos++] = (byte) c;
+			i++;
+		}
+		if (i < len) {
+			ascii = false;
+		}
+		while (i < len) {
+			final char c = s.charAt(i++);
+			if (c < 0x80) {
+				buff[pos++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				buff[pos++] = (byte) (0xC0 | (c >> 6));
+				buff[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i < len
+					&& Character.isLowSurrogate(s.charAt(i))) {
+				final int cp = Character.toCodePoint(c, s.charAt(i++));
+				buff[pos++] = (byte) (0xF0 | (cp >> 18));
+				buff[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buff[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buff[pos++] = (byte) (0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				buff[pos++] = (byte) '?';
+			}
+			else {
+				buff[pos++] = (byte) (0xE0 | (c >> 12));
+				buff[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buff[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return pos - start;
+	}
+
+	/**
+	 * Make sure the scratch buffer can hold at least size bytes.
+	 * 
+	 * @param size
+	 *            the required size.
+	 */
+	private void ensureCapacity(final int size) {
+		if (size > buff.length) {
+			buff = Arrays.copyOf(buff, Math.max(size, buff.length * 2));
+		}
+	}
+}
@@ -27,6 +27,15 @@ public interface NodeTypes {
 	static final byte _URI = 0x03;
 	static final byte _VAR = 0x04;
 
+	// typed literals with a binary encoding (see NativeLiterals)
+	static final byte _LIT_INTEGER = 0x05; // xsd:integer
+	static final byte _LIT_LONG = 0x06; // xsd:long
+	static final byte _LIT_DECIMAL = 0x07; // xsd:decimal
+	static final byte _LIT_DOUBLE = 0x08; // xsd:double
+	static final byte _LIT_DATETIME = 0x09; // xsd:dateTime
+	static final byte _LIT_BOOLEAN = 0x0A; // xsd:boolean
+
 	//
 	static final byte _COMPRESSED = 0x10; // compressed literal
+	static final byte _ASCII = 0x20; // all strings are ASCII only
 }
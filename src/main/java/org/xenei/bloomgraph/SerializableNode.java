@@ -17,22 +17,15 @@
  */
 package org.xenei.bloomgraph;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.io.UnsupportedEncodingException;
-import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import com.hp.hpl.jena.datatypes.RDFDatatype;
@@ -48,8 +41,8 @@ import com.hp.hpl.jena.rdf.model.AnonId;
  * index value. For literal node types long lexical values are compressed for
  * storage.
  * 
- * Will return the Node value. Keeps a soft reference to the node so that it may
- * be garbage collected if necessary.
+ * Will return the Node value. Decoded nodes are retrieved from a shared
+ * NodeCache when one is provided.
  * 
  * Is serializable so that it can be written to a stream if necessary.
  * 
@@ -60,9 +53,17 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 * 
 	 */
 	private static final long serialVersionUID = 214628993540911756L;
-	private static final int HASH_CODE_OFFSET = 0;
-	private static final int TYPE_OFFSET = 4;
-	private static final int DATA_OFFSET = 5;
+	static final int HASH_CODE_OFFSET = 0;
+	static final int TYPE_OFFSET = 4;
+	static final int DATA_OFFSET = 5;
+
+	/**
+	 * The version of the node encoding. Version 1 stored typed literals as
+	 * strings. Version 2 stores the typed literals supported by NativeLiterals
+	 * in binary form, which changes their bytes and bloom filter hashes, so a
+	 * store written with version 1 must be reloaded.
+	 */
+	public static final int FORMAT_VERSION = 2;
 
 	/**
 	 * A node representing a serialized ANY node.
@@ -80,17 +81,18 @@ public class SerializableNode implements NodeTypes, Serializable {
 	/**
 	 * the node that we are storing.
 	 */
-	private transient SoftReference<Node> node;
+	private transient Node node;
 
 	/**
-	 * the buffer we read/write
+	 * the cache to retrieve decoded nodes from. May be null.
 	 */
-	private transient ByteBuffer buffer;
+	private transient NodeCache cache;
 
 	/**
-	 * The byte array that actually gets written.
+	 * the buffer we read. Position 0 is the start of the serialized node and
+	 * the limit is the end. May be a view into a larger buffer.
 	 */
-	private byte[] value;
+	private transient ByteBuffer buffer;
 
 	/**
 	 * Create the node from the byte array.
@@ -99,14 +101,40 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 *            The serialized node.
 	 */
 	public SerializableNode(byte[] serializedValue) {
+		this(ByteBuffer.wrap(serializedValue));
+	}
+
+	/**
+	 * Create the node from a buffer. The serialized node runs from position 0
+	 * to the limit of the buffer. The buffer is not copied.
+	 * 
+	 * @param serializedValue
+	 *            The serialized node.
+	 */
+	public SerializableNode(ByteBuffer serializedValue) {
+		this(serializedValue, null);
+	}
+
+	/**
+	 * Create the node from a buffer. The serialized node runs from position 0
+	 * to the limit of the buffer. The buffer is not copied. The decoded node is
+	 * retrieved from the cache.
+	 * 
+	 * @param serializedValue
+	 *            The serialized node.
+	 * @param cache
+	 *            The cache of decoded nodes, may be null.
+	 */
+	public SerializableNode(ByteBuffer serializedValue, NodeCache cache) {
 		this.node = null;
-		this.value = serializedValue;
+		this.cache = cache;
+		this.buffer = serializedValue.order(ByteOrder.BIG_ENDIAN);
 	}
 
 	/**
 	 * Create a SerializableNode from the provided node.
 	 * 
-	 * Defaults to a maximum size of Integer.MAX_VALUE
+	 * Defaults to a maximum size of Integer.MAX_VALUE (no compression)
 	 * 
 	 * @param n
 	 *            The node to serialize.
@@ -120,7 +148,8 @@ public class SerializableNode implements NodeTypes, Serializable {
 	/**
 	 * Create a serializable node from a node and limit the buffer size. If the
 	 * serialized node is a literal and exceeds the maximum buffer size the data
-	 * are compressed before writing and decompressed on reading.
+	 * are compressed before writing. The data are only decompressed when the
+	 * node is read.
 	 * 
 	 * @param n
 	 *            the node to wrap.
@@ -130,45 +159,10 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 *             on error.
 	 */
 	public SerializableNode(Node n, int maxBlob) throws IOException {
-		this.node = new SoftReference<Node>(n);
-		if (n.equals(Node.ANY)) {
-			fillBuffer(Node.ANY.hashCode(), _ANY, null);
-		}
-		else if (n.isVariable()) {
-			fillBuffer(n.hashCode(), _VAR, encodeString(n.getName()));
-		}
-		else if (n.isURI()) {
-			fillBuffer(n.hashCode(), _URI, encodeString(n.getURI()));
-		}
-		else if (n.isBlank()) {
-			fillBuffer(n.hashCode(), _ANON, encodeString(n.getBlankNodeId()
-					.getLabelString()));
-		}
-		else if (n.isLiteral()) {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			DataOutputStream os = new DataOutputStream(baos);
-			write(os, n.getLiteralLexicalForm());
-			write(os, n.getLiteralLanguage());
-			write(os, n.getLiteralDatatypeURI());
-
-			os.close();
-			baos.close();
-			byte[] value = baos.toByteArray();
-			if (value.length > maxBlob) {
-				baos = new ByteArrayOutputStream();
-				GZIPOutputStream dos = new GZIPOutputStream(baos);
-				dos.write(value);
-				dos.close();
-				fillBuffer(n.hashCode(), (byte) (_LIT | _COMPRESSED),
-						baos.toByteArray());
-			}
-			else {
-				fillBuffer(n.hashCode(), _LIT, value);
-			}
-		}
-		else {
-			throw new IllegalArgumentException("Unknown node type " + n);
-		}
+		this.node = n;
+		final NodeEncoder encoder = NodeEncoder.get();
+		encoder.write(n, maxBlob);
+		this.buffer = ByteBuffer.wrap(encoder.toByteArray());
 	}
 
 	/**
@@ -177,91 +171,33 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 * @return the byte buffer for this node.
 	 */
 	public ByteBuffer getByteBuffer() {
-		if (buffer == null) {
-			buffer = ByteBuffer.wrap(value).order(ByteOrder.BIG_ENDIAN);
-		}
 		return buffer;
 	}
 
-	/**
-	 * Fill the byte buffer.
-	 * 
-	 * @param hashCode
-	 *            The hash code for the node
-	 * @param type
-	 *            The type of the node
-	 * @param buff
-	 *            The data for the node.
-	 */
-	protected void fillBuffer(int hashCode, byte type, byte[] buff) {
-		value = new byte[DATA_OFFSET + (buff == null ? 0 : buff.length)];
-		((ByteBuffer) getByteBuffer().position(0)).putInt(hashCode).put(type);
-		if (buff != null) {
-			getByteBuffer().put(buff);
-		}
-	}
-
-	/**
-	 * write string to the output. Writes the length first then the data. writes
-	 * -1 for a null. Data are encodes as UTF-8.
-	 * 
-	 * @param os
-	 *            The output to write to
-	 * @param s
-	 *            The string to write.
-	 * @throws IOException
-	 */
-	private void write(DataOutputStream os, String s) throws IOException {
-		if (s == null) {
-			os.writeInt(-1);
-		}
-		else {
-			byte[] b = encodeString(s);
-			os.writeInt(b.length);
-			if (b.length > 0) {
-				os.write(b);
-			}
-		}
-	}
-
 	/**
 	 * Return just the node data
 	 * 
-	 * @return
+	 * @return the node data.
 	 */
-	private byte[] getData() throws IOException {
-		int size = getSize();
-		byte[] retval = new byte[size];
-		if (size > 0) {
-			getByteBuffer().position(DATA_OFFSET);
-			getByteBuffer().get(retval);
-
-			if ((getType() & _COMPRESSED) == _COMPRESSED) {
-				DataInputStream input = null;
-				ByteArrayOutputStream output = null;
-				try {
-					input = new DataInputStream(new BufferedInputStream(
-							new GZIPInputStream(
-									new ByteArrayInputStream(retval))));
-					output = new ByteArrayOutputStream();
-					IOUtils.copy(input, output);
-					retval = output.toByteArray();
-				} finally {
-					IOUtils.closeQuietly(input);
-					IOUtils.closeQuietly(output);
-				}
-			}
+	private ByteBuffer getData() throws IOException {
+		final ByteBuffer data = ((ByteBuffer) buffer.duplicate().position(
+				DATA_OFFSET)).slice();
+		if ((getType() & _COMPRESSED) == _COMPRESSED) {
+			final byte[] b = new byte[data.limit()];
+			data.get(b);
+			return ByteBuffer.wrap(LiteralCompressor.decompress(b, 0,
+					b.length));
 		}
-		return retval;
+		return data;
 	}
 
 	/**
 	 * The size of the node data without the overhead
 	 * 
-	 * @return
+	 * @return the size of the node data
 	 */
 	public int getSize() {
-		return value.length - DATA_OFFSET;
+		return buffer.limit() - DATA_OFFSET;
 	}
 
 	/**
@@ -270,34 +206,29 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 * @return ture if the node is a literal.
 	 */
 	public boolean isLiteral() {
-		return (getType() & NodeTypes._LIT) == NodeTypes._LIT;
+		final int type = getType() & 0x0F;
+		return type == _LIT || NativeLiterals.isNative(type);
 	}
 
 	public byte getType() {
-		getByteBuffer().position(TYPE_OFFSET);
-		return getByteBuffer().get();
+		return buffer.get(TYPE_OFFSET);
 	}
 
 	/**
 	 * Gets the node that is wrapped.
 	 * 
-	 * If the node is already known it is returned otherwise an attempt is made
-	 * to deserialize the node.
+	 * If the node is already known it is returned otherwise it is retrieved
+	 * from the cache or deserialized.
 	 * 
 	 * @return The node.
 	 * @throws IOException
 	 *             if the node can not be deserialized..
 	 */
 	public final Node getNode() throws IOException {
-		Node retval = null;
-		if (node != null) {
-			retval = node.get();
+		if (node == null) {
+			node = cache == null ? extractNode() : cache.get(this);
 		}
-		if (retval == null) {
-			retval = extractNode();
-			node = new SoftReference<Node>(retval);
-		}
-		return retval;
+		return node;
 	}
 
 	/**
@@ -306,23 +237,23 @@ public class SerializableNode implements NodeTypes, Serializable {
 	 */
 	@Override
 	public int hashCode() {
-		getByteBuffer().position(HASH_CODE_OFFSET);
-		return getByteBuffer().getInt();
+		return buffer.getInt(HASH_CODE_OFFSET);
 	}
 
 	@Override
 	public boolean equals(Object o) {
 		if (o instanceof SerializableNode) {
 			SerializableNode cn = (SerializableNode) o;
-			if (hashCode() == cn.hashCode() && getType() == cn.getType()
+			// the _ASCII flag is derived from the data so it is ignored.
+			if (hashCode() == cn.hashCode()
+					&& (getType() & ~_ASCII) == (cn.getType() & ~_ASCII)
 					&& getSize() == cn.getSize()) {
 				if (getSize() > 0) {
-					cn.getByteBuffer().position(DATA_OFFSET);
-					getByteBuffer().position(DATA_OFFSET);
-					int i = getByteBuffer().compareTo(cn.getByteBuffer());
-					if (i == 0) {
-						return true;
-					}
+					ByteBuffer other = (ByteBuffer) cn.buffer.duplicate()
+							.position(DATA_OFFSET);
+					ByteBuffer mine = (ByteBuffer) buffer.duplicate()
+							.position(DATA_OFFSET);
+					return mine.compareTo(other) == 0;
 				}
 				else {
 					return true;
@@ -332,33 +263,60 @@ public class SerializableNode implements NodeTypes, Serializable {
 		return false;
 	}
 
-	private String decodeString(byte[] b) {
-		try {
-			return new String(b, "UTF-8");
-		} catch (UnsupportedEncodingException e) { // should not happen
-			throw new RuntimeException(e);
+	/**
+	 * Decode a UTF-8 string from the remaining bytes in the buffer.
+	 * 
+	 * @param b
+	 *            the buffer to decode.
+	 * @return the decoded string.
+	 */
+	private String decodeString(ByteBuffer b) {
+		return decodeString(b, b.remaining());
+	}
+
+	/**
+	 * Decode a UTF-8 string from the buffer. The buffer position is advanced
+	 * past the string.
+	 * 
+	 * @param b
+	 *            the buffer to decode.
+	 * @param n
+	 *            the number of bytes to decode.
+	 * @return the decoded string.
+	 */
+	private String decodeString(ByteBuffer b, int n) {
+		String retval;
+		// ASCII bytes decode identically as ISO-8859-1 which is a straight
+		// copy with no validation.
+		final Charset charset = (getType() & _ASCII) == _ASCII ? StandardCharsets.ISO_8859_1
+				: StandardCharsets.UTF_8;
+		if (b.hasArray()) {
+			retval = new String(b.array(), b.arrayOffset() + b.position(), n,
+					charset);
 		}
+		else {
+			byte[] bytes = new byte[n];
+			b.duplicate().get(bytes);
+			retval = new String(bytes, charset);
+		}
+		b.position(b.position() + n);
+		return retval;
 	}
 
 	/**
-	 * Read a string from the input stream.
+	 * Read a string from the buffer.
 	 * 
-	 * @see write()
-	 * @param is
-	 *            the input stream
-	 * @return the string read from the stream.
-	 * @throws IOException
+	 * @see NodeEncoder
+	 * @param b
+	 *            the buffer to read.
+	 * @return the string read from the buffer.
 	 */
-	private String read(DataInputStream is) throws IOException {
-		int n = is.readInt();
+	private String read(ByteBuffer b) {
+		int n = b.getInt();
 		if (n == -1) {
 			return null;
 		}
-		byte[] b = new byte[n];
-		if (n > 0) {
-			is.read(b);
-		}
-		return decodeString(b);
+		return decodeString(b, n);
 	}
 
 	/**
@@ -375,19 +333,27 @@ public class SerializableNode implements NodeTypes, Serializable {
 				break;
 
 			case _LIT:
-				InputStream bais = new ByteArrayInputStream(getData());
-				DataInputStream is = new DataInputStream(
-						new BufferedInputStream(bais));
-				String lex = read(is);
-				String lang = StringUtils.defaultIfBlank(read(is), null);
-				String dtURI = read(is);
-				is.close();
+				ByteBuffer data = getData();
+				String lex = read(data);
+				String lang = StringUtils.defaultIfBlank(read(data), null);
+				String dtURI = read(data);
 				RDFDatatype dtype = StringUtils.isEmpty(dtURI) ? null
 						: TypeMapper.getInstance().getTypeByName(dtURI);
 				LiteralLabel ll = LiteralLabelFactory.create(lex, lang, dtype);
 				lnode = NodeFactory.createLiteral(ll);
 				break;
 
+			case _LIT_INTEGER:
+			case _LIT_LONG:
+			case _LIT_DECIMAL:
+			case _LIT_DOUBLE:
+			case _LIT_DATETIME:
+			case _LIT_BOOLEAN:
+				lnode = NodeFactory.createLiteral(LiteralLabelFactory.create(
+						NativeLiterals.decode(type & 0x0F, getData()), null,
+						NativeLiterals.datatypeFor(type & 0x0F)));
+				break;
+
 			case _URI:
 				lnode = NodeFactory.createURI(decodeString(getData()));
 				break;
@@ -408,17 +374,42 @@ public class SerializableNode implements NodeTypes, Serializable {
 	}
 
 	/**
-	 * Encode a string as UTF-8 bytes.
+	 * Write the serialized bytes.
 	 * 
-	 * @param s
-	 * @return
+	 * @param out
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             on error.
 	 */
-	private byte[] encodeString(String s) {
-		try {
-			return s.getBytes("UTF-8");
-		} catch (UnsupportedEncodingException e) { // should not happen
-			throw new RuntimeException(e);
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(buffer.limit());
+		if (buffer.hasArray()) {
+			out.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
 		}
+		else {
+			byte[] b = new byte[buffer.limit()];
+			((ByteBuffer) buffer.duplicate().position(0)).get(b);
+			out.write(b);
+		}
+	}
+
+	/**
+	 * Read the serialized bytes.
+	 * 
+	 * @param in
+	 *            the stream to read from.
+	 * @throws IOException
+	 *             on error.
+	 * @throws ClassNotFoundException
+	 *             on error.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException,
+			ClassNotFoundException {
+		in.defaultReadObject();
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		buffer = ByteBuffer.wrap(b);
 	}
 
-}
\ No newline at end of file
+}
@@ -18,7 +18,6 @@
 package org.xenei.bloomgraph;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
@@ -48,9 +47,13 @@ public class SerializableTriple {
 	public static final SerializableTriple ANY;
 
 	/**
-	 * Reference to the triple.
+	 * The triple.
 	 */
-	private transient SoftReference<Triple> triple;
+	private transient Triple triple;
+	/**
+	 * The cache for decoded nodes, may be null.
+	 */
+	private transient NodeCache cache;
 	private transient ByteBuffer buffer;
 	private byte[] value;
 
@@ -87,10 +90,38 @@ public class SerializableTriple {
 	 *             on error.
 	 */
 	public SerializableTriple(Triple t) throws IOException {
-		s = new SerializableNode(t.getSubject());
-		p = new SerializableNode(t.getPredicate());
-		o = new SerializableNode(t.getObject());
-		fillBuffer(s, p, o);
+		this(t, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Create the triple from a standard triple limiting the size of literal
+	 * nodes.
+	 * 
+	 * @see SerializableNode(Node, int)
+	 * @param t
+	 *            the standard triple
+	 * @param maxBlob
+	 *            The maximum size of a literal before it is compressed.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public SerializableTriple(Triple t, int maxBlob) throws IOException {
+		// encode the nodes directly into the scratch buffer and copy once.
+		NodeEncoder encoder = NodeEncoder.get();
+		encoder.reset(HEADER_SIZE);
+		int slen = encoder.write(t.getSubject(), maxBlob);
+		int plen = encoder.write(t.getPredicate(), maxBlob);
+		int olen = encoder.write(t.getObject(), maxBlob);
+		// hash code lifted from triple
+		encoder.putInt(HASH_CODE_OFFSET, (t.getSubject().hashCode() >> 1)
+				^ t.getPredicate().hashCode()
+				^ (t.getObject().hashCode() << 1));
+		encoder.putInt(IDX_OFFSET, 0);
+		encoder.putInt(S_LENGTH_OFFSET, slen);
+		encoder.putInt(P_LENGTH_OFFSET, plen);
+		encoder.putInt(O_LENGTH_OFFSET, olen);
+		value = encoder.toByteArray();
+		triple = t;
 	}
 
 	/**
@@ -100,11 +131,24 @@ public class SerializableTriple {
 	 *            the bytebuffer to read.
 	 */
 	public SerializableTriple(ByteBuffer bytes) {
+		this(bytes, null);
+	}
+
+	/**
+	 * Create the triple from a bytebuffer containing a serialzied triple.
+	 * Decoded nodes are retrieved from the cache.
+	 * 
+	 * @param bytes
+	 *            the bytebuffer to read.
+	 * @param cache
+	 *            the cache of decoded nodes, may be null.
+	 */
+	public SerializableTriple(ByteBuffer bytes, NodeCache cache) {
 		value = new byte[bytes.limit()];
 		bytes.position(0);
 		bytes.get(value);
 		this.triple = null;
-
+		this.cache = cache;
 	}
 
 	/**
@@ -196,12 +240,8 @@ public class SerializableTriple {
 	 */
 	public SerializableNode getSubject() {
 		if (s == null) {
-			ByteBuffer buff = getByteBuffer();
-			buff.position(S_LENGTH_OFFSET);
-			byte[] sBuff = new byte[buff.getInt()];
-			buff.position(HEADER_SIZE);
-			buff.get(sBuff);
-			s = new SerializableNode(sBuff);
+			s = new SerializableNode(slice(HEADER_SIZE,
+					getByteBuffer().getInt(S_LENGTH_OFFSET)), cache);
 		}
 		return s;
 	}
@@ -214,12 +254,9 @@ public class SerializableTriple {
 	public SerializableNode getPredicate() {
 		if (p == null) {
 			ByteBuffer buff = getByteBuffer();
-			buff.position(S_LENGTH_OFFSET);
-			int offset = HEADER_SIZE + buff.getInt(); // read s_length
-			byte[] pBuff = new byte[buff.getInt()]; // read p_length
-			getByteBuffer().position(offset);
-			getByteBuffer().get(pBuff);
-			p = new SerializableNode(pBuff);
+			int offset = HEADER_SIZE + buff.getInt(S_LENGTH_OFFSET);
+			p = new SerializableNode(slice(offset,
+					buff.getInt(P_LENGTH_OFFSET)), cache);
 		}
 		return p;
 	}
@@ -232,19 +269,27 @@ public class SerializableTriple {
 	public SerializableNode getObject() {
 		if (o == null) {
 			ByteBuffer buff = getByteBuffer();
-			buff.position(S_LENGTH_OFFSET);
-			int offset = HEADER_SIZE + buff.getInt() + buff.getInt(); // read
-																		// s_length
-			// &&
-			// p_lenfth
-			byte[] pBuff = new byte[buff.getInt()]; // read o_length
-			getByteBuffer().position(offset);
-			getByteBuffer().get(pBuff);
-			o = new SerializableNode(pBuff);
+			int offset = HEADER_SIZE + buff.getInt(S_LENGTH_OFFSET)
+					+ buff.getInt(P_LENGTH_OFFSET);
+			o = new SerializableNode(slice(offset,
+					buff.getInt(O_LENGTH_OFFSET)), cache);
 		}
 		return o;
 	}
 
+	/**
+	 * Get a view of part of the buffer. The view shares the buffer data.
+	 * 
+	 * @param offset
+	 *            the start of the view.
+	 * @param length
+	 *            the length of the view.
+	 * @return the view.
+	 */
+	private ByteBuffer slice(int offset, int length) {
+		return ByteBuffer.wrap(value, offset, length).slice();
+	}
+
 	/**
 	 * Get the triple as a triple.
 	 * 
@@ -252,16 +297,11 @@ public class SerializableTriple {
 	 * @throws IOException
 	 */
 	public Triple getTriple() throws IOException {
-		Triple retval = null;
-		if (triple != null) {
-			retval = triple.get();
-		}
-		if (retval == null) {
-			retval = new Triple(getSubject().getNode(), getPredicate()
+		if (triple == null) {
+			triple = new Triple(getSubject().getNode(), getPredicate()
 					.getNode(), getObject().getNode());
-			triple = new SoftReference<Triple>(retval);
 		}
-		return retval;
+		return triple;
 	}
 
 	/**
@@ -18,6 +18,14 @@
 package org.xenei.bloomgraph.bloom;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,10 +34,14 @@ import org.xenei.bloomgraph.bloom.page.PageSearchItem;
 
 import com.hp.hpl.jena.graph.Capabilities;
 import com.hp.hpl.jena.graph.GraphStatisticsHandler;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.TransactionHandler;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.graph.TripleMatch;
 import com.hp.hpl.jena.graph.impl.GraphBase;
+import com.hp.hpl.jena.graph.impl.TransactionHandlerBase;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
 
 /**
  * A graph that implements searching via BloomFilters.
@@ -38,6 +50,11 @@ import com.hp.hpl.jena.util.iterator.ExtendedIterator;
 public class BloomGraph extends GraphBase {
 	private static final Logger LOG = LoggerFactory.getLogger(BloomGraph.class);
 
+	/**
+	 * The number of triples passed to the IO in a single batch by addAll().
+	 */
+	public static final int BATCH_SIZE = 1000;
+
 	/**
 	 * the bloom IO implementation. IO can be implemented on a number of storage
 	 * platforms.
@@ -49,6 +66,11 @@ public class BloomGraph extends GraphBase {
 	 */
 	private final GraphStatistics statistics;
 
+	/**
+	 * The transaction handler for the graph.
+	 */
+	private final TransactionHandler transactionHandler;
+
 	/**
 	 * Create a bloom graph on an IO implementation.
 	 * 
@@ -57,6 +79,16 @@ public class BloomGraph extends GraphBase {
 	public BloomGraph(final BloomIO io) {
 		this.io = io;
 		this.statistics = io.getStatistics();
+		this.transactionHandler = new BloomTransactionHandler();
+	}
+
+	/**
+	 * Get the transaction handler. Transactions are supported if the IO
+	 * supports them. A transaction is bound to the thread that begins it.
+	 */
+	@Override
+	public TransactionHandler getTransactionHandler() {
+		return transactionHandler;
 	}
 
 	@Override
@@ -64,6 +96,15 @@ public class BloomGraph extends GraphBase {
 		return statistics;
 	}
 
+	/**
+	 * Get the statistics for the graph.
+	 * 
+	 * @return the graph statistics.
+	 */
+	public final GraphStatistics getGraphStatistics() {
+		return statistics;
+	}
+
 	@Override
 	protected final ExtendedIterator<Triple> graphBaseFind(final TripleMatch m) {
 		LOG.debug("Finding triple {}", m.asTriple());
@@ -74,20 +115,71 @@ public class BloomGraph extends GraphBase {
 		}
 	}
 
+	/**
+	 * Find the triples that match each of several patterns. Each page that may
+	 * hold a match for any of the patterns is read once.
+	 * 
+	 * @param patterns
+	 *            the patterns to match.
+	 * @return an iterator of the matching triples for each pattern, in the
+	 *         order of the patterns.
+	 */
+	public List<ExtendedIterator<Triple>> find(final List<TripleMatch> patterns) {
+		checkOpen();
+		final List<PageSearchItem> candidates = new ArrayList<PageSearchItem>(
+				patterns.size());
+		for (final TripleMatch m : patterns) {
+			candidates.add(new PageSearchItem(m.asTriple()));
+		}
+		try {
+			return io.find(candidates);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Find the triples that match the pattern with one of the probe nodes at
+	 * the position. The node of the pattern at the position is ignored.
+	 * 
+	 * This is a semi-join: the probe nodes are usually the bindings of a join
+	 * variable from another pattern. Only the pages that may hold one of the
+	 * probe nodes are read so a large set of bindings costs a few page scans
+	 * rather than a find() for each binding.
+	 * 
+	 * @param m
+	 *            the pattern to match.
+	 * @param position
+	 *            the position of the probe nodes.
+	 * @param probes
+	 *            the nodes to accept at the position.
+	 * @return the matching triples.
+	 */
+	public ExtendedIterator<Triple> find(final TripleMatch m,
+			final TriplePosition position, final Collection<Node> probes) {
+		checkOpen();
+		if (probes.isEmpty()) {
+			return NiceIterator.emptyIterator();
+		}
+		final Set<Node> nodes = new HashSet<Node>(probes);
+		final Triple pattern = position.replace(m.asTriple(), Node.ANY);
+		LOG.debug("Finding triple {} with {} probes", pattern, nodes.size());
+		try {
+			return io.find(new PageSearchItem(pattern), position, nodes);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
 	@Override
 	public final void performAdd(final Triple t) {
 		LOG.debug("Adding triple {}", t);
-		final PageSearchItem candidate = new PageSearchItem(t);
+		final PageSearchItem candidate = new PageSearchItem(t, io.getMaxBlob());
 		try {
 			// check to see if it is already in the graph
-			final ExtendedIterator<Triple> iter = io.find(candidate);
-			try {
-				if (iter.hasNext()) {
-					LOG.debug("Triple already in graph");
-					return;
-				}
-			} finally {
-				iter.close();
+			if (isStored(candidate)) {
+				LOG.debug("Triple already in graph");
+				return;
 			}
 			io.add(candidate);
 
@@ -96,6 +188,78 @@ public class BloomGraph extends GraphBase {
 		}
 	}
 
+	/**
+	 * Add the triples to the graph. Triples that are already in the graph are
+	 * skipped. The triples are collected in batches of BATCH_SIZE, each batch
+	 * is checked for stored triples with one BloomIO.findStored() call and the
+	 * remaining triples are passed to the IO so that the IO can write them at
+	 * once.
+	 * 
+	 * @param triples
+	 *            the triples to add.
+	 */
+	public final void addAll(final Iterator<Triple> triples) {
+		checkOpen();
+		// preserve order and drop duplicates within the batch.
+		final Map<Triple, PageSearchItem> batch = new LinkedHashMap<Triple, PageSearchItem>();
+		try {
+			while (triples.hasNext()) {
+				final Triple t = triples.next();
+				if (!batch.containsKey(t)) {
+					batch.put(t, new PageSearchItem(t, io.getMaxBlob()));
+					if (batch.size() == BATCH_SIZE) {
+						writeBatch(batch);
+					}
+				}
+			}
+			writeBatch(batch);
+		} catch (final IOException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Remove the stored triples from the batch, write the rest to the IO,
+	 * notify the listeners and clear the batch.
+	 * 
+	 * @param batch
+	 *            the batch to write.
+	 * @throws IOException
+	 *             on error
+	 */
+	private void writeBatch(final Map<Triple, PageSearchItem> batch)
+			throws IOException {
+		if (!batch.isEmpty()) {
+			batch.keySet().removeAll(io.findStored(batch.values()));
+		}
+		if (!batch.isEmpty()) {
+			LOG.debug("Adding batch of {} triples", batch.size());
+			io.add(batch.values());
+			final List<Triple> added = new ArrayList<Triple>(batch.keySet());
+			batch.clear();
+			getEventManager().notifyAddList(this, added);
+		}
+	}
+
+	/**
+	 * Check if the candidate is already in the graph.
+	 * 
+	 * @param candidate
+	 *            the candidate to check.
+	 * @return true if the candidate is stored.
+	 * @throws IOException
+	 *             on error
+	 */
+	private boolean isStored(final PageSearchItem candidate)
+			throws IOException {
+		final ExtendedIterator<Triple> iter = io.find(candidate);
+		try {
+			return iter.hasNext();
+		} finally {
+			iter.close();
+		}
+	}
+
 	@Override
 	public final void performDelete(final Triple t) {
 		LOG.debug("Deleting triple {}", t);
@@ -109,6 +273,12 @@ public class BloomGraph extends GraphBase {
 
 	}
 
+	@Override
+	public void close() {
+		super.close();
+		io.close();
+	}
+
 	@Override
 	protected int graphBaseSize() {
 		final long size = statistics.size();
@@ -176,6 +346,46 @@ public class BloomGraph extends GraphBase {
 		}
 	}
 
+	/**
+	 * Transaction handler that maps begin, commit and abort to the IO
+	 * transaction on the current thread.
+	 * 
+	 */
+	private class BloomTransactionHandler extends TransactionHandlerBase {
+
+		@Override
+		public boolean transactionsSupported() {
+			return io.supportsTransactions();
+		}
+
+		@Override
+		public void begin() {
+			try {
+				io.begin();
+			} catch (final IOException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void abort() {
+			try {
+				io.abort();
+			} catch (final IOException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void commit() {
+			try {
+				io.commit();
+			} catch (final IOException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+	}
+
 	// ///////////////////////
 	/**
 	 * A debug statement to display debug information for a specific page.
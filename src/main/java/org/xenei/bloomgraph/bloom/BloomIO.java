@@ -18,12 +18,17 @@
 package org.xenei.bloomgraph.bloom;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
+import org.xenei.bloomgraph.NodeCache;
 import org.xenei.bloomgraph.bloom.page.AbstractPage;
 import org.xenei.bloomgraph.bloom.page.PageSearchItem;
 
+import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.util.iterator.ClosableIterator;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
@@ -69,6 +74,22 @@ public interface BloomIO {
 	 */
 	public int getPageIndexOrigin();
 
+	/**
+	 * Get the maximum size of a serialized literal before it is compressed.
+	 * Integer.MAX_VALUE indicates that literals are never compressed.
+	 * 
+	 * @return the maximum uncompressed literal size.
+	 */
+	public int getMaxBlob();
+
+	/**
+	 * Get the cache of decoded nodes. The cache is shared by all the pages of
+	 * this IO.
+	 * 
+	 * @return the node cache.
+	 */
+	public NodeCache getNodeCache();
+
 	/**
 	 * Search the page for the candidate. The candidate may contain wildcards.
 	 * 
@@ -81,6 +102,65 @@ public interface BloomIO {
 	public ExtendedIterator<Triple> find(final PageSearchItem candidate)
 			throws IOException;
 
+	/**
+	 * Search for several candidates at once. A page is read if it may contain
+	 * any of the candidates and each triple read is tested against every
+	 * candidate so that each page is only read once.
+	 * 
+	 * The pages are read as the returned iterators are read and the matches for
+	 * the other candidates are buffered until their iterators read them, so
+	 * the iterators should be read in step. If more than
+	 * PatternFanOut.DEFAULT_MAX_BUFFERED matches are buffered for a candidate
+	 * whose iterator has not been read the buffer is dropped and that
+	 * candidate is searched again with find(PageSearchItem) when it is read.
+	 * Iterators that are not needed should be closed.
+	 * 
+	 * @param candidates
+	 *            the items to search for. The items may contain wildcards.
+	 * @return An iterator on the matching items for each candidate, in the
+	 *         order of the candidates.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public List<ExtendedIterator<Triple>> find(
+			final List<PageSearchItem> candidates) throws IOException;
+
+	/**
+	 * Search for the candidate where the node at the position is one of the
+	 * probe nodes. The candidate should have Node.ANY at the position.
+	 * 
+	 * A page is only read if its filter may contain the candidate with one of
+	 * the probe nodes at the position. The triples read are checked against
+	 * a hash set of the probe nodes.
+	 * 
+	 * @param candidate
+	 *            the item to search for.
+	 * @param position
+	 *            the position of the probe nodes.
+	 * @param probes
+	 *            the nodes to accept at the position.
+	 * @return An iterator on matching items.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public ExtendedIterator<Triple> find(final PageSearchItem candidate,
+			final TriplePosition position, final Set<Node> probes)
+			throws IOException;
+
+	/**
+	 * Find which of the candidates are stored. The candidates must not contain
+	 * wildcards. Used to check a batch of triples for duplicates before it is
+	 * written so that the check does not cost a search for each triple.
+	 * 
+	 * @param candidates
+	 *            the items to check.
+	 * @return the triples of the candidates that are stored.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public Set<Triple> findStored(final Collection<PageSearchItem> candidates)
+			throws IOException;
+
 	/**
 	 * Get an approximate count of the number of entries that will match the
 	 * candidate. The candidate may contain wildcards.
@@ -105,6 +185,20 @@ public interface BloomIO {
 	 */
 	public void add(final PageSearchItem candidate) throws IOException;
 
+	/**
+	 * Add the candidates to the store. The implementation may write the
+	 * candidates in batches. As with add(PageSearchItem) the implementation
+	 * does not have to verify that the items are not already stored. The
+	 * candidates will not contain wildcards or duplicates.
+	 * 
+	 * @param candidates
+	 *            The items to write to the store.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public void add(final Collection<PageSearchItem> candidates)
+			throws IOException;
+
 	/**
 	 * Delete all instances of the candidate from the store. The candidate may
 	 * contain wild cards.
@@ -115,6 +209,52 @@ public interface BloomIO {
 	 */
 	public void delete(final PageSearchItem candidate) throws IOException;
 
+	/**
+	 * Returns true if the implementation supports transactions.
+	 * 
+	 * @return true if begin(), commit() and abort() are supported.
+	 */
+	public boolean supportsTransactions();
+
+	/**
+	 * Start a transaction on the current thread. The adds and deletes made by
+	 * the thread are not visible to other threads until commit() is called.
+	 * 
+	 * @throws IOException
+	 *             on error.
+	 * @throws UnsupportedOperationException
+	 *             if transactions are not supported.
+	 * @throws IllegalStateException
+	 *             if the thread is already in a transaction.
+	 */
+	public void begin() throws IOException;
+
+	/**
+	 * Commit the transaction on the current thread.
+	 * 
+	 * @throws IOException
+	 *             on error. The transaction is rolled back.
+	 * @throws IllegalStateException
+	 *             if the thread is not in a transaction.
+	 */
+	public void commit() throws IOException;
+
+	/**
+	 * Roll back the transaction on the current thread.
+	 * 
+	 * @throws IOException
+	 *             on error.
+	 * @throws IllegalStateException
+	 *             if the thread is not in a transaction.
+	 */
+	public void abort() throws IOException;
+
+	/**
+	 * Release the resources held by the IO implementation. Open iterators are
+	 * closed.
+	 */
+	public void close();
+
 	/**
 	 * An iterator of iterators. This iterator will retrieve an iterator and
 	 * then iterate over its objects before retrieving then next iterator. This
@@ -18,6 +18,7 @@
 package org.xenei.bloomgraph.bloom;
 
 import com.hp.hpl.jena.graph.GraphStatisticsHandler;
+import com.hp.hpl.jena.graph.Node;
 
 public interface GraphStatistics extends GraphStatisticsHandler {
 	/**
@@ -34,4 +35,20 @@ public interface GraphStatistics extends GraphStatisticsHandler {
 	 */
 	public int pages();
 
+	/**
+	 * Estimate the number of triples that match the pattern from the page
+	 * filters. Unlike getStatistic() no triples are read, so the estimate is
+	 * cheap enough to order the patterns of every query with but may be far
+	 * larger than the number of matches.
+	 * 
+	 * @param S
+	 *            the subject, may be Node.ANY.
+	 * @param P
+	 *            the predicate, may be Node.ANY.
+	 * @param O
+	 *            the object, may be Node.ANY.
+	 * @return the estimate or -1 if it is not known.
+	 */
+	public long estimate(Node S, Node P, Node O);
+
 }
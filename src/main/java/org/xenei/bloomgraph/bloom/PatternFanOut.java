@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ClosableIterator;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.Map1;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+
+/**
+ * Distributes a single scan of pages to an iterator per search candidate.
+ * 
+ * The scan is read on demand: when the iterator of a candidate needs a triple
+ * rows are read from the scan and each row is tested against every candidate
+ * that is still open. Matches for other candidates are buffered until their
+ * iterators read them, so reading the iterators in step keeps the buffers
+ * small.
+ * 
+ * If the buffer of a candidate whose iterator has not returned a triple grows
+ * past the buffer limit the candidate is detached from the scan: the buffer is
+ * discarded and the iterator runs its own BloomIO.find() when it is read. The
+ * buffer of a candidate whose iterator has been started is not limited.
+ * 
+ * @param <T>
+ *            the type of the rows read from the pages.
+ */
+public class PatternFanOut<T> {
+	/**
+	 * The default maximum number of buffered triples for a candidate whose
+	 * iterator has not been started.
+	 */
+	public static final int DEFAULT_MAX_BUFFERED = 10000;
+
+	// the IO for the candidates that are detached.
+	private final BloomIO io;
+	// the batches of rows, each batch is typically one statement.
+	private final Iterator<? extends Iterator<T>> batches;
+	// converts a matching row to a triple.
+	private final Map1<T, Triple> mapper;
+	// the maximum buffer of an unstarted candidate.
+	private final int maxBuffered;
+	// the iterator for each candidate.
+	private final List<CandidateIterator> iterators;
+	// the batch being read, null when the scan is finished.
+	private Iterator<T> current;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param io
+	 *            the IO to search detached candidates with.
+	 * @param candidates
+	 *            the search candidates.
+	 * @param filters
+	 *            the filter for each candidate. A row matches the candidate if
+	 *            the filter accepts it.
+	 * @param batches
+	 *            the batches of rows to read. Closable batches are closed once
+	 *            read.
+	 * @param mapper
+	 *            converts a matching row to a triple.
+	 * @param maxBuffered
+	 *            the maximum buffer of a candidate whose iterator has not been
+	 *            started.
+	 */
+	public PatternFanOut(final BloomIO io,
+			final List<PageSearchItem> candidates,
+			final List<? extends Filter<T>> filters,
+			final Iterator<? extends Iterator<T>> batches,
+			final Map1<T, Triple> mapper, final int maxBuffered) {
+		this.io = io;
+		this.batches = batches;
+		this.mapper = mapper;
+		this.maxBuffered = maxBuffered;
+		this.iterators = new ArrayList<CandidateIterator>(candidates.size());
+		for (int i = 0; i < candidates.size(); i++) {
+			iterators.add(new CandidateIterator(candidates.get(i), filters
+					.get(i)));
+		}
+		this.current = NiceIterator.emptyIterator();
+	}
+
+	/**
+	 * Get the iterators of the candidates.
+	 * 
+	 * @return the iterator for each candidate in candidate order.
+	 */
+	public List<ExtendedIterator<Triple>> iterators() {
+		return new ArrayList<ExtendedIterator<Triple>>(iterators);
+	}
+
+	/**
+	 * Read the next row of the scan and add it to the buffers of the matching
+	 * candidates.
+	 * 
+	 * @return false if the scan is finished.
+	 */
+	private boolean fill() {
+		if (current == null) {
+			return false;
+		}
+		while (!current.hasNext()) {
+			close(current);
+			if (!batches.hasNext()) {
+				current = null;
+				return false;
+			}
+			current = batches.next();
+		}
+		final T row = current.next();
+		Triple triple = null;
+		boolean open = false;
+		for (final CandidateIterator iter : iterators) {
+			if (iter.collecting) {
+				open = true;
+				if (iter.filter.accept(row)) {
+					if (triple == null) {
+						triple = mapper.map1(row);
+					}
+					iter.buffer.add(triple);
+					if (!iter.started && iter.buffer.size() > maxBuffered) {
+						iter.detach();
+					}
+				}
+			}
+		}
+		if (!open) {
+			closeScan();
+		}
+		return true;
+	}
+
+	/**
+	 * Close the scan.
+	 */
+	private void closeScan() {
+		if (current != null) {
+			close(current);
+			current = null;
+		}
+		while (batches.hasNext()) {
+			close(batches.next());
+		}
+	}
+
+	private static void close(final Iterator<?> iter) {
+		if (iter instanceof ClosableIterator) {
+			((ClosableIterator<?>) iter).close();
+		}
+	}
+
+	/**
+	 * The iterator for one candidate.
+	 */
+	private class CandidateIterator extends NiceIterator<Triple> {
+		// the candidate to search for.
+		private final PageSearchItem candidate;
+		// the filter for the candidate.
+		private final Filter<T> filter;
+		// the matches that have been read but not returned.
+		private final ArrayDeque<Triple> buffer;
+		// true if rows are added to the buffer.
+		private boolean collecting;
+		// true once a triple has been returned.
+		private boolean started;
+		// the find for a detached candidate, created when first read.
+		private ExtendedIterator<Triple> detached;
+		// true if the candidate has been detached from the scan.
+		private boolean isDetached;
+		// true once the iterator is closed.
+		private boolean closed;
+
+		private CandidateIterator(final PageSearchItem candidate,
+				final Filter<T> filter) {
+			this.candidate = candidate;
+			this.filter = filter;
+			this.buffer = new ArrayDeque<Triple>();
+			this.collecting = true;
+			this.started = false;
+			this.detached = null;
+			this.isDetached = false;
+			this.closed = false;
+		}
+
+		/**
+		 * Stop reading the candidate from the scan.
+		 */
+		private void detach() {
+			isDetached = true;
+			collecting = false;
+			buffer.clear();
+		}
+
+		@Override
+		public boolean hasNext() {
+			synchronized (PatternFanOut.this) {
+				if (closed) {
+					return false;
+				}
+				if (!isDetached) {
+					while (buffer.isEmpty() && collecting && fill()) {
+						// fill until there is a match or the scan ends.
+					}
+					if (!buffer.isEmpty()) {
+						return true;
+					}
+					if (!isDetached) {
+						collecting = false;
+						return false;
+					}
+				}
+			}
+			if (detached == null) {
+				try {
+					detached = io.find(candidate);
+				} catch (final IOException e) {
+					throw new IllegalStateException(e.getMessage(), e);
+				}
+			}
+			return detached.hasNext();
+		}
+
+		@Override
+		public Triple next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			synchronized (PatternFanOut.this) {
+				started = true;
+				if (!isDetached) {
+					return buffer.poll();
+				}
+			}
+			return detached.next();
+		}
+
+		@Override
+		public void close() {
+			synchronized (PatternFanOut.this) {
+				closed = true;
+				collecting = false;
+				buffer.clear();
+				boolean open = false;
+				for (final CandidateIterator iter : iterators) {
+					open |= iter.collecting;
+				}
+				if (!open) {
+					closeScan();
+				}
+			}
+			if (detached != null) {
+				detached.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * A position in a triple.
+ */
+public enum TriplePosition {
+	SUBJECT {
+		@Override
+		public Node get(final Triple triple) {
+			return triple.getSubject();
+		}
+
+		@Override
+		public Triple replace(final Triple triple, final Node node) {
+			return new Triple(node, triple.getPredicate(), triple.getObject());
+		}
+	},
+	PREDICATE {
+		@Override
+		public Node get(final Triple triple) {
+			return triple.getPredicate();
+		}
+
+		@Override
+		public Triple replace(final Triple triple, final Node node) {
+			return new Triple(triple.getSubject(), node, triple.getObject());
+		}
+	},
+	OBJECT {
+		@Override
+		public Node get(final Triple triple) {
+			return triple.getObject();
+		}
+
+		@Override
+		public Triple replace(final Triple triple, final Node node) {
+			return new Triple(triple.getSubject(), triple.getPredicate(), node);
+		}
+	};
+
+	/**
+	 * Get the node at this position.
+	 * 
+	 * @param triple
+	 *            the triple.
+	 * @return the node at this position.
+	 */
+	public abstract Node get(Triple triple);
+
+	/**
+	 * Create a copy of the triple with a different node at this position.
+	 * 
+	 * @param triple
+	 *            the triple to copy.
+	 * @param node
+	 *            the node for this position.
+	 * @return the new triple.
+	 */
+	public abstract Triple replace(Triple triple, Node node);
+}
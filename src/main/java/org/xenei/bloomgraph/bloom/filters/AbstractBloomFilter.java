@@ -122,6 +122,21 @@ public abstract class AbstractBloomFilter implements BloomFilter {
 				.order(ByteOrder.LITTLE_ENDIAN).asReadOnlyBuffer();
 	}
 
+	/**
+	 * Get the positions of the bits that are set.
+	 * 
+	 * @return the bit positions in ascending order.
+	 */
+	public final int[] getBitPositions() {
+		final int[] retval = new int[bitSet.cardinality()];
+		int i = 0;
+		for (int bit = bitSet.nextSetBit(0); bit >= 0; bit = bitSet
+				.nextSetBit(bit + 1)) {
+			retval[i++] = bit;
+		}
+		return retval;
+	}
+
 	/**
 	 * Return the hex value for the byte buffer.
 	 */
@@ -21,7 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.BitSet;
 
-import org.xenei.bloomgraph.SerializableNode;
+import org.xenei.bloomgraph.NodeEncoder;
 import org.xenei.bloomgraph.bloom.filters.MurmurHash;
 import org.xenei.bloomgraph.bloom.filters.AbstractBloomFilter.FilterConfig;
 
@@ -128,8 +128,10 @@ public abstract class AbstractBuilder<T extends AbstractBloomFilter> {
 		// https://www.eecs.harvard.edu/~michaelm/postscripts/tr-02-05.pdf
 		// does prove to work in actual tests, and is obviously faster
 		// than performing further iterations of murmur.
-		SerializableNode serNode = new SerializableNode(node);
-		ByteBuffer bb = serNode.getByteBuffer();
+		// hash the serialized form straight from the scratch buffer.
+		NodeEncoder encoder = NodeEncoder.get();
+		int length = encoder.writeForHash(node);
+		ByteBuffer bb = encoder.view(0, length);
 		long[] hash = new long[2];
 		MurmurHash.hash3_x64_128(bb, 0, bb.limit(), 0L, hash);
 		for (int i = 0; i < config.getNumberOfHashFunctions(); i++) {
@@ -48,6 +48,18 @@ public class PageIndex extends AbstractIndex<PageBloomFilter> {
 		super(buff, idx);
 	}
 
+	/**
+	 * Constructor with filter and id.
+	 * 
+	 * @param filter
+	 *            the filter to associate with the id.
+	 * @param idx
+	 *            the id to associate the filter with.
+	 */
+	public PageIndex(PageBloomFilter filter, int idx) {
+		super(filter, idx);
+	}
+
 	@Override
 	protected PageBloomFilter createFilter(ByteBuffer buff) {
 		if (buff == null) {
@@ -19,20 +19,29 @@ package org.xenei.bloomgraph.bloom.mem;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.NodeCache;
 import org.xenei.bloomgraph.bloom.BloomIO;
 import org.xenei.bloomgraph.bloom.GraphStatistics;
+import org.xenei.bloomgraph.bloom.PatternFanOut;
+import org.xenei.bloomgraph.bloom.TriplePosition;
 import org.xenei.bloomgraph.bloom.index.PageIndex;
 import org.xenei.bloomgraph.bloom.page.AbstractPage;
 import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+import org.xenei.bloomgraph.bloom.page.ProbeSet;
 
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
 import com.hp.hpl.jena.util.iterator.Map1;
 import com.hp.hpl.jena.util.iterator.NiceIterator;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
@@ -50,6 +59,10 @@ public class MemIO implements BloomIO {
 	private final PageIndexList pageIndex;
 	// the statistics.
 	private final BloomGraphStatistics statistics;
+	// the maximum literal size before compression.
+	private int maxBlob;
+	// the cache of decoded nodes.
+	private final NodeCache nodeCache;
 
 	/**
 	 * Constructor.
@@ -58,6 +71,8 @@ public class MemIO implements BloomIO {
 		this.pages = new ArrayList<MemPage>();
 		this.pageIndex = new PageIndexList(pages);
 		this.statistics = new BloomGraphStatistics();
+		this.maxBlob = Integer.MAX_VALUE;
+		this.nodeCache = new NodeCache();
 	}
 
 	@Override
@@ -80,6 +95,26 @@ public class MemIO implements BloomIO {
 		return 0;
 	}
 
+	@Override
+	public int getMaxBlob() {
+		return maxBlob;
+	}
+
+	/**
+	 * Set the maximum size of a serialized literal before it is compressed.
+	 * 
+	 * @param maxBlob
+	 *            the maximum uncompressed literal size.
+	 */
+	public void setMaxBlob(final int maxBlob) {
+		this.maxBlob = maxBlob;
+	}
+
+	@Override
+	public NodeCache getNodeCache() {
+		return nodeCache;
+	}
+
 	@Override
 	public ExtendedIterator<Triple> find(final PageSearchItem candidate)
 			throws IOException {
@@ -105,6 +140,78 @@ public class MemIO implements BloomIO {
 		return WrappedIterator.create(new IterIter(inner));
 	}
 
+	@Override
+	public List<ExtendedIterator<Triple>> find(
+			final List<PageSearchItem> candidates) throws IOException {
+		// the union of the pages that might have matching triples.
+		final TreeSet<Integer> ids = new TreeSet<Integer>();
+		final List<Filter<Triple>> filters = new ArrayList<Filter<Triple>>(
+				candidates.size());
+		for (final PageSearchItem candidate : candidates) {
+			final Iterator<PageIndex> iter = pageIndex.iterator(candidate);
+			while (iter.hasNext()) {
+				ids.add(iter.next().getId());
+			}
+			filters.add(new Filter<Triple>() {
+				@Override
+				public boolean accept(final Triple o) {
+					return candidate.getTriple().matches(o);
+				}
+			});
+		}
+		final PageSearchItem scan = new PageSearchItem(Triple.ANY);
+		final Iterator<ExtendedIterator<Triple>> batches = WrappedIterator
+				.create(ids.iterator()).mapWith(
+						new Map1<Integer, ExtendedIterator<Triple>>() {
+							@Override
+							public ExtendedIterator<Triple> map1(
+									final Integer id) {
+								try {
+									return pages.get(id).find(scan);
+								} catch (final IOException e) {
+									LOG.error(e.getMessage(), e);
+									return NiceIterator.emptyIterator();
+								}
+							}
+						});
+		return new PatternFanOut<Triple>(this, candidates, filters, batches,
+				new Map1<Triple, Triple>() {
+					@Override
+					public Triple map1(final Triple o) {
+						return o;
+					}
+				}, PatternFanOut.DEFAULT_MAX_BUFFERED).iterators();
+	}
+
+	@Override
+	public ExtendedIterator<Triple> find(final PageSearchItem candidate,
+			final TriplePosition position, final Set<Node> probes)
+			throws IOException {
+		final ProbeSet probeSet = new ProbeSet(candidate, position, probes);
+		// only the pages that may hold one of the probes are searched.
+		final ExtendedIterator<ExtendedIterator<Triple>> inner = pageIndex
+				.iterator(candidate)
+				.filterKeep(new Filter<PageIndex>() {
+					@Override
+					public boolean accept(final PageIndex o) {
+						return probeSet.mayContain(o);
+					}
+				})
+				.mapWith(new Map1<PageIndex, ExtendedIterator<Triple>>() {
+					@Override
+					public ExtendedIterator<Triple> map1(final PageIndex o) {
+						try {
+							return pages.get(o.getId()).find(candidate)
+									.filterKeep(probeSet);
+						} catch (final IOException e) {
+							LOG.error(e.getMessage(), e);
+							return NiceIterator.emptyIterator();
+						}
+					}
+				});
+		return WrappedIterator.create(new IterIter(inner));
+	}
+
 	/**
 	 * Get an approximate count of the number of entries that will match the
 	 * candidate.
@@ -145,6 +252,33 @@ public class MemIO implements BloomIO {
 		}
 	}
 
+	@Override
+	public Set<Triple> findStored(final Collection<PageSearchItem> candidates)
+			throws IOException {
+		// the pages are in memory so each candidate is searched.
+		final Set<Triple> retval = new HashSet<Triple>();
+		for (final PageSearchItem candidate : candidates) {
+			final ExtendedIterator<Triple> iter = find(candidate);
+			try {
+				if (iter.hasNext()) {
+					retval.add(candidate.getTriple());
+				}
+			} finally {
+				iter.close();
+			}
+		}
+		return retval;
+	}
+
+	@Override
+	public void add(final Collection<PageSearchItem> candidates)
+			throws IOException {
+		// memory pages have no per write overhead so just add each item.
+		for (final PageSearchItem candidate : candidates) {
+			add(candidate);
+		}
+	}
+
 	/* for future use */
 	private void lock() {
 	}
@@ -166,7 +300,8 @@ public class MemIO implements BloomIO {
 		try {
 			// int id = pages.size();
 			// PageIndex pageIndex = new PageIndex( id );
-			final MemPage page = new MemPage(pageIndex.nextIndex());
+			final MemPage page = new MemPage(pageIndex.nextIndex(),
+					nodeCache);
 			pages.add(page);
 			flush();
 			return page;
@@ -200,6 +335,37 @@ public class MemIO implements BloomIO {
 
 	}
 
+	/**
+	 * Memory pages are not transactional.
+	 */
+	@Override
+	public boolean supportsTransactions() {
+		return false;
+	}
+
+	@Override
+	public void begin() {
+		throw new UnsupportedOperationException(
+				"Memory storage does not support transactions");
+	}
+
+	@Override
+	public void commit() {
+		throw new UnsupportedOperationException(
+				"Memory storage does not support transactions");
+	}
+
+	@Override
+	public void abort() {
+		throw new UnsupportedOperationException(
+				"Memory storage does not support transactions");
+	}
+
+	@Override
+	public void close() {
+		// nothing to release
+	}
+
 	/**
 	 * A class that implements the graph statistics.
 	 */
@@ -216,6 +382,25 @@ public class MemIO implements BloomIO {
 			}
 		}
 
+		/**
+		 * The sum of the sizes of the pages whose filter matches the pattern.
+		 */
+		@Override
+		public long estimate(final Node S, final Node P, final Node O) {
+			try {
+				final Iterator<PageIndex> iter = pageIndex
+						.iterator(new PageSearchItem(new Triple(S, P, O)));
+				long retval = 0;
+				while (iter.hasNext()) {
+					retval += pages.get(iter.next().getId()).size();
+				}
+				return retval;
+			} catch (final IOException e) {
+				LOG.warn(e.getMessage(), e);
+				return -1;
+			}
+		}
+
 		@Override
 		public long size() {
 			long size = 0;
@@ -23,6 +23,7 @@ import java.util.Iterator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.NodeCache;
 import org.xenei.bloomgraph.SerializableTriple;
 import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
 import org.xenei.bloomgraph.bloom.filters.TripleBloomFilter;
@@ -57,14 +58,20 @@ public class MemPage extends AbstractPage {
 	// an updatable version of the statistics
 	private final UpdatablePageStatistics statistics;
 
+	// the cache of decoded nodes.
+	private final NodeCache nodeCache;
+
 	/**
 	 * Create a memory page that is associated with the page index.
 	 * 
 	 * @param pageIndex
 	 *            the index this page is associated with.
+	 * @param nodeCache
+	 *            the cache of decoded nodes.
 	 */
-	public MemPage(final PageIndex pageIndex) {
+	public MemPage(final PageIndex pageIndex, final NodeCache nodeCache) {
 		super(pageIndex);
+		this.nodeCache = nodeCache;
 		this.statistics = new Statistics();
 		this.tripleIndex = new TripleIndexList(statistics);
 		this.dataBuffer = ByteBuffer.allocate(PageBloomFilter.CONFIG
@@ -273,7 +280,7 @@ public class MemPage extends AbstractPage {
 			log.debug("Reading {} bytes for triple", bufferLen + Integer.BYTES);
 			final ByteBuffer bb = buffer.slice();
 			bb.limit(bufferLen);
-			return new SerializableTriple(bb);
+			return new SerializableTriple(bb, nodeCache);
 		}
 	}
 
@@ -188,6 +188,8 @@ public abstract class AbstractPage {
 	 *            THe label to put in the debug statement.
 	 */
 	public void debug(final String lbl) {
-		log.debug("({}) {}", lbl, getStatistics().toString());
+		if (log.isDebugEnabled()) {
+			log.debug("({}) {}", lbl, getStatistics().toString());
+		}
 	}
 }
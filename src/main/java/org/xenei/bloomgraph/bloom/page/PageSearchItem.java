@@ -31,6 +31,7 @@ import com.hp.hpl.jena.graph.Triple;
  */
 public class PageSearchItem {
 	private final Triple triple;
+	private final int maxBlob;
 	private SerializableTriple serializable;
 	private TripleBloomFilter tripleFilter;
 	private PageBloomFilter pageFilter;
@@ -42,7 +43,21 @@ public class PageSearchItem {
 	 *            the triple we are looking for, may include wild cards.
 	 */
 	public PageSearchItem(Triple triple) {
+		this(triple, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param triple
+	 *            the triple we are looking for, may include wild cards.
+	 * @param maxBlob
+	 *            The maximum size of a serialized literal before it is
+	 *            compressed.
+	 */
+	public PageSearchItem(Triple triple, int maxBlob) {
 		this.triple = triple;
+		this.maxBlob = maxBlob;
 	}
 
 	/**
@@ -63,7 +78,7 @@ public class PageSearchItem {
 	 */
 	public SerializableTriple getSerializable() throws IOException {
 		if (serializable == null) {
-			serializable = new SerializableTriple(triple);
+			serializable = new SerializableTriple(triple, maxBlob);
 		}
 		return serializable;
 	}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.page;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.xenei.bloomgraph.bloom.TriplePosition;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.index.PageIndex;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.Filter;
+
+/**
+ * A set of nodes accepted at one position of a search.
+ * 
+ * A page filter is built for the candidate with each probe node at the
+ * position. A page may only contain a match if one of these filters matches
+ * the page filter. Triples are accepted if the node at the position is in
+ * the set.
+ */
+public class ProbeSet extends Filter<Triple> {
+	// the position of the probe nodes.
+	private final TriplePosition position;
+	// the nodes to accept.
+	private final Set<Node> nodes;
+	// the page filters of the candidate with each probe node.
+	private final List<PageBloomFilter> filters;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param candidate
+	 *            the search item with Node.ANY at the position.
+	 * @param position
+	 *            the position of the probe nodes.
+	 * @param nodes
+	 *            the nodes to accept at the position.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public ProbeSet(final PageSearchItem candidate,
+			final TriplePosition position, final Set<Node> nodes)
+			throws IOException {
+		this.position = position;
+		this.nodes = nodes;
+		this.filters = new ArrayList<PageBloomFilter>(nodes.size());
+		for (final Node node : nodes) {
+			filters.add(PageBloomFilter.BUILDER.build(position.replace(
+					candidate.getTriple(), node)));
+		}
+	}
+
+	/**
+	 * Returns true if the page may contain a match for one of the probe
+	 * nodes.
+	 * 
+	 * @param pageIndex
+	 *            the page index to check.
+	 * @return true if the page should be read.
+	 */
+	public boolean mayContain(final PageIndex pageIndex) {
+		for (final PageBloomFilter filter : filters) {
+			if (filter.match(pageIndex.getFilter())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public boolean accept(final Triple t) {
+		return nodes.contains(position.get(t));
+	}
+}
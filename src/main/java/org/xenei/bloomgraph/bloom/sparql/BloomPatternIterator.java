@@ -0,0 +1,399 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sparql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xenei.bloomgraph.bloom.BloomGraph;
+import org.xenei.bloomgraph.bloom.TriplePosition;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.binding.BindingMap;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIter1;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+/**
+ * Joins the input bindings with the matches of a triple pattern.
+ * 
+ * The input is read in batches. The triple pattern is bound with each binding
+ * in the batch and all the distinct bound patterns are found with a single
+ * BloomGraph.find(List). If the bound patterns only differ in the value of one
+ * join variable the values are used as a probe set instead. The matches are
+ * joined as they are read, taking one match from each bound pattern in turn,
+ * and the next batch is read when the matches of the batch are exhausted.
+ * Cancellation is checked before each match is read.
+ */
+class BloomPatternIterator extends QueryIter1 {
+	// the triple pattern to match.
+	private final Triple pattern;
+	// the graph to search.
+	private final BloomGraph graph;
+	// the number of input bindings in a batch.
+	private final int batchSize;
+	// the matches of the current batch that are still being read.
+	private final List<Matches> matches;
+	// the index of the next matches to read from.
+	private int next;
+	// the joined bindings of the last match read.
+	private Iterator<Binding> current;
+	// true once cancellation has been requested.
+	private volatile boolean cancelled;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param input
+	 *            the input bindings.
+	 * @param pattern
+	 *            the triple pattern to match.
+	 * @param graph
+	 *            the graph to search.
+	 * @param batchSize
+	 *            the number of input bindings in a batch.
+	 * @param execCxt
+	 *            the execution context.
+	 */
+	BloomPatternIterator(final QueryIterator input, final Triple pattern,
+			final BloomGraph graph, final int batchSize,
+			final ExecutionContext execCxt) {
+		super(input, execCxt);
+		this.pattern = pattern;
+		this.graph = graph;
+		this.batchSize = batchSize;
+		this.matches = new ArrayList<Matches>();
+		this.next = 0;
+		this.current = Collections.<Binding> emptyList().iterator();
+		this.cancelled = false;
+	}
+
+	@Override
+	protected boolean hasNextBinding() {
+		while (!current.hasNext()) {
+			if (cancelled) {
+				closeMatches();
+				return false;
+			}
+			if (!matches.isEmpty()) {
+				current = nextMatch();
+			}
+			else {
+				if (isFinished() || !getInput().hasNext()) {
+					return false;
+				}
+				nextBatch();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	protected Binding moveToNextBinding() {
+		return current.next();
+	}
+
+	/**
+	 * Read the next match from the matches of the batch in turn.
+	 * 
+	 * @return the input bindings joined with the match.
+	 */
+	private Iterator<Binding> nextMatch() {
+		final Matches m = matches.get(next);
+		if (!m.iter.hasNext()) {
+			m.iter.close();
+			matches.remove(next);
+			if (next >= matches.size()) {
+				next = 0;
+			}
+			return Collections.<Binding> emptyList().iterator();
+		}
+		final Triple t = m.iter.next();
+		next = (next + 1) % matches.size();
+		final List<Binding> retval = new ArrayList<Binding>();
+		for (final Binding binding : m.getBindings(t)) {
+			final Binding joined = join(binding, t);
+			if (joined != null) {
+				retval.add(joined);
+			}
+		}
+		return retval.iterator();
+	}
+
+	/**
+	 * Read a batch of input bindings and start the search for their matches.
+	 */
+	private void nextBatch() {
+		// the input bindings for each distinct bound pattern.
+		final Map<Triple, List<Binding>> bound = new LinkedHashMap<Triple, List<Binding>>();
+		int count = 0;
+		while (count < batchSize && getInput().hasNext()) {
+			final Binding binding = getInput().nextBinding();
+			final Triple triple = new Triple(bind(pattern.getSubject(),
+					binding), bind(pattern.getPredicate(), binding), bind(
+					pattern.getObject(), binding));
+			List<Binding> lst = bound.get(triple);
+			if (lst == null) {
+				lst = new ArrayList<Binding>();
+				bound.put(triple, lst);
+			}
+			lst.add(binding);
+			count++;
+		}
+		final TriplePosition position = probePosition(bound.keySet());
+		if (position == null) {
+			findAll(bound);
+		}
+		else {
+			probe(bound, position);
+		}
+		next = 0;
+	}
+
+	/**
+	 * Find the distinct bound patterns with a single BloomGraph.find(List).
+	 * 
+	 * @param bound
+	 *            the input bindings for each distinct bound pattern.
+	 */
+	private void findAll(final Map<Triple, List<Binding>> bound) {
+		final List<TripleMatch> patterns = new ArrayList<TripleMatch>(
+				bound.keySet());
+		final List<ExtendedIterator<Triple>> found = graph.find(patterns);
+		for (int i = 0; i < patterns.size(); i++) {
+			matches.add(new Matches(found.get(i), bound.get(patterns.get(i)
+					.asTriple())));
+		}
+	}
+
+	/**
+	 * Find the bound patterns with a single probe set find. Used when the
+	 * bound patterns only differ at the position.
+	 * 
+	 * @param bound
+	 *            the input bindings for each distinct bound pattern.
+	 * @param position
+	 *            the position of the bound join variable.
+	 */
+	private void probe(final Map<Triple, List<Binding>> bound,
+			final TriplePosition position) {
+		final Map<Node, List<Binding>> byNode = new HashMap<Node, List<Binding>>();
+		for (final Map.Entry<Triple, List<Binding>> entry : bound.entrySet()) {
+			byNode.put(position.get(entry.getKey()), entry.getValue());
+		}
+		final Triple candidate = bound.keySet().iterator().next();
+		matches.add(new Matches(graph.find(candidate, position,
+				byNode.keySet()), byNode, position));
+	}
+
+	/**
+	 * Get the position of the only variable that is bound in all of the bound
+	 * patterns.
+	 * 
+	 * @param bound
+	 *            the bound patterns.
+	 * @return the position or null if the bound patterns do not differ at a
+	 *         single position.
+	 */
+	private TriplePosition probePosition(final Collection<Triple> bound) {
+		TriplePosition retval = null;
+		for (final TriplePosition position : TriplePosition.values()) {
+			if (Var.isVar(position.get(pattern))) {
+				int count = 0;
+				for (final Triple triple : bound) {
+					if (!Node.ANY.equals(position.get(triple))) {
+						count++;
+					}
+				}
+				if (count == bound.size()) {
+					if (retval != null) {
+						return null;
+					}
+					retval = position;
+				}
+				else if (count > 0) {
+					return null;
+				}
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Replace a variable with its value from the binding.
+	 * 
+	 * @param n
+	 *            the pattern node.
+	 * @param binding
+	 *            the binding.
+	 * @return the value of the variable, Node.ANY if the variable is not bound
+	 *         or n if it is not a variable.
+	 */
+	private static Node bind(final Node n, final Binding binding) {
+		if (Var.isVar(n)) {
+			final Node value = binding.get(Var.alloc(n));
+			return value == null ? Node.ANY : value;
+		}
+		return n;
+	}
+
+	/**
+	 * Extend the binding with the variables of the pattern.
+	 * 
+	 * @param parent
+	 *            the input binding.
+	 * @param t
+	 *            the matching triple.
+	 * @return the joined binding or null if a variable that appears more than
+	 *         once in the pattern has different values.
+	 */
+	private Binding join(final Binding parent, final Triple t) {
+		final BindingMap retval = BindingFactory.create(parent);
+		if (add(retval, pattern.getSubject(), t.getSubject())
+				&& add(retval, pattern.getPredicate(), t.getPredicate())
+				&& add(retval, pattern.getObject(), t.getObject())) {
+			return retval;
+		}
+		return null;
+	}
+
+	/**
+	 * Add a value to the binding if the pattern node is a variable.
+	 * 
+	 * @param binding
+	 *            the binding to add to.
+	 * @param n
+	 *            the pattern node.
+	 * @param value
+	 *            the matching value.
+	 * @return false if the variable is already bound to a different value.
+	 */
+	private static boolean add(final BindingMap binding, final Node n,
+			final Node value) {
+		if (Var.isVar(n)) {
+			final Var v = Var.alloc(n);
+			final Node old = binding.get(v);
+			if (old == null) {
+				binding.add(v, value);
+			}
+			else {
+				return old.equals(value);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Close the matches of the current batch.
+	 */
+	private void closeMatches() {
+		for (final Matches m : matches) {
+			m.iter.close();
+		}
+		matches.clear();
+		current = Collections.<Binding> emptyList().iterator();
+	}
+
+	@Override
+	protected void requestSubCancel() {
+		// the matches are closed by the reading thread.
+		cancelled = true;
+	}
+
+	@Override
+	protected void closeSubIterator() {
+		closeMatches();
+	}
+
+	/**
+	 * The matches of a bound pattern or a probe set and the input bindings to
+	 * join them with.
+	 */
+	private static class Matches {
+		// the matching triples.
+		private final ExtendedIterator<Triple> iter;
+		// the input bindings for all matches, null for a probe set.
+		private final List<Binding> bindings;
+		// the input bindings for each probe node.
+		private final Map<Node, List<Binding>> byNode;
+		// the position of the probe node.
+		private final TriplePosition position;
+
+		/**
+		 * Constructor for the matches of a bound pattern.
+		 * 
+		 * @param iter
+		 *            the matching triples.
+		 * @param bindings
+		 *            the input bindings.
+		 */
+		private Matches(final ExtendedIterator<Triple> iter,
+				final List<Binding> bindings) {
+			this.iter = iter;
+			this.bindings = bindings;
+			this.byNode = null;
+			this.position = null;
+		}
+
+		/**
+		 * Constructor for the matches of a probe set.
+		 * 
+		 * @param iter
+		 *            the matching triples.
+		 * @param byNode
+		 *            the input bindings for each probe node.
+		 * @param position
+		 *            the position of the probe node.
+		 */
+		private Matches(final ExtendedIterator<Triple> iter,
+				final Map<Node, List<Binding>> byNode,
+				final TriplePosition position) {
+			this.iter = iter;
+			this.bindings = null;
+			this.byNode = byNode;
+			this.position = position;
+		}
+
+		/**
+		 * Get the input bindings to join with a match.
+		 * 
+		 * @param t
+		 *            the match.
+		 * @return the input bindings.
+		 */
+		private List<Binding> getBindings(final Triple t) {
+			if (bindings != null) {
+				return bindings;
+			}
+			final List<Binding> retval = byNode.get(position.get(t));
+			return retval == null ? Collections.<Binding> emptyList() : retval;
+		}
+	}
+}
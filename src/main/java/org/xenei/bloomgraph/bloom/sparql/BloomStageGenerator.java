@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sparql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.bloom.BloomGraph;
+import org.xenei.bloomgraph.bloom.GraphStatistics;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.ARQ;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.main.StageBuilder;
+import com.hp.hpl.jena.sparql.engine.main.StageGenerator;
+import com.hp.hpl.jena.sparql.util.Context;
+
+/**
+ * An ARQ stage generator that evaluates basic graph patterns against a
+ * BloomGraph.
+ * 
+ * The generic ARQ evaluation calls find() on the graph once for each
+ * binding of each triple pattern. This generator orders the triple patterns
+ * by the number of matches estimated from the page filters and then
+ * evaluates each triple pattern for a batch of bindings with a single
+ * BloomGraph.find(List) so that each candidate page is read once per batch.
+ * 
+ * Patterns on other graphs are passed to the stage generator that was
+ * registered before this one.
+ */
+public class BloomStageGenerator implements StageGenerator {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(BloomStageGenerator.class);
+
+	/**
+	 * The default number of bindings evaluated together.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 1000;
+
+	// the generator for other graphs.
+	private final StageGenerator other;
+	// the number of bindings evaluated together.
+	private final int batchSize;
+
+	/**
+	 * Register a BloomStageGenerator in the global ARQ context.
+	 */
+	public static void register() {
+		register(ARQ.getContext());
+	}
+
+	/**
+	 * Register a BloomStageGenerator in a context. The stage generator that is
+	 * already registered is used for graphs that are not BloomGraphs.
+	 * 
+	 * @param context
+	 *            the context to register in.
+	 */
+	public static void register(final Context context) {
+		final StageGenerator current = StageBuilder
+				.chooseStageGenerator(context);
+		if (!(current instanceof BloomStageGenerator)) {
+			StageBuilder.setGenerator(context, new BloomStageGenerator(current,
+					DEFAULT_BATCH_SIZE));
+		}
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param other
+	 *            the stage generator for graphs that are not BloomGraphs.
+	 * @param batchSize
+	 *            the number of bindings evaluated together.
+	 */
+	public BloomStageGenerator(final StageGenerator other, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize must be at least 1");
+		}
+		this.other = other;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get the number of bindings evaluated together.
+	 * 
+	 * @return the batch size.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	@Override
+	public QueryIterator execute(final BasicPattern pattern,
+			final QueryIterator input, final ExecutionContext execCxt) {
+		if (!(execCxt.getActiveGraph() instanceof BloomGraph)) {
+			return other.execute(pattern, input, execCxt);
+		}
+		final BloomGraph graph = (BloomGraph) execCxt.getActiveGraph();
+		QueryIterator retval = input;
+		for (final Triple triple : order(pattern.getList(),
+				graph.getGraphStatistics())) {
+			retval = new BloomPatternIterator(retval, triple, graph,
+					batchSize, execCxt);
+		}
+		return retval;
+	}
+
+	/**
+	 * Order the triple patterns for evaluation. The pattern with the fewest
+	 * estimated matches is evaluated first. After that the patterns that share
+	 * a variable with the patterns already evaluated are preferred, fewest
+	 * estimated matches first.
+	 * 
+	 * @param triples
+	 *            the triple patterns.
+	 * @param stats
+	 *            the statistics to estimate the matches with.
+	 * @return the triple patterns in evaluation order.
+	 */
+	static List<Triple> order(final List<Triple> triples,
+			final GraphStatistics stats) {
+		final Map<Triple, Long> estimates = new HashMap<Triple, Long>();
+		for (final Triple triple : triples) {
+			final long estimate = stats.estimate(any(triple.getSubject()),
+					any(triple.getPredicate()), any(triple.getObject()));
+			estimates.put(triple, estimate < 0 ? Long.MAX_VALUE : estimate);
+		}
+		final List<Triple> remaining = new ArrayList<Triple>(triples);
+		final List<Triple> retval = new ArrayList<Triple>(triples.size());
+		final Set<Node> bound = new HashSet<Node>();
+		while (!remaining.isEmpty()) {
+			Triple best = null;
+			boolean bestJoined = false;
+			for (final Triple triple : remaining) {
+				final boolean joined = joins(triple, bound);
+				if (best == null
+						|| (joined && !bestJoined)
+						|| (joined == bestJoined && estimates.get(triple) < estimates
+								.get(best))) {
+					best = triple;
+					bestJoined = joined;
+				}
+			}
+			remaining.remove(best);
+			retval.add(best);
+			addVars(best, bound);
+		}
+		LOG.debug("Evaluation order {}", retval);
+		return retval;
+	}
+
+	/**
+	 * Convert a variable to Node.ANY.
+	 * 
+	 * @param n
+	 *            the node.
+	 * @return Node.ANY if n is a variable, n otherwise.
+	 */
+	private static Node any(final Node n) {
+		return Var.isVar(n) ? Node.ANY : n;
+	}
+
+	/**
+	 * Returns true if the triple uses one of the variables.
+	 * 
+	 * @param triple
+	 *            the triple pattern.
+	 * @param vars
+	 *            the variables.
+	 * @return true if the triple pattern has a variable in vars.
+	 */
+	private static boolean joins(final Triple triple, final Set<Node> vars) {
+		return vars.contains(triple.getSubject())
+				|| vars.contains(triple.getPredicate())
+				|| vars.contains(triple.getObject());
+	}
+
+	/**
+	 * Add the variables of the triple to the set.
+	 * 
+	 * @param triple
+	 *            the triple pattern.
+	 * @param vars
+	 *            the variables.
+	 */
+	private static void addVars(final Triple triple, final Set<Node> vars) {
+		for (final Node n : new Node[] {
+				triple.getSubject(), triple.getPredicate(), triple.getObject()
+		}) {
+			if (Var.isVar(n)) {
+				vars.add(n);
+			}
+		}
+	}
+}
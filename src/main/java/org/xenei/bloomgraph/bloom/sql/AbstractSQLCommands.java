@@ -0,0 +1,946 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.SerializableNode;
+import org.xenei.bloomgraph.SerializableTriple;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.filters.TripleBloomFilter;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+import org.xenei.bloomgraph.bloom.page.SerializableTripleFilter;
+
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * The SQL commands that are common to the database implementations.
+ * 
+ * The schema is the same for all implementations: a PageIndex table holding
+ * the page bloom filters, a PageStats table and, depending on the PageLayout,
+ * either a Page_N table for each page or a single Triples table with a page
+ * column. The bloom filter tables carry hamming and log columns that are
+ * indexed so that the bloommatch( filter, bloom ) function is only evaluated
+ * for rows that can match. Implementations must provide the bloommatch and bloomupdate
+ * functions and create the schema.
+ * 
+ * With PageIndexMode.BIT_SLICE the page filters are also written to the
+ * PageBitSlices table (see PageIndexMode) and pages are found without the
+ * bloommatch function. Implementations must then create the PageBitSlices and
+ * PageBitMasks tables, call initBitSlices() and provide the dialect specific
+ * bitwise SQL.
+ */
+public abstract class AbstractSQLCommands implements SQLCommands {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(AbstractSQLCommands.class);
+
+	// the number depth of the approximate log for the triple bloom filters.
+	protected static final int APPROX_LOG_DEPTH = 1;
+
+	/**
+	 * The table that holds the triples for the SINGLE_TABLE layout.
+	 */
+	protected static final String TRIPLE_TABLE = "Triples";
+
+	// column list and row parameters for the batch insert.
+	private static final String BATCH_INSERT_FMT = "INSERT INTO Page_%s (hamming, log, hash, bloom, data) VALUES ";
+	private static final String BATCH_INSERT_ROW = "(?,?,?,?,?)";
+	// column list and row parameters for the SINGLE_TABLE batch insert.
+	private static final String SINGLE_TABLE_INSERT = "INSERT INTO "
+			+ TRIPLE_TABLE + " (page, hamming, log, hash, bloom, data) VALUES ";
+	private static final String SINGLE_TABLE_ROW_FMT = "(%s,?,?,?,?,?)";
+
+	/**
+	 * The maximum number of triple ids deleted in one statement.
+	 */
+	protected static final int DELETE_BATCH_SIZE = 512;
+
+	/**
+	 * The sizes that IN (...) parameter lists are padded to so that the
+	 * statements have a few stable shapes in the statement cache. Longer lists
+	 * are padded to a multiple of the largest size.
+	 */
+	private static final int[] IN_LIST_SIZES = {
+			1, 8, 32, 128, 512
+	};
+
+	/**
+	 * The table that holds the page filter bit slices.
+	 */
+	protected static final String BIT_SLICE_TABLE = "PageBitSlices";
+
+	/**
+	 * The table that holds the mask for each page position in a bit slice
+	 * word.
+	 */
+	protected static final String BIT_MASK_TABLE = "PageBitMasks";
+
+	/**
+	 * The table that holds the node encoding version of the store.
+	 */
+	protected static final String FORMAT_TABLE = "StoreFormat";
+
+	/**
+	 * The number of pages in each bit slice word.
+	 */
+	protected static final int BIT_SLICE_WORD = 32;
+
+	// parameters are the bit IN list, the bitwise AND aggregate of the
+	// words, the number of bits and the bitwise AND of a word and a mask.
+	private static final String BIT_SLICE_SEARCH_FMT = "SELECT p.bloom, p.idx FROM PageIndex p JOIN "
+			+ "(SELECT (s.word * "
+			+ BIT_SLICE_WORD
+			+ ") + m.pos AS page FROM "
+			+ "(SELECT word, %2$s AS pages FROM "
+			+ BIT_SLICE_TABLE
+			+ " WHERE bit IN (%1$s) GROUP BY word HAVING COUNT(*)=%3$s) s "
+			+ "JOIN "
+			+ BIT_MASK_TABLE
+			+ " m ON %4$s <> 0) b "
+			+ "ON p.idx=b.page ORDER BY p.idx";
+
+	// the layout of the triple storage.
+	private final PageLayout layout;
+	// the fetch size for cursor statements, 0 = driver default.
+	private int cursorFetchSize;
+	// the method used to find matching pages.
+	private PageIndexMode pageIndexMode;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param layout
+	 *            the layout of the triple storage.
+	 */
+	protected AbstractSQLCommands(final PageLayout layout) {
+		this.layout = layout;
+		this.cursorFetchSize = 0;
+		this.pageIndexMode = PageIndexMode.BLOOM_FUNCTION;
+	}
+
+	/**
+	 * Get the layout of the triple storage.
+	 * 
+	 * @return the page layout.
+	 */
+	public final PageLayout getPageLayout() {
+		return layout;
+	}
+
+	@Override
+	public int getCursorFetchSize() {
+		return cursorFetchSize;
+	}
+
+	/**
+	 * Set the fetch size for the statements read by cursors.
+	 * 
+	 * @param cursorFetchSize
+	 *            the fetch size, 0 to use the driver default. Negative values
+	 *            are driver specific (e.g. Integer.MIN_VALUE requests row by
+	 *            row streaming from MySQL).
+	 */
+	public void setCursorFetchSize(final int cursorFetchSize) {
+		this.cursorFetchSize = cursorFetchSize;
+	}
+
+	@Override
+	public PageIndexMode getPageIndexMode() {
+		return pageIndexMode;
+	}
+
+	/**
+	 * Set the method used to find the matching pages. Must be set before the
+	 * schema is created. The bit slices are built from the existing page
+	 * filters when the bit slice tables are created.
+	 * 
+	 * @param pageIndexMode
+	 *            the page index mode.
+	 */
+	public void setPageIndexMode(final PageIndexMode pageIndexMode) {
+		if (pageIndexMode == null) {
+			throw new IllegalArgumentException(
+					"Page index mode may not be null");
+		}
+		this.pageIndexMode = pageIndexMode;
+	}
+
+	/**
+	 * Get the statement that sets the bits of a page in a bit slice word,
+	 * inserting the word if necessary. Parameters are the bit position, the
+	 * word number and the mask of the pages to set.
+	 * 
+	 * @return the SQL statement.
+	 */
+	protected abstract String bitSliceUpsert();
+
+	/**
+	 * Get the aggregate expression that is the bitwise AND of a column over a
+	 * group.
+	 * 
+	 * @param column
+	 *            the column to aggregate.
+	 * @return the SQL expression.
+	 */
+	protected abstract String bitAndAggregate(final String column);
+
+	/**
+	 * Get the expression that is the bitwise AND of two values.
+	 * 
+	 * @param left
+	 *            the first value.
+	 * @param right
+	 *            the second value.
+	 * @return the SQL expression.
+	 */
+	protected abstract String bitAnd(final String left, final String right);
+
+	/**
+	 * Initialise the bit slice tables after they have been created. If the
+	 * mask table is empty the masks are written and the bit slices are built
+	 * from the filters in the PageIndex table.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	protected final void initBitSlices(final Connection connection)
+			throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery("SELECT COUNT(*) FROM " + BIT_MASK_TABLE);
+			if (rs.next() && rs.getInt(1) > 0) {
+				return;
+			}
+			DbUtils.closeQuietly(rs);
+			rs = null;
+			for (int pos = 0; pos < BIT_SLICE_WORD; pos++) {
+				stmt.addBatch(String.format(
+						"INSERT INTO %s (pos, mask) VALUES (%s, %s)",
+						BIT_MASK_TABLE, pos, 1L << pos));
+			}
+			stmt.executeBatch();
+			rs = stmt.executeQuery(pageIndexScan());
+			while (rs.next()) {
+				final byte[] bloom = rs.getBytes(1);
+				if (bloom != null) {
+					writeBitSlices(connection, rs.getInt(2),
+							BitSet.valueOf(bloom), new BitSet());
+				}
+			}
+			LOG.info("Built the page filter bit slices");
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Set the bits of a page in the bit slices for the bits that are in the
+	 * filter but not the existing page filter.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param pageId
+	 *            the page id.
+	 * @param filter
+	 *            the bits to set.
+	 * @param existing
+	 *            the bits that are already set for the page.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	private void writeBitSlices(final Connection connection,
+			final int pageId, final BitSet filter, final BitSet existing)
+			throws SQLException {
+		final int word = pageId / BIT_SLICE_WORD;
+		final long mask = 1L << (pageId % BIT_SLICE_WORD);
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(bitSliceUpsert());
+			int count = 0;
+			for (int bit = filter.nextSetBit(0); bit >= 0; bit = filter
+					.nextSetBit(bit + 1)) {
+				if (!existing.get(bit)) {
+					stmt.setInt(1, bit);
+					stmt.setInt(2, word);
+					stmt.setLong(3, mask);
+					stmt.addBatch();
+					count++;
+				}
+			}
+			if (count > 0) {
+				stmt.executeBatch();
+			}
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Add the bits of the filter to the bit slices of a page. Only the bits
+	 * that are not already in the page filter are written. Must be called
+	 * before the page filter is updated.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param pageId
+	 *            the page id.
+	 * @param filter
+	 *            the filter being added to the page filter.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	private void updateBitSlices(final Connection connection,
+			final int pageId, final PageBloomFilter filter)
+			throws SQLException {
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		BitSet existing = new BitSet();
+		try {
+			stmt = connection.prepareStatement(pageIndexById());
+			stmt.setInt(1, pageId);
+			rs = stmt.executeQuery();
+			if (rs.next()) {
+				final byte[] bloom = rs.getBytes(1);
+				if (bloom != null) {
+					existing = BitSet.valueOf(bloom);
+				}
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+		writeBitSlices(connection, pageId,
+				BitSet.valueOf(filter.getByteBuffer()), existing);
+	}
+
+	/**
+	 * Check the node encoding version of the store. A new store is marked with
+	 * SerializableNode.FORMAT_VERSION. A store with a different version, or
+	 * with pages but no version because it predates the version table, can
+	 * not be searched with the current encoding and is refused. Must be called
+	 * by createSchema() after the PageIndex table is created.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @throws SQLException
+	 *             if the store has a different version or on error.
+	 */
+	protected final void checkFormat(final Connection connection)
+			throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + FORMAT_TABLE
+					+ " (version INT NOT NULL)");
+			rs = stmt.executeQuery("SELECT version FROM " + FORMAT_TABLE);
+			if (rs.next()) {
+				final int version = rs.getInt(1);
+				if (version != SerializableNode.FORMAT_VERSION) {
+					throw new SQLException(String.format(
+							"Store format version %s does not match %s, the data must be reloaded",
+							version, SerializableNode.FORMAT_VERSION));
+				}
+				return;
+			}
+			DbUtils.closeQuietly(rs);
+			rs = stmt.executeQuery("SELECT count(*) FROM PageIndex");
+			if (rs.next() && rs.getInt(1) > 0) {
+				throw new SQLException(String.format(
+						"Store predates format version %s, the data must be reloaded",
+						SerializableNode.FORMAT_VERSION));
+			}
+			stmt.executeUpdate(String.format("INSERT INTO %s (version) VALUES (%s)",
+					FORMAT_TABLE, SerializableNode.FORMAT_VERSION));
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Get the size an IN (...) parameter list of n values is padded to.
+	 * 
+	 * @param n
+	 *            the number of values.
+	 * @return the padded size.
+	 */
+	protected static int inListSize(final int n) {
+		for (final int size : IN_LIST_SIZES) {
+			if (n <= size) {
+				return size;
+			}
+		}
+		final int max = IN_LIST_SIZES[IN_LIST_SIZES.length - 1];
+		return ((n + max - 1) / max) * max;
+	}
+
+	/**
+	 * Get a parameter list of the form "?,?,?".
+	 * 
+	 * @param size
+	 *            the number of parameters.
+	 * @return the parameter list.
+	 */
+	protected static String parameterList(final int size) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			sb.append(i == 0 ? "?" : ",?");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Prepare a statement that is not kept in the statement cache. Used for
+	 * statements whose SQL changes from call to call so that they do not
+	 * displace the cached page statements. The statement cache only handles
+	 * prepareStatement(String).
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param sql
+	 *            the SQL for the statement.
+	 * @return the prepared statement.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	protected static PreparedStatement prepareUncached(
+			final Connection connection, final String sql)
+			throws SQLException {
+		return connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+	}
+
+	/**
+	 * Build a statement on the triples of a page for the layout. For example
+	 * pageStatement( "SELECT data, idx FROM", 5, "hash=?" ) returns
+	 * "SELECT data, idx FROM Page_5 WHERE hash=?" or
+	 * "SELECT data, idx FROM Triples WHERE page=5 AND hash=?".
+	 * 
+	 * @param prefix
+	 *            the statement up to and including the FROM keyword.
+	 * @param pageId
+	 *            the page id.
+	 * @param condition
+	 *            the condition on the triples, may be null.
+	 * @return the SQL statement.
+	 */
+	protected final String pageStatement(final String prefix,
+			final int pageId, final String condition) {
+		if (layout == PageLayout.SINGLE_TABLE) {
+			return String.format("%s %s WHERE page=%s%s", prefix,
+					TRIPLE_TABLE, pageId, condition == null ? "" : " AND "
+							+ condition);
+		}
+		return String.format("%s Page_%s%s", prefix, pageId,
+				condition == null ? "" : " WHERE " + condition);
+	}
+
+	/**
+	 * Get the statement that removes all triples from a page.
+	 * 
+	 * @param pageId
+	 *            the page to clear.
+	 * @return the SQL statement.
+	 */
+	protected String truncatePage(final int pageId) {
+		return pageStatement("DELETE FROM", pageId, null);
+	}
+
+	@Override
+	public String getPageIndexTableName() {
+		return "PageIndex";
+	}
+
+	@Override
+	public PreparedStatement pageIndexSearch(final Connection connection,
+			final PageBloomFilter filter) throws SQLException {
+		if (pageIndexMode == PageIndexMode.BIT_SLICE) {
+			return bitSliceSearch(connection, filter);
+		}
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection
+					.prepareStatement("SELECT bloom, idx FROM PageIndex WHERE hamming>=? AND log>=? AND bloommatch( ?, PageIndex.bloom )");
+			stmt.setInt(1, filter.getHammingWeight());
+			stmt.setDouble(2, filter.getApproximateLog(0));
+			stmt.setBytes(3, DBIO.toByteArray(filter.getByteBuffer()));
+			return stmt;
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		}
+	}
+
+	/**
+	 * Create the statement that finds the pages that have all the bits of the
+	 * filter using the bit slices.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param filter
+	 *            the bloom filter to match.
+	 * @return the prepared statement.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	private PreparedStatement bitSliceSearch(final Connection connection,
+			final PageBloomFilter filter) throws SQLException {
+		final int[] bits = filter.getBitPositions();
+		if (bits.length == 0) {
+			return connection.prepareStatement(pageIndexScan()
+					+ " ORDER BY idx");
+		}
+		// the number of bits varies with the filter so the statement is not
+		// cached.
+		PreparedStatement stmt = null;
+		try {
+			stmt = prepareUncached(connection, String.format(
+					BIT_SLICE_SEARCH_FMT, parameterList(bits.length),
+					bitAndAggregate("pages"),
+					bits.length, bitAnd("s.pages", "m.mask")));
+			for (int i = 0; i < bits.length; i++) {
+				stmt.setInt(i + 1, bits[i]);
+			}
+			return stmt;
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		}
+	}
+
+	@Override
+	public String pageIndexById() {
+		return "SELECT bloom FROM PageIndex WHERE idx=?";
+	}
+
+	@Override
+	public String pageIndexScan() {
+		return "SELECT bloom, idx FROM PageIndex";
+	}
+
+	@Override
+	public PreparedStatement tripleSearch(final Connection connection,
+			final int pageId, final PageSearchItem candidate)
+			throws SQLException, IOException {
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(pageStatement(
+					"SELECT data, idx FROM", pageId, searchCondition(candidate)));
+			setSearchParameters(stmt, 1, candidate);
+			LOG.debug("Checking {} with {}", candidate.getTriple(), stmt);
+			return stmt;
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		} catch (final IOException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		}
+	}
+
+	@Override
+	public PreparedStatement tripleScan(final Connection connection,
+			final int pageId) throws SQLException {
+		return connection.prepareStatement(pageStatement(
+				"SELECT data, idx FROM", pageId, null));
+	}
+
+	/**
+	 * Searches the pages with a single statement. For the SINGLE_TABLE layout
+	 * the pages are selected with a page IN (...) clause whose parameter list
+	 * is padded to inListSize() by repeating the last page id. Otherwise the
+	 * page tables are combined with UNION ALL; the table names are part of the
+	 * SQL so that statement is not cached.
+	 */
+	@Override
+	public PreparedStatement multiPageSearch(final Connection connection,
+			final List<Integer> pageIds, final PageSearchItem candidate)
+			throws SQLException, IOException {
+		final boolean any = candidate.getTriple().equals(Triple.ANY);
+		if (pageIds.size() == 1) {
+			return any ? tripleScan(connection, pageIds.get(0)) : tripleSearch(
+					connection, pageIds.get(0), candidate);
+		}
+		final String condition = any ? null : searchCondition(candidate);
+		final boolean single = layout == PageLayout.SINGLE_TABLE;
+		final int size = inListSize(pageIds.size());
+		PreparedStatement stmt = null;
+		try {
+			int idx = 1;
+			if (single) {
+				stmt = connection.prepareStatement(String.format(
+						"SELECT data, idx FROM %s WHERE page IN (%s)%s",
+						TRIPLE_TABLE, parameterList(size),
+						condition == null ? "" : " AND " + condition));
+				for (int i = 0; i < size; i++) {
+					stmt.setInt(idx++,
+							pageIds.get(Math.min(i, pageIds.size() - 1)));
+				}
+			}
+			else {
+				final StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < pageIds.size(); i++) {
+					if (i > 0) {
+						sb.append(" UNION ALL ");
+					}
+					sb.append(pageStatement("SELECT data, idx FROM",
+							pageIds.get(i), condition));
+				}
+				stmt = prepareUncached(connection, sb.toString());
+			}
+			if (!any) {
+				final int repeat = single ? 1 : pageIds.size();
+				for (int i = 0; i < repeat; i++) {
+					idx = setSearchParameters(stmt, idx, candidate);
+				}
+			}
+			LOG.debug("Checking {} on {} pages with {}", new Object[] {
+					candidate.getTriple(), pageIds.size(), stmt });
+			return stmt;
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		} catch (final IOException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		}
+	}
+
+	/**
+	 * Searches the page with a hash IN (...) clause. The statement depends on
+	 * the page and the padded number of hashes so it is not cached.
+	 */
+	@Override
+	public PreparedStatement tripleHashSearch(final Connection connection,
+			final int pageId, final List<Integer> hashes) throws SQLException {
+		final int size = inListSize(hashes.size());
+		PreparedStatement stmt = null;
+		try {
+			stmt = prepareUncached(connection, pageStatement(
+					"SELECT data, idx FROM", pageId, "hash IN ("
+							+ parameterList(size) + ")"));
+			for (int i = 0; i < size; i++) {
+				stmt.setInt(i + 1, hashes.get(Math.min(i, hashes.size() - 1)));
+			}
+			return stmt;
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the where condition for a triple search.
+	 * 
+	 * @param candidate
+	 *            the page search item to match.
+	 * @return the condition.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private String searchCondition(final PageSearchItem candidate)
+			throws IOException {
+		if (candidate.getSerializable().containsWild()) {
+			return "hamming>=? AND log>=? AND bloommatch( ?, bloom)";
+		}
+		return "hash=?";
+	}
+
+	/**
+	 * Set the parameters for the searchCondition().
+	 * 
+	 * @param stmt
+	 *            the statement to set the parameters on.
+	 * @param start
+	 *            the index of the first parameter.
+	 * @param candidate
+	 *            the page search item to match.
+	 * @return the index of the next parameter.
+	 * @throws SQLException
+	 *             on error.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private int setSearchParameters(final PreparedStatement stmt,
+			final int start, final PageSearchItem candidate)
+			throws SQLException, IOException {
+		int idx = start;
+		if (candidate.getSerializable().containsWild()) {
+			stmt.setInt(idx++, candidate.getTripleFilter().getHammingWeight());
+			stmt.setDouble(idx++, candidate.getTripleFilter()
+					.getApproximateLog(APPROX_LOG_DEPTH));
+			stmt.setBytes(idx++, DBIO.toByteArray(candidate.getTripleFilter()
+					.getByteBuffer()));
+		}
+		else {
+			stmt.setInt(idx++, candidate.getTriple().hashCode());
+		}
+		return idx;
+	}
+
+	/**
+	 * Deletes the matching triples with set based statements. The ids of the
+	 * verified matches are collected and deleted with idx IN (...) statements
+	 * of up to DELETE_BATCH_SIZE ids. The id lists are padded to inListSize()
+	 * by repeating the last id.
+	 */
+	@Override
+	public int tripleDelete(final Connection connection, final DBPage page,
+			final PageSearchItem candidate) throws SQLException, IOException {
+		final int pageId = page.getPageIndex().getId();
+		if (candidate.getTriple().equals(Triple.ANY)) {
+			PreparedStatement stmt = null;
+			try {
+				stmt = connection.prepareStatement(truncatePage(pageId));
+				return stmt.executeUpdate();
+			} finally {
+				DbUtils.closeQuietly(stmt);
+			}
+		}
+
+		// read the ids before deleting so the result set is not affected.
+		// the search uses the connection of the delete so that no other
+		// connection is borrowed from the pool.
+		final List<Integer> ids = new ArrayList<Integer>();
+		final SerializableTripleFilter filter = new SerializableTripleFilter(
+				candidate);
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = tripleSearch(connection, pageId, candidate);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				if (filter.accept(new SerializableTriple(DBIO.toByteBuffer(rs
+						.getBytes(1))))) {
+					ids.add(rs.getInt(2));
+				}
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+
+		int count = 0;
+		for (int start = 0; start < ids.size(); start += DELETE_BATCH_SIZE) {
+			count += deleteIds(connection, pageId, ids.subList(start,
+					Math.min(start + DELETE_BATCH_SIZE, ids.size())));
+		}
+		return count;
+	}
+
+	/**
+	 * Delete triples from a page by id with a single statement.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param pageId
+	 *            the page to delete from.
+	 * @param ids
+	 *            the ids of the triples to delete.
+	 * @return the number of triples deleted.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	private int deleteIds(final Connection connection, final int pageId,
+			final List<Integer> ids) throws SQLException {
+		final int size = inListSize(ids.size());
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(pageStatement("DELETE FROM",
+					pageId, "idx IN (" + parameterList(size) + ")"));
+			for (int i = 0; i < size; i++) {
+				stmt.setInt(i + 1, ids.get(Math.min(i, ids.size() - 1)));
+			}
+			return stmt.executeUpdate();
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	@Override
+	public int tripleCount(final Connection connection, final int pageId,
+			final TripleBloomFilter filter) throws SQLException, IOException {
+		final String sql = pageStatement("SELECT count(*) FROM", pageId,
+				"hamming>=? AND log>=? AND bloommatch( ?, bloom)");
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.prepareStatement(sql);
+			stmt.setInt(1, filter.getHammingWeight());
+			stmt.setDouble(2, filter.getApproximateLog(APPROX_LOG_DEPTH));
+			stmt.setBytes(3, DBIO.toByteArray(filter.getByteBuffer()));
+			rs = stmt.executeQuery();
+			if (rs.next()) {
+				return rs.getInt(1);
+			}
+			else {
+				throw new IOException("No result returned from count call");
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	// a single triple is inserted as a batch of one.
+	@Override
+	public void tripleInsert(final Connection connection, final int pageId,
+			final PageSearchItem candidate) throws SQLException, IOException {
+		tripleInsert(connection, pageId,
+				Collections.singletonList(candidate));
+	}
+
+	@Override
+	public void tripleInsert(final Connection connection, final int pageId,
+			final List<PageSearchItem> candidates) throws SQLException,
+			IOException {
+		if (candidates.isEmpty()) {
+			return;
+		}
+		final boolean single = layout == PageLayout.SINGLE_TABLE;
+		final StringBuilder sql = new StringBuilder(
+				single ? SINGLE_TABLE_INSERT : String.format(BATCH_INSERT_FMT,
+						pageId));
+		final String row = single ? String.format(SINGLE_TABLE_ROW_FMT,
+				pageId) : BATCH_INSERT_ROW;
+		for (int i = 0; i < candidates.size(); i++) {
+			if (i > 0) {
+				sql.append(",");
+			}
+			sql.append(row);
+		}
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		final PageBloomFilter pageFilter = new PageBloomFilter();
+		try {
+			stmt = connection.prepareStatement(sql.toString(),
+					Statement.RETURN_GENERATED_KEYS);
+			int col = 1;
+			for (final PageSearchItem candidate : candidates) {
+				final TripleBloomFilter filter = candidate.getTripleFilter();
+				final SerializableTriple st = candidate.getSerializable();
+				stmt.setInt(col++, filter.getHammingWeight());
+				stmt.setDouble(col++, filter.getApproximateLog(3));
+				stmt.setInt(col++, candidate.getTriple().hashCode());
+				stmt.setBytes(col++, DBIO.toByteArray(filter.getByteBuffer()));
+				stmt.setBytes(col++, DBIO.toByteArray(st.getByteBuffer()));
+				pageFilter.add(candidate.getPageFilter());
+			}
+			stmt.executeUpdate();
+			rs = stmt.getGeneratedKeys();
+			for (final PageSearchItem candidate : candidates) {
+				if (!rs.next()) {
+					throw new IOException(
+							"Unable to read generated ids for batch insert");
+				}
+				candidate.getSerializable().setIndex(rs.getInt(1));
+			}
+			DbUtils.closeQuietly(rs);
+			rs = null;
+			DbUtils.closeQuietly(stmt);
+			stmt = null;
+
+			// merged page filter written once for the batch.
+			pageFilterUpdate(connection, pageId, pageFilter);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Merge the filter of the triples written to a page into the page filter
+	 * and, with PageIndexMode.BIT_SLICE, the bit slices.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param pageId
+	 *            the page id.
+	 * @param pageFilter
+	 *            the merged page filter of the written triples.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	protected final void pageFilterUpdate(final Connection connection,
+			final int pageId, final PageBloomFilter pageFilter)
+			throws SQLException {
+		if (pageIndexMode == PageIndexMode.BIT_SLICE) {
+			updateBitSlices(connection, pageId, pageFilter);
+		}
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection
+					.prepareStatement("UPDATE PageIndex SET bloom=bloomupdate( bloom, ? ) WHERE idx=?");
+			stmt.setBytes(1, DBIO.toByteArray(pageFilter.getByteBuffer()));
+			stmt.setInt(2, pageId);
+			stmt.executeUpdate();
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	@Override
+	public String getPageStatsTableName() {
+		return "PageStats";
+	}
+
+	@Override
+	public String getPageCountQuery() {
+		return "SELECT COUNT(*) AS size FROM PageStats";
+	}
+
+	@Override
+	public String getStats(final int tableId) {
+		return String.format(
+				"SELECT records, deletes, bytes FROM PageStats WHERE idx=%s",
+				tableId);
+	}
+
+	@Override
+	public String getStatsScan() {
+		return "SELECT idx, records, deletes, bytes FROM PageStats";
+	}
+
+	@Override
+	public String statsUpdate() {
+		return "UPDATE PageStats SET records=records+?, deletes=deletes+?, bytes=bytes+? WHERE idx=?";
+	}
+
+	@Override
+	public String getRecordCountQuery() {
+		return "SELECT SUM(records-deletes) AS count FROM PageStats ";
+	}
+}
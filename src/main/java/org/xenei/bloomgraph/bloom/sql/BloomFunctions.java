@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.nio.ByteBuffer;
+
+import org.xenei.bloomgraph.bloom.filters.AbstractBloomFilter;
+
+/**
+ * Java implementations of the bloom filter database functions.
+ * 
+ * These are the equivalents of the functions provided by the MySQL bloom UDF
+ * for databases that can call static Java methods (e.g. H2 aliases or Derby
+ * functions). The filters are the little endian byte arrays written by
+ * AbstractBloomFilter.getByteBuffer(). A null filter is treated as empty.
+ */
+public final class BloomFunctions {
+
+	/**
+	 * The depth of the approximate log calculated by bloomLog().
+	 */
+	public static final int LOG_DEPTH = 3;
+
+	private BloomFunctions() {
+	}
+
+	/**
+	 * Determine if a filter matches a candidate. The filter matches if every
+	 * bit in the filter is also set in the candidate.
+	 * 
+	 * @param filter
+	 *            the filter to match.
+	 * @param candidate
+	 *            the candidate to check.
+	 * @return true if the filter matches the candidate.
+	 */
+	public static boolean bloomMatch(final byte[] filter,
+			final byte[] candidate) {
+		return wrap(filter).match(wrap(candidate));
+	}
+
+	/**
+	 * Get the hamming weight (number of bits set) of a filter.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @return the hamming weight.
+	 */
+	public static int bloomHamming(final byte[] filter) {
+		return wrap(filter).getHammingWeight();
+	}
+
+	/**
+	 * Get the approximate base 2 log of a filter interpreted as an unsigned
+	 * integer.
+	 * 
+	 * @param filter
+	 *            the filter.
+	 * @return the approximate log.
+	 */
+	public static double bloomLog(final byte[] filter) {
+		return wrap(filter).getApproximateLog(LOG_DEPTH);
+	}
+
+	/**
+	 * Merge two filters.
+	 * 
+	 * @param filter
+	 *            the filter to update.
+	 * @param update
+	 *            the filter to add.
+	 * @return the merged filter.
+	 */
+	public static byte[] bloomUpdate(final byte[] filter, final byte[] update) {
+		final RawBloomFilter retval = wrap(filter);
+		retval.add(wrap(update));
+		final ByteBuffer bb = retval.getByteBuffer();
+		final byte[] result = new byte[bb.remaining()];
+		bb.get(result);
+		return result;
+	}
+
+	/**
+	 * Create a filter from the database value.
+	 * 
+	 * @param filter
+	 *            the filter bytes, may be null.
+	 * @return the filter.
+	 */
+	private static RawBloomFilter wrap(final byte[] filter) {
+		return new RawBloomFilter(filter == null ? ByteBuffer.allocate(0)
+				: ByteBuffer.wrap(filter));
+	}
+
+	/**
+	 * A bloom filter of any size.
+	 */
+	private static class RawBloomFilter extends AbstractBloomFilter {
+
+		private RawBloomFilter(final ByteBuffer data) {
+			super(data);
+		}
+
+		@Override
+		public int getSize() {
+			// the size is not known, all raw filters are compatible.
+			return 0;
+		}
+	}
+}
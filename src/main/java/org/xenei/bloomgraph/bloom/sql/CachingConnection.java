@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.dbutils.DbUtils;
+
+/**
+ * A connection wrapper that caches prepared statements.
+ * 
+ * The SQL for the page queries is determined by the operation and the page id
+ * (e.g. "SELECT data, idx FROM Page_5 WHERE hash=?") so the SQL string is used
+ * as the cache key. Statements prepared with prepareStatement(String) or
+ * prepareCall(String) are returned as wrappers whose close() method returns
+ * the statement to the cache rather than closing it. A statement is only
+ * handed out to one caller at a time; if it is in use a new statement is
+ * prepared.
+ * 
+ * A statement is returned to the cache with its parameters cleared and its
+ * fetch size, maximum rows and query timeout reset to the defaults so that a
+ * setting made by one caller (e.g. the streaming fetch size of a cursor) does
+ * not carry over to the next.
+ * 
+ * The cache is bounded and the least recently used idle statements are closed
+ * when it is full. Closing the connection closes all cached statements.
+ * 
+ * Server side prepared statements should be enabled in the driver (e.g.
+ * useServerPrepStmts=true for MySQL) so that reusing a statement avoids
+ * parsing the query.
+ */
+final class CachingConnection implements InvocationHandler {
+
+	/**
+	 * The default maximum number of idle statements per connection.
+	 */
+	static final int DEFAULT_CACHE_SIZE = 256;
+
+	// the wrapped connection
+	private final Connection connection;
+	// the maximum number of idle statements.
+	private final int maxSize;
+	// the idle statements in least recently used order.
+	private final LinkedHashMap<String, PreparedStatement> idle;
+	// statistics
+	private long hits;
+	private long misses;
+
+	/**
+	 * Wrap a connection.
+	 * 
+	 * @param connection
+	 *            the connection to wrap.
+	 * @param maxSize
+	 *            the maximum number of idle statements to keep.
+	 * @return the caching connection.
+	 */
+	static Connection wrap(final Connection connection, final int maxSize) {
+		return (Connection) Proxy.newProxyInstance(
+				CachingConnection.class.getClassLoader(), new Class<?>[] {
+					Connection.class
+				}, new CachingConnection(connection, maxSize));
+	}
+
+	/**
+	 * Get the handler for a connection created by wrap().
+	 * 
+	 * @param connection
+	 *            the connection.
+	 * @return the handler or null if the connection was not created by
+	 *         wrap().
+	 */
+	static CachingConnection handler(final Connection connection) {
+		if (Proxy.isProxyClass(connection.getClass())) {
+			final InvocationHandler h = Proxy.getInvocationHandler(connection);
+			if (h instanceof CachingConnection) {
+				return (CachingConnection) h;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param connection
+	 *            the connection to wrap.
+	 * @param maxSize
+	 *            the maximum number of idle statements to keep.
+	 */
+	private CachingConnection(final Connection connection, final int maxSize) {
+		this.connection = connection;
+		this.maxSize = maxSize;
+		this.idle = new LinkedHashMap<String, PreparedStatement>(16, 0.75f,
+				true);
+	}
+
+	/**
+	 * Get the number of statements that were found in the cache.
+	 * 
+	 * @return the hit count.
+	 */
+	synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Get the number of statements that had to be prepared.
+	 * 
+	 * @return the miss count.
+	 */
+	synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Get the number of idle statements in the cache.
+	 * 
+	 * @return the number of idle statements.
+	 */
+	synchronized int size() {
+		return idle.size();
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method,
+			final Object[] args) throws Throwable {
+		final String name = method.getName();
+		if (args != null && args.length == 1 && args[0] instanceof String) {
+			if ("prepareStatement".equals(name)) {
+				return borrow("S:", (String) args[0], false);
+			}
+			if ("prepareCall".equals(name)) {
+				return borrow("C:", (String) args[0], true);
+			}
+		}
+		if ("close".equals(name)) {
+			closeAll();
+		}
+		try {
+			return method.invoke(connection, args);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Get a statement from the cache or prepare a new one.
+	 * 
+	 * @param prefix
+	 *            the key prefix for the statement type.
+	 * @param sql
+	 *            the SQL for the statement.
+	 * @param callable
+	 *            true for a callable statement.
+	 * @return the wrapped statement.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	private PreparedStatement borrow(final String prefix, final String sql,
+			final boolean callable) throws SQLException {
+		final String key = prefix + sql;
+		PreparedStatement stmt;
+		synchronized (this) {
+			stmt = idle.remove(key);
+			if (stmt == null) {
+				misses++;
+			}
+			else {
+				hits++;
+			}
+		}
+		if (stmt == null) {
+			stmt = callable ? connection.prepareCall(sql) : connection
+					.prepareStatement(sql);
+		}
+		final Class<?> type = callable ? CallableStatement.class
+				: PreparedStatement.class;
+		return (PreparedStatement) Proxy.newProxyInstance(
+				CachingConnection.class.getClassLoader(), new Class<?>[] {
+					type
+				}, new StatementHandler(key, stmt));
+	}
+
+	/**
+	 * Return a statement to the cache.
+	 * 
+	 * @param key
+	 *            the cache key.
+	 * @param stmt
+	 *            the statement.
+	 * @param reset
+	 *            true if the fetch size, maximum rows or query timeout were
+	 *            changed and must be reset.
+	 */
+	private void release(final String key, final PreparedStatement stmt,
+			final boolean reset) {
+		try {
+			if (connection.isClosed()) {
+				DbUtils.closeQuietly(stmt);
+				return;
+			}
+			stmt.clearParameters();
+			if (reset) {
+				stmt.setFetchSize(0);
+				stmt.setMaxRows(0);
+				stmt.setQueryTimeout(0);
+			}
+		} catch (final SQLException e) {
+			DbUtils.closeQuietly(stmt);
+			return;
+		}
+		synchronized (this) {
+			final PreparedStatement old = idle.put(key, stmt);
+			if (old != null) {
+				// only one idle statement per key is kept.
+				DbUtils.closeQuietly(old);
+			}
+			final Iterator<PreparedStatement> iter = idle.values().iterator();
+			while (idle.size() > maxSize && iter.hasNext()) {
+				DbUtils.closeQuietly(iter.next());
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Close all the idle statements.
+	 */
+	private synchronized void closeAll() {
+		for (final Map.Entry<String, PreparedStatement> entry : idle
+				.entrySet()) {
+			DbUtils.closeQuietly(entry.getValue());
+		}
+		idle.clear();
+	}
+
+	/**
+	 * Handler for a borrowed statement. Returns the statement to the cache
+	 * when it is closed.
+	 */
+	private class StatementHandler implements InvocationHandler {
+		// the cache key
+		private final String key;
+		// the statement
+		private final PreparedStatement stmt;
+		// true once close() has been called.
+		private boolean closed;
+		// true if a statement setting that must be reset was changed.
+		private boolean reset;
+
+		private StatementHandler(final String key, final PreparedStatement stmt) {
+			this.key = key;
+			this.stmt = stmt;
+			this.closed = false;
+			this.reset = false;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method,
+				final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("close".equals(name) && method.getParameterTypes().length == 0) {
+				if (!closed) {
+					closed = true;
+					release(key, stmt, reset);
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return closed || stmt.isClosed();
+			}
+			if (closed) {
+				throw new SQLException("Statement is closed");
+			}
+			if ("setFetchSize".equals(name) || "setMaxRows".equals(name)
+					|| "setLargeMaxRows".equals(name)
+					|| "setQueryTimeout".equals(name)) {
+				reset = true;
+			}
+			try {
+				return method.invoke(stmt, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
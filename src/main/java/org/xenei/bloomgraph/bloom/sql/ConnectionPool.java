@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A pool of connections for the DBIO.
+ * 
+ * Connections are borrowed for the duration of an operation or the lifetime
+ * of an iterator. Closing a borrowed connection returns it to the pool.
+ * Implementations may block or throw an SQLException when no connection is
+ * available.
+ */
+public interface ConnectionPool {
+
+	/**
+	 * Borrow a connection from the pool. The connection must be closed to
+	 * return it to the pool.
+	 * 
+	 * @return the connection.
+	 * @throws SQLException
+	 *             if a connection can not be obtained.
+	 */
+	public Connection getConnection() throws SQLException;
+
+	/**
+	 * Get the number of connections that are currently borrowed.
+	 * 
+	 * @return the number of borrowed connections.
+	 */
+	public int getActiveCount();
+
+	/**
+	 * Get the number of connections waiting in the pool.
+	 * 
+	 * @return the number of idle connections.
+	 */
+	public int getIdleCount();
+
+	/**
+	 * Close the pool. Idle connections are closed immediately, borrowed
+	 * connections are closed when they are returned.
+	 */
+	public void close();
+}
@@ -29,8 +29,17 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
@@ -38,17 +47,24 @@ import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.NodeCache;
+import org.xenei.bloomgraph.SerializableTriple;
 import org.xenei.bloomgraph.bloom.BloomIO;
 import org.xenei.bloomgraph.bloom.GraphStatistics;
+import org.xenei.bloomgraph.bloom.PatternFanOut;
+import org.xenei.bloomgraph.bloom.TriplePosition;
 import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
 import org.xenei.bloomgraph.bloom.index.PageIndex;
 import org.xenei.bloomgraph.bloom.page.AbstractPage;
 import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+import org.xenei.bloomgraph.bloom.page.ProbeSet;
+import org.xenei.bloomgraph.bloom.page.SerializableTripleFilter;
 
 import com.hp.hpl.jena.graph.Node;
 import com.hp.hpl.jena.graph.Triple;
 import com.hp.hpl.jena.util.iterator.ClosableIterator;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
 import com.hp.hpl.jena.util.iterator.Map1;
 import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
@@ -63,17 +79,45 @@ public class DBIO implements BloomIO {
 	public static final int MAX_PAGE_OVERS = PageBloomFilter.CONFIG
 			.getNumberOfItems();
 
-	// the datasource for the database.
-	private final DataSource dataSource;
+	/**
+	 * The default maximum number of triples written in one statement.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * The default maximum number of pages searched in one statement.
+	 */
+	public static final int DEFAULT_SEARCH_BATCH_SIZE = 100;
+
+	// the pool of connections for the database.
+	private final ConnectionPool pool;
 	// the statistics
 	private final BloomGraphStatistics statistics;
 	// the SQL commands for the database implementation.
 	private final SQLCommands sqlCommands;
-	// the thread local connection.
-	private final ThreadLocal<Connection> threadConn;
+	// the connection leased by each thread for the current operation.
+	private final ThreadLocal<Lease> leases;
+	// the open cursors.
+	private final Set<ClosableIterator<?>> cursors;
+	// the maximum literal size before compression.
+	private int maxBlob;
+	// the cache of decoded nodes.
+	private final NodeCache nodeCache;
+	// the maximum number of triples written in one statement.
+	private int batchSize;
+	// the maximum number of pages searched in one statement.
+	private int searchBatchSize;
+	// the client side copy of the page filters.
+	private final PageFilterCache pageFilters;
+	// the write-back cache of the page statistics.
+	private final PageStatsCache pageStats;
+	// the write behind queue, null if writes are synchronous.
+	private volatile WriteBehindQueue writeBehind;
+	// the reserve of empty pages, null if pages are created when needed.
+	private volatile PageReserve pageReserve;
 
 	/**
-	 * Constructor
+	 * Constructor. Uses a SimpleConnectionPool over the datasource.
 	 * 
 	 * @param dataSource
 	 *            The datasource for the connectins.
@@ -84,22 +128,60 @@ public class DBIO implements BloomIO {
 	 */
 	public DBIO(final DataSource dataSource, final SQLCommands sqlCommands)
 			throws SQLException {
-		this.dataSource = dataSource;
+		this(new SimpleConnectionPool(dataSource), sqlCommands);
+	}
+
+	/**
+	 * Constructor
+	 * 
+	 * @param pool
+	 *            The pool of connections for the database.
+	 * @param sqlCommands
+	 *            The SQL commands for the database implementation.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	public DBIO(final ConnectionPool pool, final SQLCommands sqlCommands)
+			throws SQLException {
+		this.pool = pool;
 		this.statistics = new BloomGraphStatistics();
 		this.sqlCommands = sqlCommands;
-		this.threadConn = new ThreadLocal<Connection>();
-		createSchema();
+		this.leases = new ThreadLocal<Lease>();
+		this.cursors = Collections
+				.newSetFromMap(new ConcurrentHashMap<ClosableIterator<?>, Boolean>());
+		this.maxBlob = Integer.MAX_VALUE;
+		this.nodeCache = new NodeCache();
+		this.batchSize = DEFAULT_BATCH_SIZE;
+		this.searchBatchSize = DEFAULT_SEARCH_BATCH_SIZE;
+		this.pageFilters = new PageFilterCache(sqlCommands);
+		this.pageStats = new PageStatsCache(sqlCommands,
+				PageBloomFilter.CONFIG.getNumberOfItems());
+		this.writeBehind = null;
+		this.pageReserve = null;
+		final Connection connection = getConnection();
+		try {
+			createSchema(connection);
+			pageFilters.load(connection);
+			pageStats.load(connection);
+		} catch (final IOException e) {
+			throw new SQLException("Unable to load page filters", e);
+		} finally {
+			releaseConnection(connection);
+		}
 	}
 
 	/**
 	 * Create the schema if necessary. This method must check the schema to
 	 * ensure that it is in a known state.
 	 * 
+	 * @param connection
+	 *            the connection to use.
 	 * @throws SQLException
 	 *             on error.
 	 */
-	private void createSchema() throws SQLException {
-		sqlCommands.createSchema(getConnection());
+	private void createSchema(final Connection connection)
+			throws SQLException {
+		sqlCommands.createSchema(connection);
 	}
 
 	@Override
@@ -108,59 +190,884 @@ public class DBIO implements BloomIO {
 	}
 
 	/**
-	 * Get the connection. The DBIO will create a a single connection on the
-	 * first call and will store it on the thread local varialble. After first
-	 * call the thread local version is returned.
+	 * Get the connection pool.
+	 * 
+	 * @return the connection pool.
+	 */
+	public ConnectionPool getConnectionPool() {
+		return pool;
+	}
+
+	/**
+	 * Lease a connection for the current operation. The first call on a thread
+	 * borrows a connection from the pool, nested calls on the same thread
+	 * return the same connection. Every call must be matched by a call to
+	 * releaseConnection(); the connection is returned to the pool when the
+	 * outermost lease is released.
+	 * 
+	 * @return the connection.
+	 * @throws SQLException
+	 *             if a connection can not be obtained.
+	 */
+	public Connection getConnection() throws SQLException {
+		Lease lease = leases.get();
+		if (lease == null) {
+			lease = new Lease(pool.getConnection());
+			leases.set(lease);
+		}
+		lease.holds++;
+		return lease.connection;
+	}
+
+	/**
+	 * Release a connection obtained from getConnection().
+	 * 
+	 * @param connection
+	 *            the connection to release.
+	 */
+	public void releaseConnection(final Connection connection) {
+		final Lease lease = leases.get();
+		if (lease == null || lease.connection != connection) {
+			LOG.warn("Release of a connection not leased by this thread");
+			return;
+		}
+		lease.holds--;
+		if (lease.holds == 0) {
+			leases.remove();
+			DbUtils.closeQuietly(lease.connection);
+		}
+	}
+
+	/**
+	 * Lease a connection that is not part of a transaction. If the current
+	 * thread is in a transaction a separate connection is borrowed from the
+	 * pool, otherwise this is the same as getConnection(). Used for writes
+	 * that must not be rolled back with the transaction, such as page creation
+	 * and the page statistics. Every call must be matched by a call to
+	 * releaseAutoCommitConnection().
+	 * 
+	 * @return the connection.
+	 * @throws SQLException
+	 *             if a connection can not be obtained.
+	 */
+	Connection getAutoCommitConnection() throws SQLException {
+		if (inTransaction()) {
+			return pool.getConnection();
+		}
+		return getConnection();
+	}
+
+	/**
+	 * Release a connection obtained from getAutoCommitConnection().
+	 * 
+	 * @param connection
+	 *            the connection to release.
+	 */
+	void releaseAutoCommitConnection(final Connection connection) {
+		final Lease lease = leases.get();
+		if (lease != null && lease.connection == connection) {
+			releaseConnection(connection);
+		}
+		else {
+			DbUtils.closeQuietly(connection);
+		}
+	}
+
+	/**
+	 * Borrow a dedicated connection for a cursor. The cursor is tracked until
+	 * closeCursor() is called and is closed if the DBIO is closed first.
+	 * 
+	 * If the current thread is in a transaction the transaction connection is
+	 * used so that the cursor sees the uncommitted changes.
+	 * 
+	 * @param cursor
+	 *            the cursor that will use the connection.
+	 * @return the connection.
+	 * @throws SQLException
+	 *             if a connection can not be obtained.
+	 */
+	Connection openCursor(final ClosableIterator<?> cursor)
+			throws SQLException {
+		final Connection connection = inTransaction() ? getConnection()
+				: pool.getConnection();
+		cursors.add(cursor);
+		return connection;
+	}
+
+	/**
+	 * Release the connection for a cursor and stop tracking the cursor.
+	 * 
+	 * @param cursor
+	 *            the cursor that is closing.
+	 * @param connection
+	 *            the connection from openCursor(), may be null.
+	 */
+	void closeCursor(final ClosableIterator<?> cursor,
+			final Connection connection) {
+		cursors.remove(cursor);
+		if (connection != null) {
+			releaseAutoCommitConnection(connection);
+		}
+	}
+
+	/**
+	 * Returns true if the current thread is in a transaction.
+	 * 
+	 * @return true if begin() has been called without commit() or abort().
+	 */
+	public boolean inTransaction() {
+		final Lease lease = leases.get();
+		return lease != null && lease.transaction;
+	}
+
+	/**
+	 * Returns true if the SQL commands support transactions.
+	 */
+	@Override
+	public boolean supportsTransactions() {
+		return sqlCommands.supportsTransactions();
+	}
+
+	/**
+	 * Start a transaction on the current thread. The thread keeps its leased
+	 * connection with auto commit disabled until commit() or abort() so that
+	 * all adds, deletes and finds on the thread use the one JDBC transaction.
+	 * 
+	 * Triples queued for write behind are written before the transaction
+	 * starts. Adds made in the transaction are written directly rather than
+	 * queued. New pages and the page statistics are written outside of the
+	 * transaction so an aborted transaction may leave empty pages.
+	 */
+	@Override
+	public void begin() throws IOException {
+		if (!supportsTransactions()) {
+			throw new UnsupportedOperationException(
+					"The storage engine does not support transactions");
+		}
+		if (inTransaction()) {
+			throw new IllegalStateException("Transaction already active");
+		}
+		flush();
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			final Lease lease = leases.get();
+			lease.transaction = true;
+			lease.changes = new ArrayList<long[]>();
+		} catch (final SQLException e) {
+			if (connection != null) {
+				releaseConnection(connection);
+			}
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void commit() throws IOException {
+		final Lease lease = transactionLease();
+		try {
+			lease.connection.commit();
+		} catch (final SQLException e) {
+			rollback(lease);
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			endTransaction(lease);
+		}
+	}
+
+	@Override
+	public void abort() throws IOException {
+		final Lease lease = transactionLease();
+		try {
+			lease.connection.rollback();
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			rollback(lease);
+			endTransaction(lease);
+		}
+	}
+
+	/**
+	 * Get the lease for the transaction on the current thread.
+	 * 
+	 * @return the lease.
+	 * @throws IllegalStateException
+	 *             if the thread is not in a transaction.
+	 */
+	private Lease transactionLease() {
+		final Lease lease = leases.get();
+		if (lease == null || !lease.transaction) {
+			throw new IllegalStateException("No active transaction");
+		}
+		return lease;
+	}
+
+	/**
+	 * Reverse the page statistics changes made in a transaction that was
+	 * rolled back. The page filters are left as they are; they only match
+	 * more triples than the pages hold.
+	 * 
+	 * @param lease
+	 *            the transaction lease.
+	 */
+	private void rollback(final Lease lease) {
+		for (final long[] change : lease.changes) {
+			pageStats.update(this, (int) change[0], (int) -change[1],
+					(int) -change[2], -change[3]);
+		}
+		lease.changes.clear();
+	}
+
+	/**
+	 * End the transaction on the current thread and release the transaction
+	 * connection.
+	 * 
+	 * @param lease
+	 *            the transaction lease.
+	 */
+	private void endTransaction(final Lease lease) {
+		lease.transaction = false;
+		lease.changes = null;
+		try {
+			lease.connection.setAutoCommit(true);
+		} catch (final SQLException e) {
+			LOG.warn("Unable to restore auto commit: " + e.getMessage(), e);
+		}
+		releaseConnection(lease.connection);
+	}
+
+	/**
+	 * Get the number of cursors that are open.
+	 * 
+	 * @return the number of open cursors.
+	 */
+	public int getOpenCursorCount() {
+		return cursors.size();
+	}
+
+	@Override
+	public void close() {
+		try {
+			disableWriteBehind();
+		} catch (final IOException e) {
+			LOG.error(e.getMessage(), e);
+		}
+		setPageReserve(0);
+		pageStats.flush(this);
+		for (final ClosableIterator<?> cursor : new ArrayList<ClosableIterator<?>>(
+				cursors)) {
+			cursor.close();
+		}
+		pool.close();
+	}
+
+	/**
+	 * The the commands for the DB instance.
+	 * 
+	 * @return the SQL commands.
+	 */
+	public SQLCommands getSqlCommands() {
+		return sqlCommands;
+	}
+
+	@Override
+	public int getMaxBlob() {
+		return maxBlob;
+	}
+
+	/**
+	 * Set the maximum size of a serialized literal before it is compressed.
+	 * 
+	 * @param maxBlob
+	 *            the maximum uncompressed literal size.
+	 */
+	public void setMaxBlob(final int maxBlob) {
+		this.maxBlob = maxBlob;
+	}
+
+	@Override
+	public NodeCache getNodeCache() {
+		return nodeCache;
+	}
+
+	/**
+	 * Get the maximum number of triples written in one statement.
+	 * 
+	 * @return the batch size.
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Set the maximum number of triples written in one statement. Larger
+	 * batches require fewer round trips but the statement must fit within the
+	 * maximum packet size of the server.
+	 * 
+	 * @param batchSize
+	 *            the batch size.
+	 */
+	public void setBatchSize(final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least 1");
+		}
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Get the maximum number of pages searched in one statement.
+	 * 
+	 * @return the search batch size.
+	 */
+	public int getSearchBatchSize() {
+		return searchBatchSize;
+	}
+
+	/**
+	 * Set the maximum number of pages searched in one statement. The pages
+	 * that match a find are grouped into batches and each batch is searched
+	 * with a single query. Larger batches require fewer round trips but
+	 * produce longer statements.
+	 * 
+	 * @param searchBatchSize
+	 *            the search batch size.
+	 */
+	public void setSearchBatchSize(final int searchBatchSize) {
+		if (searchBatchSize < 1) {
+			throw new IllegalArgumentException(
+					"Search batch size must be at least 1");
+		}
+		this.searchBatchSize = searchBatchSize;
+	}
+
+	/**
+	 * Set the time between reloads of the client side page filters. Only
+	 * required when other processes write to the same database.
+	 * 
+	 * @param refreshInterval
+	 *            the time in milliseconds. 0 (the default) disables periodic
+	 *            reloads.
+	 */
+	public void setPageFilterRefreshInterval(final long refreshInterval) {
+		pageFilters.setRefreshInterval(refreshInterval);
+	}
+
+	/**
+	 * Get the time between reloads of the client side page filters.
+	 * 
+	 * @return the time in milliseconds, 0 if periodic reloads are disabled.
+	 */
+	public long getPageFilterRefreshInterval() {
+		return pageFilters.getRefreshInterval();
+	}
+
+	/**
+	 * Reload the client side page filters from the database.
+	 * 
+	 * @throws IOException
+	 *             on error.
+	 */
+	public void refreshPageFilters() throws IOException {
+		try {
+			final Connection connection = getConnection();
+			try {
+				pageFilters.load(connection);
+			} finally {
+				releaseConnection(connection);
+			}
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Enable write behind. Added triples are placed on a bounded queue and
+	 * written in batches by a pool of writer threads. Adds block while the
+	 * queue is full.
+	 * 
+	 * A find for a complete triple sees queued triples. Other finds, counts,
+	 * deletes and the size wait until the queued triples have been written. A
+	 * write error is reported by the next add() or flush().
+	 * 
+	 * Writers select their pages independently so with more than one writer a
+	 * page may be filled slightly beyond its capacity.
+	 * 
+	 * @param capacity
+	 *            the maximum number of queued triples.
+	 * @param writers
+	 *            the number of writer threads.
+	 * @throws IOException
+	 *             if a previous write behind queue failed.
+	 */
+	public synchronized void enableWriteBehind(final int capacity,
+			final int writers) throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		}
+		if (writers < 1) {
+			throw new IllegalArgumentException(
+					"There must be at least 1 writer");
+		}
+		disableWriteBehind();
+		writeBehind = new WriteBehindQueue(this, capacity, writers);
+	}
+
+	/**
+	 * Disable write behind. The queued triples are written before the method
+	 * returns.
+	 * 
+	 * @throws IOException
+	 *             if a queued write failed.
+	 */
+	public synchronized void disableWriteBehind() throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			writeBehind = null;
+			queue.close();
+		}
+	}
+
+	/**
+	 * Returns true if write behind is enabled.
+	 * 
+	 * @return true if added triples are written by the write behind queue.
+	 */
+	public boolean isWriteBehind() {
+		return writeBehind != null;
+	}
+
+	/**
+	 * Wait until all triples queued for write behind have been written. Does
+	 * nothing if write behind is not enabled.
+	 * 
+	 * @throws IOException
+	 *             if a queued write failed.
+	 */
+	public void flush() throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			queue.flush();
+		}
+	}
+
+	/**
+	 * Set the number of empty pages to keep ready for writing. The pages are
+	 * created by a background thread so that a writer that fills a page does
+	 * not wait for the page table to be created. Reserved pages are counted by
+	 * the page count statistics.
+	 * 
+	 * @param size
+	 *            the number of pages to reserve, 0 to create pages when they
+	 *            are needed.
+	 */
+	public synchronized void setPageReserve(final int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException(
+					"Page reserve may not be negative");
+		}
+		final PageReserve old = pageReserve;
+		if (old != null && old.getSize() == size) {
+			return;
+		}
+		pageReserve = size == 0 ? null : new PageReserve(this, size);
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * Get the number of empty pages kept ready for writing.
+	 * 
+	 * @return the page reserve size, 0 if pages are created when needed.
+	 */
+	public int getPageReserve() {
+		final PageReserve reserve = pageReserve;
+		return reserve == null ? 0 : reserve.getSize();
+	}
+
+	/**
+	 * Set the time that the cached page statistics are considered current.
+	 * Only affects the accuracy of the statistics when other processes write
+	 * to the same database.
+	 * 
+	 * @param maxAge
+	 *            the time in milliseconds.
+	 */
+	public void setStatisticsMaxAge(final long maxAge) {
+		pageStats.setMaxAge(maxAge);
+	}
+
+	/**
+	 * Get the time that the cached page statistics are considered current.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getStatisticsMaxAge() {
+		return pageStats.getMaxAge();
+	}
+
+	/**
+	 * Set the number of pages with unwritten statistics changes that triggers
+	 * a write of the changes.
+	 * 
+	 * @param flushThreshold
+	 *            the number of pages, 1 writes every change immediately.
+	 */
+	public void setStatisticsFlushThreshold(final int flushThreshold) {
+		if (flushThreshold < 1) {
+			throw new IllegalArgumentException(
+					"Flush threshold must be at least 1");
+		}
+		pageStats.setFlushThreshold(flushThreshold);
+	}
+
+	/**
+	 * Get the number of pages with unwritten statistics changes that triggers
+	 * a write of the changes.
+	 * 
+	 * @return the number of pages.
+	 */
+	public int getStatisticsFlushThreshold() {
+		return pageStats.getFlushThreshold();
+	}
+
+	/**
+	 * Write the pending page statistics changes to the database.
+	 */
+	public void flushStatistics() {
+		pageStats.flush(this);
+	}
+
+	/**
+	 * Get the statistics for a page from the page statistics cache.
+	 * 
+	 * @param pageId
+	 *            the page id.
+	 * @return the record count, delete count and data size in that order.
+	 */
+	long[] pageStatistics(final int pageId) {
+		return pageStats.get(this, pageId);
+	}
+
+	/**
+	 * Record a change to the statistics for a page in the page statistics
+	 * cache.
+	 * 
+	 * @param pageId
+	 *            the page id.
+	 * @param records
+	 *            the number of records added.
+	 * @param deletes
+	 *            the number of records deleted.
+	 * @param bytes
+	 *            the number of bytes added.
+	 */
+	void statisticsChanged(final int pageId, final int records,
+			final int deletes, final long bytes) {
+		pageStats.update(this, pageId, records, deletes, bytes);
+		final Lease lease = leases.get();
+		if (lease != null && lease.transaction) {
+			lease.changes.add(new long[] {
+					pageId, records, deletes, bytes
+			});
+		}
+	}
+
+	/**
+	 * Get an iterator over the pages that may contain the candidate. The pages
+	 * are selected using the client side page filters unless the SQL commands
+	 * use PageIndexMode.BIT_SLICE in which case the database selects them.
+	 * 
+	 * @param candidate
+	 *            the candidate to match.
+	 * @return the page indexes that match the candidate.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private ExtendedIterator<PageIndex> matchingPages(
+			final PageSearchItem candidate) throws IOException {
+		return matchingPages(candidate.getPageFilter());
+	}
+
+	/**
+	 * Get an iterator over the pages whose filter matches the filter. An empty
+	 * filter matches every page.
+	 * 
+	 * @param filter
+	 *            the filter to match.
+	 * @return the page indexes that match the filter.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private ExtendedIterator<PageIndex> matchingPages(
+			final PageBloomFilter filter) throws IOException {
+		if (sqlCommands.getPageIndexMode() == PageIndexMode.BIT_SLICE) {
+			return searchPageIndex(filter);
+		}
+		pageFilters.checkRefresh(this);
+		return pageFilters.iterator(filter);
+	}
+
+	/**
+	 * Select the pages that match the filter in the database.
+	 * 
+	 * @param filter
+	 *            the filter to match.
+	 * @return the page indexes that match the filter.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private ExtendedIterator<PageIndex> searchPageIndex(
+			final PageBloomFilter filter) throws IOException {
+		final List<PageIndex> retval = new ArrayList<PageIndex>();
+		Connection connection = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			connection = getConnection();
+			stmt = sqlCommands.pageIndexSearch(connection, filter);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				final int id = rs.getInt(2);
+				final byte[] bloom = rs.getBytes(1);
+				retval.add(bloom == null ? new PageIndex(id) : new PageIndex(
+						toByteBuffer(bloom), id));
+			}
+			return WrappedIterator.create(retval.iterator());
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+			if (connection != null) {
+				releaseConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * Update the client side filter for a page after triples have been
+	 * written to it.
 	 * 
-	 * @return the connection.
-	 * @throws SQLException
-	 *             on error.
+	 * @param pageId
+	 *            the page that was written.
+	 * @param filter
+	 *            the page filter of the written triples.
 	 */
-	public Connection getConnection() throws SQLException {
-		Connection retval = threadConn.get();
-		if (retval == null) {
-			retval = dataSource.getConnection();
-			threadConn.set(retval);
-		}
-		return retval;
+	void pageWritten(final int pageId, final PageBloomFilter filter) {
+		pageFilters.merge(pageId, filter);
 	}
 
 	/**
-	 * The the commands for the DB instance.
-	 * 
-	 * @return the SQL commands.
+	 * Find the matching triples. The matching pages are searched in batches of
+	 * up to searchBatchSize pages, each batch with a single statement.
 	 */
-	public SQLCommands getSqlCommands() {
-		return sqlCommands;
-	}
-
 	@Override
 	public final ExtendedIterator<Triple> find(final PageSearchItem candidate)
 			throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			if (candidate.getSerializable().containsWild()) {
+				queue.flush();
+			}
+			else if (queue.isPending(candidate.getTriple())) {
+				return WrappedIterator.create(Collections.singletonList(
+						candidate.getTriple()).iterator());
+			}
+		}
 		final Iterator<Iterator<Triple>> inner = WrappedIterator.create(
-				new PageIndexIterator(candidate.getPageFilter())).mapWith(
-				new Map1<SQLPageIndex, Iterator<Triple>>() {
+				new PageBatchIterator(matchingPages(candidate), searchBatchSize))
+				.mapWith(new Map1<List<Integer>, Iterator<Triple>>() {
+					@Override
+					public Iterator<Triple> map1(final List<Integer> pageIds) {
+						return new MultiPageCursor(pageIds, candidate)
+								.triples(candidate);
+					}
+				});
+		return WrappedIterator.create(new IterIter(inner));
+	}
+
+	/**
+	 * Find the matching triples for several candidates. The pages that match
+	 * any of the candidates are scanned in batches of up to searchBatchSize
+	 * pages as the results are read and each triple is tested against every
+	 * candidate.
+	 */
+	@Override
+	public final List<ExtendedIterator<Triple>> find(
+			final List<PageSearchItem> candidates) throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			queue.flush();
+		}
+		// the union of the matching pages in page id order.
+		final TreeMap<Integer, PageIndex> pages = new TreeMap<Integer, PageIndex>();
+		final List<SerializableTripleFilter> filters = new ArrayList<SerializableTripleFilter>(
+				candidates.size());
+		for (final PageSearchItem candidate : candidates) {
+			final ExtendedIterator<PageIndex> iter = matchingPages(candidate);
+			try {
+				while (iter.hasNext()) {
+					final PageIndex pageIndex = iter.next();
+					pages.put(pageIndex.getId(), pageIndex);
+				}
+			} finally {
+				iter.close();
+			}
+			filters.add(new SerializableTripleFilter(candidate));
+		}
+		final PageSearchItem scan = new PageSearchItem(Triple.ANY);
+		// each batch is read with one cursor when the results are read.
+		final Iterator<MultiPageCursor> batches = WrappedIterator.create(
+				new PageBatchIterator(pages.values().iterator(),
+						searchBatchSize)).mapWith(
+				new Map1<List<Integer>, MultiPageCursor>() {
+					@Override
+					public MultiPageCursor map1(final List<Integer> pageIds) {
+						return new MultiPageCursor(pageIds, scan);
+					}
+				});
+		return new PatternFanOut<SerializableTriple>(this, candidates,
+				filters, batches, new Map1<SerializableTriple, Triple>() {
 					@Override
-					public Iterator<Triple> map1(final SQLPageIndex pageIndex) {
+					public Triple map1(final SerializableTriple o) {
 						try {
-							return getPage(pageIndex).find(candidate);
+							return o.getTriple();
 						} catch (final IOException e) {
-							throw new IllegalStateException(e.getMessage(), e);
-						} catch (final SQLException e) {
-							throw new IllegalStateException(e.getMessage(), e);
+							throw new IllegalArgumentException(e.getMessage(),
+									e);
 						}
 					}
+				}, PatternFanOut.DEFAULT_MAX_BUFFERED).iterators();
+	}
+
+	/**
+	 * Find the matching triples for the probe nodes. The pages that match the
+	 * candidate are limited to those that may hold one of the probe nodes and
+	 * are searched in batches as in find(PageSearchItem).
+	 */
+	@Override
+	public final ExtendedIterator<Triple> find(final PageSearchItem candidate,
+			final TriplePosition position, final Set<Node> probes)
+			throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null) {
+			queue.flush();
+		}
+		final ProbeSet probeSet = new ProbeSet(candidate, position, probes);
+		final ExtendedIterator<PageIndex> pages = matchingPages(candidate)
+				.filterKeep(new Filter<PageIndex>() {
+					@Override
+					public boolean accept(final PageIndex o) {
+						return probeSet.mayContain(o);
+					}
+				});
+		final Iterator<Iterator<Triple>> inner = WrappedIterator.create(
+				new PageBatchIterator(pages, searchBatchSize)).mapWith(
+				new Map1<List<Integer>, Iterator<Triple>>() {
+					@Override
+					public Iterator<Triple> map1(final List<Integer> pageIds) {
+						return new MultiPageCursor(pageIds, candidate)
+								.triples(candidate).filterKeep(probeSet);
+					}
 				});
 		return WrappedIterator.create(new IterIter(inner));
 	}
 
+	/**
+	 * Find which of the candidates are stored. The page indexes are read once
+	 * and each candidate is assigned to the pages whose filter may contain it.
+	 * Each of those pages is then searched for the hashes of its candidates
+	 * with a single statement. Candidates waiting in the write-behind queue
+	 * are stored.
+	 */
 	@Override
-	public long count(final PageSearchItem candidate) throws IOException {
+	public Set<Triple> findStored(final Collection<PageSearchItem> candidates)
+			throws IOException {
+		final Set<Triple> retval = new HashSet<Triple>();
+		final Set<Triple> wanted = new HashSet<Triple>();
+		final WriteBehindQueue queue = writeBehind;
+		for (final PageSearchItem candidate : candidates) {
+			if (queue != null && queue.isPending(candidate.getTriple())) {
+				retval.add(candidate.getTriple());
+			}
+			else {
+				wanted.add(candidate.getTriple());
+			}
+		}
+		if (wanted.isEmpty()) {
+			return retval;
+		}
+		// the hashes of the candidates that may be on each page.
+		final TreeMap<Integer, Set<Integer>> pages = new TreeMap<Integer, Set<Integer>>();
+		final ExtendedIterator<PageIndex> iter = matchingPages(new PageBloomFilter());
+		try {
+			while (iter.hasNext()) {
+				final PageIndex pageIndex = iter.next();
+				for (final PageSearchItem candidate : candidates) {
+					if (wanted.contains(candidate.getTriple())
+							&& candidate.getPageFilter().match(
+									pageIndex.getFilter())) {
+						Set<Integer> hashes = pages.get(pageIndex.getId());
+						if (hashes == null) {
+							hashes = new HashSet<Integer>();
+							pages.put(pageIndex.getId(), hashes);
+						}
+						hashes.add(candidate.getTriple().hashCode());
+					}
+				}
+			}
+		} finally {
+			iter.close();
+		}
+		if (pages.isEmpty()) {
+			return retval;
+		}
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			for (final Map.Entry<Integer, Set<Integer>> entry : pages
+					.entrySet()) {
+				PreparedStatement stmt = null;
+				ResultSet rs = null;
+				try {
+					stmt = sqlCommands.tripleHashSearch(connection,
+							entry.getKey(), new ArrayList<Integer>(entry
+									.getValue()));
+					rs = stmt.executeQuery();
+					while (rs.next()) {
+						final Triple t = new SerializableTriple(
+								toByteBuffer(rs.getBytes(1)), nodeCache)
+								.getTriple();
+						if (wanted.contains(t)) {
+							retval.add(t);
+						}
+					}
+				} finally {
+					DbUtils.closeQuietly(rs);
+					DbUtils.closeQuietly(stmt);
+				}
+			}
+			return retval;
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		} finally {
+			if (connection != null) {
+				releaseConnection(connection);
+			}
+		}
+	}
 
-		final ClosableIterator<SQLPageIndex> iter = new PageIndexIterator(
-				candidate.getPageFilter());
+	@Override
+	public long count(final PageSearchItem candidate) throws IOException {
+		flush();
+		final ExtendedIterator<PageIndex> iter = matchingPages(candidate);
 		long retval = 0;
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			while (iter.hasNext()) {
 				try {
 					retval += getPage(iter.next()).count(candidate);
@@ -169,7 +1076,12 @@ public class DBIO implements BloomIO {
 				}
 			}
 			return retval;
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
 		} finally {
+			if (connection != null) {
+				releaseConnection(connection);
+			}
 			iter.close();
 		}
 	}
@@ -201,7 +1113,7 @@ public class DBIO implements BloomIO {
 	 * @return The Page.
 	 * @throws SQLException
 	 */
-	private AbstractPage getPage(final PageIndex pageIndex) throws SQLException {
+	private DBPage getPage(final PageIndex pageIndex) throws SQLException {
 		return new DBPage(pageIndex, this);
 	}
 
@@ -218,78 +1130,161 @@ public class DBIO implements BloomIO {
 	 */
 	public PageIndex getPageIndex(final int idx) throws SQLException,
 			IOException {
-		final PreparedStatement stmt = getConnection().prepareStatement(
-				sqlCommands.pageIndexById());
+		final PageIndex cached = pageFilters.get(idx);
+		if (cached != null) {
+			return cached;
+		}
+		final Connection connection = getConnection();
+		PreparedStatement stmt = null;
 		ResultSet rs = null;
-		Blob blob = null;
 		try {
+			stmt = connection.prepareStatement(sqlCommands.pageIndexById());
 			stmt.setInt(1, idx);
 			rs = stmt.executeQuery();
 			if (!rs.next()) {
 				return new PageIndex(idx);
 			}
-			blob = rs.getBlob(1);
-			if (blob == null) {
+			final byte[] bloom = rs.getBytes(1);
+			if (bloom == null) {
 				return new PageIndex(idx);
 			}
-			return new SQLPageIndex(blob, idx);
+			return new PageIndex(toByteBuffer(bloom), idx);
 		} finally {
-			DBIO.freeQuietly(blob);
 			DbUtils.closeQuietly(rs);
 			DbUtils.closeQuietly(stmt);
+			releaseConnection(connection);
 		}
 	}
 
 	@Override
 	public final void add(final PageSearchItem candidate) throws IOException {
-		// locate a page by querying for page that has the least space
-		// lower than max inserts
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null && !inTransaction()) {
+			queue.add(candidate);
+			return;
+		}
+		// no connection is leased here: the duplicate check in write() reads
+		// with a cursor connection of its own and the page selection and the
+		// insert lease their connections as needed, so an add never holds
+		// two pool connections at once.
 		try {
-			int id = 0;
-			stmt = getConnection().prepareStatement(
-					sqlCommands.getBestPageQuery());
-			rs = stmt.executeQuery();
-			if (!rs.next()) {
-				id = createPage();
+			getPage(selectPage().id).write(candidate);
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public final void add(final Collection<PageSearchItem> candidates)
+			throws IOException {
+		final WriteBehindQueue queue = writeBehind;
+		if (queue != null && !inTransaction()) {
+			for (final PageSearchItem candidate : candidates) {
+				queue.add(candidate);
 			}
-			else {
-				if (rs.getInt(2) >= MAX_PAGE_OVERS) {
-					LOG.warn(
-							"Maximum Overs reached on page {} -- cleaning required.",
-							rs.getInt(1));
-					id = createPage();
-				}
-				else {
-					id = rs.getInt(1);
+			return;
+		}
+		write(candidates);
+	}
+
+	/**
+	 * Write the candidates to the database. The best page is filled with as
+	 * many candidates as fit and the process repeated until all the
+	 * candidates are written.
+	 * 
+	 * @param candidates
+	 *            the items to write.
+	 * @throws IOException
+	 *             on error.
+	 */
+	void write(final Collection<PageSearchItem> candidates) throws IOException {
+		final Iterator<PageSearchItem> iter = candidates.iterator();
+		final List<PageSearchItem> batch = new ArrayList<PageSearchItem>(
+				Math.min(batchSize, candidates.size()));
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			while (iter.hasNext()) {
+				// fill the best page with as many triples as fit.
+				final PageSlot slot = selectPage();
+				final int limit = Math.min(slot.free, batchSize);
+				batch.clear();
+				while (batch.size() < limit && iter.hasNext()) {
+					batch.add(iter.next());
 				}
+				getPage(getPageIndex(slot.id)).write(batch);
 			}
-			getPage(id).write(candidate);
 		} catch (final SQLException e) {
 			throw new IOException(e.getMessage(), e);
 		} finally {
-			DbUtils.closeQuietly(rs);
-			DbUtils.closeQuietly(stmt);
+			if (connection != null) {
+				releaseConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * Select the page to write to. The page with the fewest records that has
+	 * free space is taken from the page statistics cache. If there is no such
+	 * page or the page has too many overs a new page is created.
+	 * 
+	 * @return the selected page and its free space.
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	private PageSlot selectPage() throws SQLException, IOException {
+		final long[] best = pageStats.bestPage();
+		if (best == null) {
+			return new PageSlot(createPage(),
+					PageBloomFilter.CONFIG.getNumberOfItems());
 		}
+		final long overs = best[1] - PageBloomFilter.CONFIG.getNumberOfItems();
+		if (overs >= MAX_PAGE_OVERS) {
+			LOG.warn("Maximum Overs reached on page {} -- cleaning required.",
+					best[0]);
+			return new PageSlot(createPage(),
+					PageBloomFilter.CONFIG.getNumberOfItems());
+		}
+		return new PageSlot((int) best[0], (int) best[3]);
 	}
 
 	/**
-	 * Create a new page.
+	 * Get a new page for writing. A page is claimed from the page reserve if
+	 * one is ready, otherwise it is created.
 	 * 
 	 * @return the page id.
 	 * @throws SQLException
 	 * @throws IOException
 	 */
 	private int createPage() throws SQLException, IOException {
+		final PageReserve reserve = pageReserve;
+		Integer id = reserve == null ? null : reserve.claim();
+		if (id == null) {
+			id = createPageTable();
+		}
+		pageFilters.addPage(id);
+		pageStats.addPage(id);
+		return id;
+	}
+
+	/**
+	 * Create a new page in the database. The page is created outside of any
+	 * transaction and is not added to the page caches.
+	 * 
+	 * @return the page id.
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	int createPageTable() throws SQLException, IOException {
+		final Connection connection = getAutoCommitConnection();
 		Statement stmt = null;
 		try {
-			stmt = getConnection().createStatement();
+			stmt = connection.createStatement();
 			return sqlCommands.createPage(stmt);
 		} finally {
 			DbUtils.closeQuietly(stmt);
+			releaseAutoCommitConnection(connection);
 		}
-
 	}
 
 	private void lock() {
@@ -298,23 +1293,22 @@ public class DBIO implements BloomIO {
 	private void unlock() {
 	};
 
-	private void flush() {
-	};
-
 	@Override
 	public final void delete(final PageSearchItem candidate) throws IOException {
-
-		final ClosableIterator<SQLPageIndex> iter = new PageIndexIterator(
-				candidate.getPageFilter());
+		flush();
+		final ExtendedIterator<PageIndex> iter = matchingPages(candidate);
+		Connection connection = null;
 		try {
+			connection = getConnection();
 			while (iter.hasNext()) {
-				try {
-					getPage(iter.next()).delete(candidate);
-				} catch (final SQLException e) {
-					throw new IOException(e.getMessage(), e);
-				}
+				getPage(iter.next()).delete(candidate);
 			}
+		} catch (final SQLException e) {
+			throw new IOException(e.getMessage(), e);
 		} finally {
+			if (connection != null) {
+				releaseConnection(connection);
+			}
 			iter.close();
 		}
 	}
@@ -343,6 +1337,38 @@ public class DBIO implements BloomIO {
 		}
 	}
 
+	/**
+	 * Wrap the bytes read from a binary column in a byte buffer. No copy is
+	 * made.
+	 * 
+	 * @param bytes
+	 *            The bytes to wrap.
+	 * @return A little endian bytebuffer over the bytes.
+	 */
+	public static ByteBuffer toByteBuffer(final byte[] bytes) {
+		return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Get the remaining bytes of the buffer as an array to bind to a binary
+	 * column. The backing array is returned when it holds exactly the
+	 * remaining bytes, otherwise the bytes are copied.
+	 * 
+	 * @param buffer
+	 *            the buffer to convert.
+	 * @return the bytes.
+	 */
+	public static byte[] toByteArray(final ByteBuffer buffer) {
+		if (buffer.hasArray() && buffer.arrayOffset() == 0
+				&& buffer.position() == 0
+				&& buffer.remaining() == buffer.array().length) {
+			return buffer.array();
+		}
+		final byte[] retval = new byte[buffer.remaining()];
+		buffer.duplicate().get(retval);
+		return retval;
+	}
+
 	/**
 	 * Convert the byte buffer to a input stream.
 	 * 
@@ -376,109 +1402,41 @@ public class DBIO implements BloomIO {
 	}
 
 	/**
-	 * a SQL based PageIndex.
-	 *
+	 * A connection leased by a thread, the number of times it has been leased
+	 * and the state of the transaction on the connection.
 	 */
-	private class SQLPageIndex extends PageIndex {
-		private SQLPageIndex(final Blob blob, final int id) throws IOException,
-				SQLException {
-			super(toByteBuffer(blob), id);
+	private static class Lease {
+		// the leased connection.
+		private final Connection connection;
+		// the number of unreleased leases.
+		private int holds;
+		// true while the connection is in a transaction.
+		private boolean transaction;
+		// the page statistics changes made in the transaction.
+		private List<long[]> changes;
+
+		private Lease(final Connection connection) {
+			this.connection = connection;
+			this.holds = 0;
+			this.transaction = false;
+			this.changes = null;
 		}
 	}
 
 	/**
-	 * Iterator over all PageIndex
-	 *
+	 * A page selected for writing and the number of triples that will fit on
+	 * it.
 	 */
-	private class PageIndexIterator implements ClosableIterator<SQLPageIndex> {
-		private PreparedStatement stmt;
-		private ResultSet rs;
-		private SQLPageIndex next;
-		private final PageBloomFilter filter;
-
-		/**
-		 * Constructor
-		 * 
-		 * @param filter
-		 *            The filter to iterate by.
-		 */
-		private PageIndexIterator(final PageBloomFilter filter) {
-			this.stmt = null;
-			this.rs = null;
-			this.next = null;
-			this.filter = filter;
-		}
-
-		/**
-		 * make sure we close the DB objects.
-		 */
-		@Override
-		public void finalize() {
-			close();
-		}
-
-		@Override
-		public void close() {
-			DbUtils.closeQuietly(rs);
-			DbUtils.closeQuietly(stmt);
-		}
-
-		@Override
-		public final boolean hasNext() {
-			if (next == null) {
-				try {
-					if (rs == null) {
-						if (stmt == null) {
-							stmt = sqlCommands.pageIndexSearch(getConnection(),
-									filter);
-						}
-						rs = stmt.executeQuery();
-					}
-					if (rs.isClosed()) {
-						return false;
-					}
-
-					if (!rs.isAfterLast()) {
-						if (rs.next()) {
-							Blob blob = null;
-							try {
-								blob = rs.getBlob(1);
-								next = new SQLPageIndex(blob, rs.getInt(2));
-							} finally {
-								DBIO.freeQuietly(blob);
-							}
-						}
-						else {
-							close();
-						}
-					}
-					else {
-						DbUtils.closeQuietly(rs);
-					}
-
-				} catch (final SQLException e) {
-					LOG.error(e.getMessage(), e);
-					close();
-				} catch (final IOException e) {
-					LOG.error(e.getMessage(), e);
-					close();
-				}
-			}
-			return next != null;
-		}
+	private static class PageSlot {
+		// the page id
+		private final int id;
+		// the number of free slots on the page.
+		private final int free;
 
-		@Override
-		public final SQLPageIndex next() {
-			if (!hasNext()) {
-				throw new NoSuchElementException();
-			}
-			try {
-				return next;
-			} finally {
-				next = null;
-			}
+		private PageSlot(final int id, final int free) {
+			this.id = id;
+			this.free = free;
 		}
-
 	}
 
 	/**
@@ -537,12 +1495,42 @@ public class DBIO implements BloomIO {
 			}
 		}
 
+		/**
+		 * The sum of the cached record counts of the pages whose filter
+		 * matches the pattern. The write-behind queue is not flushed and no
+		 * triples are read.
+		 */
+		@Override
+		public long estimate(final Node S, final Node P, final Node O) {
+			try {
+				final ExtendedIterator<PageIndex> iter = matchingPages(new PageSearchItem(
+						new Triple(S, P, O)));
+				long retval = 0;
+				try {
+					while (iter.hasNext()) {
+						retval += pageStats.cachedCount(iter.next().getId());
+					}
+				} finally {
+					iter.close();
+				}
+				return retval;
+			} catch (final IOException e) {
+				LOG.warn(e.getMessage(), e);
+				return -1;
+			}
+		}
+
 		@Override
 		public long size() {
+			Connection connection = null;
 			Statement stmt = null;
 			ResultSet rs = null;
 			try {
-				stmt = getConnection().createStatement();
+				flush();
+				// the statistics are not part of a transaction.
+				connection = getAutoCommitConnection();
+				pageStats.flush(connection);
+				stmt = connection.createStatement();
 				rs = stmt.executeQuery(sqlCommands.getRecordCountQuery());
 				if (rs.next()) {
 					return rs.getInt(1);
@@ -553,18 +1541,26 @@ public class DBIO implements BloomIO {
 			} catch (final SQLException e) {
 				LOG.error(e.getMessage(), e);
 				return -1;
+			} catch (final IOException e) {
+				LOG.error(e.getMessage(), e);
+				return -1;
 			} finally {
 				DbUtils.closeQuietly(rs);
 				DbUtils.closeQuietly(stmt);
+				if (connection != null) {
+					releaseAutoCommitConnection(connection);
+				}
 			}
 		}
 
 		@Override
 		public int pages() {
+			Connection connection = null;
 			Statement stmt = null;
 			ResultSet rs = null;
 			try {
-				stmt = getConnection().createStatement();
+				connection = getConnection();
+				stmt = connection.createStatement();
 				rs = stmt.executeQuery(sqlCommands.getPageCountQuery());
 				if (rs.next()) {
 					return rs.getInt(1);
@@ -578,8 +1574,89 @@ public class DBIO implements BloomIO {
 			} finally {
 				DbUtils.closeQuietly(rs);
 				DbUtils.closeQuietly(stmt);
+				if (connection != null) {
+					releaseConnection(connection);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * A cursor over the triples on several pages.
+	 */
+	private class MultiPageCursor extends TripleCursor {
+		// the pages to search.
+		private final List<Integer> pageIds;
+		// the page search item to match.
+		private final PageSearchItem candidate;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param pageIds
+		 *            the pages to search.
+		 * @param candidate
+		 *            the page search item to match.
+		 */
+		private MultiPageCursor(final List<Integer> pageIds,
+				final PageSearchItem candidate) {
+			super(DBIO.this);
+			this.pageIds = pageIds;
+			this.candidate = candidate;
+		}
+
+		@Override
+		protected PreparedStatement prepare(final Connection connection)
+				throws SQLException, IOException {
+			return sqlCommands.multiPageSearch(connection, pageIds, candidate);
+		}
+	}
+
+	/**
+	 * An iterator that groups the page ids of page indexes into lists of up to
+	 * batchSize ids.
+	 */
+	private static class PageBatchIterator implements Iterator<List<Integer>> {
+		// the page indexes to group.
+		private final Iterator<PageIndex> pages;
+		// the maximum number of ids in a list.
+		private final int batchSize;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param pages
+		 *            the page indexes to group.
+		 * @param batchSize
+		 *            the maximum number of ids in a list.
+		 */
+		private PageBatchIterator(final Iterator<PageIndex> pages,
+				final int batchSize) {
+			this.pages = pages;
+			this.batchSize = batchSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return pages.hasNext();
+		}
+
+		@Override
+		public List<Integer> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
 			}
+			final List<Integer> retval = new ArrayList<Integer>(batchSize);
+			while (retval.size() < batchSize && pages.hasNext()) {
+				retval.add(pages.next().getId());
+			}
+			return retval;
 		}
 
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 }
@@ -18,28 +18,21 @@
 package org.xenei.bloomgraph.bloom.sql;
 
 import java.io.IOException;
-import java.sql.Blob;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.NoSuchElementException;
+import java.util.List;
 
-import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xenei.bloomgraph.SerializableTriple;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
 import org.xenei.bloomgraph.bloom.index.PageIndex;
 import org.xenei.bloomgraph.bloom.page.AbstractPage;
 import org.xenei.bloomgraph.bloom.page.PageSearchItem;
-import org.xenei.bloomgraph.bloom.page.SerializableTripleFilter;
 import org.xenei.bloomgraph.bloom.page.UpdatablePageStatistics;
 
 import com.hp.hpl.jena.graph.Triple;
-import com.hp.hpl.jena.util.iterator.ClosableIterator;
 import com.hp.hpl.jena.util.iterator.ExtendedIterator;
-import com.hp.hpl.jena.util.iterator.Map1;
-import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
 /**
  * DB implementation of AbstractPage.
@@ -92,28 +85,19 @@ public class DBPage extends AbstractPage {
 	public ExtendedIterator<Triple> find(final PageSearchItem candidate)
 			throws IOException {
 
-		return WrappedIterator
-				.create(new SerializableTripleIterator(candidate))
-				.filterKeep(new SerializableTripleFilter(candidate))
-				.mapWith(new Map1<SerializableTriple, Triple>() {
-
-					@Override
-					public Triple map1(final SerializableTriple o) {
-						try {
-							return o.getTriple();
-						} catch (final IOException e) {
-							throw new IllegalArgumentException(e.getMessage(),
-									e);
-						}
-					}
-				});
+		return new SerializableTripleIterator(candidate).triples(candidate);
 	}
 
 	@Override
 	public int doCount(final PageSearchItem candidate) throws IOException {
 		try {
-			return io.getSqlCommands().tripleCount(io.getConnection(),
-					pageIndex.getId(), candidate.getTripleFilter());
+			final Connection connection = io.getConnection();
+			try {
+				return io.getSqlCommands().tripleCount(connection,
+						pageIndex.getId(), candidate.getTripleFilter());
+			} finally {
+				io.releaseConnection(connection);
+			}
 		} catch (final SQLException e) {
 			log.error(e.getMessage());
 			throw new IOException(e);
@@ -128,17 +112,64 @@ public class DBPage extends AbstractPage {
 		candidate.getTripleFilter();
 		log.debug("writing {}", candidate.getTripleFilter());
 
+		Connection connection = null;
 		lock();
 		try {
+			connection = io.getConnection();
 			// write the record to the page
-			io.getSqlCommands().tripleInsert(io.getConnection(),
-					pageIndex.getId(), candidate);
+			io.getSqlCommands().tripleInsert(connection, pageIndex.getId(),
+					candidate);
+			io.pageWritten(pageIndex.getId(), candidate.getPageFilter());
+			io.statisticsChanged(pageIndex.getId(), 1, 0, candidate
+					.getSerializable().getByteBuffer().limit());
 			flush();
 			return true;
 		} catch (final SQLException e) {
 			log.error(e.getMessage(), e);
 			throw new IOException(e);
 		} finally {
+			if (connection != null) {
+				io.releaseConnection(connection);
+			}
+			unlock();
+		}
+	}
+
+	/**
+	 * Write the candidates to this page in a single batch. The candidates are
+	 * not checked for duplicates.
+	 * 
+	 * @param candidates
+	 *            the candidates to write.
+	 * @throws IOException
+	 *             on error.
+	 */
+	public void write(final List<PageSearchItem> candidates)
+			throws IOException {
+		log.debug("writing batch of {}", candidates.size());
+		Connection connection = null;
+		lock();
+		try {
+			connection = io.getConnection();
+			io.getSqlCommands().tripleInsert(connection, pageIndex.getId(),
+					candidates);
+			final PageBloomFilter filter = new PageBloomFilter();
+			long bytes = 0;
+			for (final PageSearchItem candidate : candidates) {
+				filter.add(candidate.getPageFilter());
+				bytes += candidate.getSerializable().getByteBuffer().limit();
+			}
+			io.pageWritten(pageIndex.getId(), filter);
+			io.statisticsChanged(pageIndex.getId(), candidates.size(), 0,
+					bytes);
+			flush();
+		} catch (final SQLException e) {
+			log.error(e.getMessage(), e);
+			throw new IOException(e);
+		} finally {
+			if (connection != null) {
+				io.releaseConnection(connection);
+			}
 			unlock();
 		}
 	}
@@ -146,138 +177,62 @@ public class DBPage extends AbstractPage {
 	@Override
 	public int delete(final PageSearchItem candidate) throws IOException {
 		int count = 0;
-		final ExtendedIterator<SerializableTriple> iter = null;
+		Connection connection = null;
 		lock();
 		try {
-			count = io.getSqlCommands().tripleDelete(io.getConnection(), this,
+			connection = io.getConnection();
+			count = io.getSqlCommands().tripleDelete(connection, this,
 					candidate);
+			if (count > 0) {
+				io.statisticsChanged(pageIndex.getId(), 0, count, 0);
+			}
 			flush();
 			return count;
 		} catch (final SQLException e) {
 			throw new IOException(e.getMessage(), e);
 		} finally {
+			if (connection != null) {
+				io.releaseConnection(connection);
+			}
 			unlock();
 		}
 	}
 
 	/**
-	 * DB implementation fo UpdatablePageStatistics
-	 *
+	 * DB implementation fo UpdatablePageStatistics. The values are read from
+	 * and changes written to the DBIO page statistics cache.
+	 * 
 	 */
 	private class Statistics extends UpdatablePageStatistics {
-		private int records;
-		private int deletes;
-		private int dataSize;
-		// the timestamp for the last update.
-		private final long lastUpdate;
-		// how old the statistics can be and still be considered current.
-		private static final long maxAge = 60 * 1000; // 60 seconds
-
-		/**
-		 * Constructor
-		 */
-		private Statistics() {
-			// no statistics loaded yet.
-			lastUpdate = 0;
-		}
-
-		/**
-		 * See if we need to update the statistics before returning a value.
-		 */
-		private void checkUpdate() {
-			if (lastUpdate < (System.currentTimeMillis() - maxAge)) {
-				Statement stmt = null;
-				ResultSet rs = null;
-				try {
-					stmt = io.getConnection().createStatement();
-					rs = stmt.executeQuery(io.getSqlCommands().getStats(
-							pageIndex.getId()));
-					if (rs.next()) {
-						records = rs.getInt(1);
-						deletes = rs.getInt(2);
-						dataSize = rs.getInt(3);
-					}
-					else {
-						log.error("Unable to retrieve statistics for page "
-								+ pageIndex.getId());
-					}
-				} catch (final SQLException e) {
-					log.error("Error retrieving statistics for page "
-							+ pageIndex.getId(), e);
-				} finally {
-					DbUtils.closeQuietly(rs);
-					DbUtils.closeQuietly(stmt);
-				}
-			}
-		}
 
 		@Override
 		public int getRecordCount() {
-			checkUpdate();
-			return records;
+			return (int) io.pageStatistics(pageIndex.getId())[0];
 		}
 
 		@Override
 		public void incrementRecordCount() {
-			Statement stmt = null;
-			try {
-				stmt = io.getConnection().createStatement();
-				stmt.executeUpdate(io.getSqlCommands().statsIncrementRecord(
-						pageIndex.getId()));
-			} catch (final SQLException e) {
-				log.error(
-						"Error updating record count for page "
-								+ pageIndex.getId(), e);
-			} finally {
-				DbUtils.closeQuietly(stmt);
-			}
-			records++;
+			io.statisticsChanged(pageIndex.getId(), 1, 0, 0);
 		}
 
 		@Override
 		public int getDataSize() {
-			checkUpdate();
-			return dataSize;
+			return (int) io.pageStatistics(pageIndex.getId())[2];
 		}
 
 		@Override
 		public void incrementDataSize(final int size) {
-			Statement stmt = null;
-			try {
-				stmt = io.getConnection().createStatement();
-				stmt.executeUpdate(io.getSqlCommands().statsIncrementBytes(
-						pageIndex.getId(), size));
-			} catch (final SQLException e) {
-				log.error(
-						"Error updating data size for page "
-								+ pageIndex.getId(), e);
-			} finally {
-				DbUtils.closeQuietly(stmt);
-			}
-			dataSize += size;
+			io.statisticsChanged(pageIndex.getId(), 0, 0, size);
 		}
 
 		@Override
 		public int getDeleteCount() {
-			checkUpdate();
-			return deletes;
+			return (int) io.pageStatistics(pageIndex.getId())[1];
 		}
 
 		@Override
 		public void incrementDeleteCount() {
-			Statement stmt = null;
-			try {
-				stmt = io.getConnection().createStatement();
-				stmt.executeUpdate(io.getSqlCommands().statsIncrementDelete(
-						pageIndex.getId()));
-			} catch (final SQLException e) {
-				log.error(
-						"Error updating delets count for page "
-								+ pageIndex.getId(), e);
-			} finally {
-				DbUtils.closeQuietly(stmt);
-			}
-			deletes++;
+			io.statisticsChanged(pageIndex.getId(), 0, 1, 0);
 		}
 
 	}
@@ -285,14 +240,13 @@ public class DBPage extends AbstractPage {
 	/**
 	 * Iterate over the triples in the page that match the candidate bloom
 	 * filter.
-	 *
+	 * 
+	 * The iterator uses a dedicated connection from the pool that is borrowed
+	 * when the query is executed and returned when the iterator is closed or
+	 * exhausted.
 	 */
-	public class SerializableTripleIterator implements
-			ClosableIterator<SerializableTriple> {
-		private PreparedStatement stmt;
-		private ResultSet rs;
-		private SerializableTriple next;
-		private PageSearchItem candidate;
+	public class SerializableTripleIterator extends TripleCursor {
+		private final PageSearchItem candidate;
 
 		/**
 		 * Constructor.
@@ -301,9 +255,7 @@ public class DBPage extends AbstractPage {
 		 *            the page search item to match.
 		 */
 		public SerializableTripleIterator(final PageSearchItem candidate) {
-			this.stmt = null;
-			this.rs = null;
-			this.next = null;
+			super(DBPage.this.io);
 			if (candidate.getTriple().equals(Triple.ANY)) {
 				this.candidate = null;
 			}
@@ -312,100 +264,15 @@ public class DBPage extends AbstractPage {
 			}
 		}
 
-		/**
-		 * Make sure we close the DB resources.
-		 */
 		@Override
-		public void finalize() {
-			close();
-		}
-
-		@Override
-		public void close() {
-			DbUtils.closeQuietly(rs);
-			DbUtils.closeQuietly(stmt);
-		}
-
-		/**
-		 * Read a serializable triple from the database.
-		 * 
-		 * @param rs
-		 *            The result set to read the serializable triple from.
-		 * @return the SerializableTriple.
-		 * @throws IOException
-		 * @throws SQLException
-		 */
-		private SerializableTriple readResult(final ResultSet rs)
-				throws IOException, SQLException {
-			Blob blob = null;
-			try {
-				blob = rs.getBlob(1);
-				final SerializableTriple retval = new SerializableTriple(
-						DBIO.toByteBuffer(blob));
-				retval.setIndex(rs.getInt(2));
-				return retval;
-			} finally {
-				DBIO.freeQuietly(blob);
-			}
-		}
-
-		@Override
-		public final boolean hasNext() {
-			if (next == null) {
-				try {
-					if (rs == null) {
-						if (stmt == null) {
-							if (candidate != null) {
-								stmt = io.getSqlCommands().tripleSearch(
-										io.getConnection(), pageIndex.getId(),
-										candidate);
-
-							}
-							else {
-								stmt = io.getSqlCommands().tripleScan(
-										io.getConnection(), pageIndex.getId());
-							}
-						}
-						rs = stmt.executeQuery();
-						if (rs.next()) {
-							next = readResult(rs);
-						}
-					}
-					if (rs.isClosed()) {
-						return false;
-					}
-					if (next == null) {
-						if (!rs.isAfterLast()) {
-							if (rs.next()) {
-								next = readResult(rs);
-							}
-							else {
-								close();
-							}
-						}
-					}
-				} catch (final SQLException e) {
-					log.error(e.getMessage(), e);
-					close();
-				} catch (final IOException e) {
-					log.error(e.getMessage(), e);
-					close();
-				}
+		protected PreparedStatement prepare(final Connection connection)
+				throws SQLException, IOException {
+			if (candidate != null) {
+				return io.getSqlCommands().tripleSearch(connection,
+						pageIndex.getId(), candidate);
 			}
-			return next != null;
+			return io.getSqlCommands().tripleScan(connection,
+					pageIndex.getId());
 		}
-
-		@Override
-		public final SerializableTriple next() {
-			if (!hasNext()) {
-				throw new NoSuchElementException();
-			}
-			try {
-				return next;
-			} finally {
-				next = null;
-			}
-		}
-
 	}
 }
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.filters.TripleBloomFilter;
+
+/**
+ * H2 implementation of SQL commands.
+ * 
+ * Runs the DB storage layer against an embedded or in memory H2 database so
+ * that no external server or native UDF is required. The bloom functions are
+ * registered as Java aliases backed by BloomFunctions. The PageIndex hamming
+ * and log columns are computed by the database from the bloom column in the
+ * same way the MySQL triggers calculate them.
+ * 
+ * The H2 driver must be on the classpath.
+ */
+public class H2Commands extends AbstractSQLCommands {
+
+	/**
+	 * Constructor using the TABLE_PER_PAGE layout.
+	 */
+	public H2Commands() {
+		this(PageLayout.TABLE_PER_PAGE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param layout
+	 *            the layout of the triple storage.
+	 */
+	public H2Commands(final PageLayout layout) {
+		super(layout);
+	}
+
+	// the aliases for the bloom functions. parameters are the alias and the
+	// method name.
+	private static final String CREATE_ALIAS_FMT = "CREATE ALIAS IF NOT EXISTS %s DETERMINISTIC FOR '"
+			+ BloomFunctions.class.getName() + ".%s'";
+
+	private static final String CREATE_PAGE_INDEX_TABLE = "CREATE TABLE IF NOT EXISTS PageIndex "
+			+ "(idx INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+			+ "bloom VARBINARY("
+			+ PageBloomFilter.CONFIG.getNumberOfBytes()
+			+ "), "
+			+ "hamming INT GENERATED ALWAYS AS (bloomhamming( bloom )), "
+			+ "log DOUBLE PRECISION GENERATED ALWAYS AS (bloomlog( bloom )) )";
+
+	private static final String CREATE_PAGE_INDEX_INDEX = "CREATE INDEX IF NOT EXISTS PageIndex_hamIdx ON PageIndex (hamming, log)";
+
+	private static final String CREATE_PAGE_STATS_TABLE = "CREATE TABLE IF NOT EXISTS PageStats "
+			+ "( idx INT PRIMARY KEY, records INT, deletes INT, bytes INT )";
+
+	// parameter is the page number.
+	private static final String CREATE_TABLE_FMT = "CREATE TABLE Page_%s "
+			+ "(idx INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+			+ "hamming INT, log DOUBLE PRECISION, hash INT, bloom VARBINARY("
+			+ TripleBloomFilter.CONFIG.getNumberOfBytes() + "), data VARBINARY )";
+
+	// index names are global in H2 so they include the page number.
+	private static final String CREATE_HASH_INDEX_FMT = "CREATE INDEX Page_%1$s_hashIdx ON Page_%1$s (hash)";
+
+	private static final String CREATE_HAMMING_INDEX_FMT = "CREATE INDEX Page_%1$s_hamIdx ON Page_%1$s (hamming, log)";
+
+	private static final String CREATE_TRIPLE_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ TRIPLE_TABLE
+			+ " (idx INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, page INT NOT NULL, "
+			+ "hamming INT, log DOUBLE PRECISION, hash INT, bloom VARBINARY("
+			+ TripleBloomFilter.CONFIG.getNumberOfBytes() + "), data VARBINARY )";
+
+	private static final String CREATE_TRIPLE_HASH_INDEX = "CREATE INDEX IF NOT EXISTS Triples_hashIdx ON "
+			+ TRIPLE_TABLE + " (page, hash)";
+
+	private static final String CREATE_TRIPLE_HAMMING_INDEX = "CREATE INDEX IF NOT EXISTS Triples_hamIdx ON "
+			+ TRIPLE_TABLE + " (page, hamming, log)";
+
+	/**
+	 * H2 tables are always transactional.
+	 */
+	@Override
+	public boolean supportsTransactions() {
+		return true;
+	}
+
+	private static final String CREATE_BIT_SLICE_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ BIT_SLICE_TABLE
+			+ " (bit INT NOT NULL, word INT NOT NULL, pages BIGINT NOT NULL, "
+			+ "PRIMARY KEY (bit, word) )";
+
+	private static final String CREATE_BIT_MASK_TABLE = "CREATE TABLE IF NOT EXISTS "
+			+ BIT_MASK_TABLE
+			+ " (pos INT NOT NULL PRIMARY KEY, mask BIGINT NOT NULL )";
+
+	@Override
+	public void createSchema(final Connection connection) throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			stmt.executeUpdate(String.format(CREATE_ALIAS_FMT, "bloommatch",
+					"bloomMatch"));
+			stmt.executeUpdate(String.format(CREATE_ALIAS_FMT, "bloomhamming",
+					"bloomHamming"));
+			stmt.executeUpdate(String.format(CREATE_ALIAS_FMT, "bloomlog",
+					"bloomLog"));
+			stmt.executeUpdate(String.format(CREATE_ALIAS_FMT, "bloomupdate",
+					"bloomUpdate"));
+			stmt.executeUpdate(CREATE_PAGE_INDEX_TABLE);
+			stmt.executeUpdate(CREATE_PAGE_INDEX_INDEX);
+			stmt.executeUpdate(CREATE_PAGE_STATS_TABLE);
+			if (getPageLayout() == PageLayout.SINGLE_TABLE) {
+				stmt.executeUpdate(CREATE_TRIPLE_TABLE);
+				stmt.executeUpdate(CREATE_TRIPLE_HASH_INDEX);
+				stmt.executeUpdate(CREATE_TRIPLE_HAMMING_INDEX);
+			}
+			if (getPageIndexMode() == PageIndexMode.BIT_SLICE) {
+				stmt.executeUpdate(CREATE_BIT_SLICE_TABLE);
+				stmt.executeUpdate(CREATE_BIT_MASK_TABLE);
+				initBitSlices(connection);
+			}
+			checkFormat(connection);
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	@Override
+	protected String bitSliceUpsert() {
+		return "MERGE INTO "
+				+ BIT_SLICE_TABLE
+				+ " t USING (VALUES (CAST(? AS INT), CAST(? AS INT), CAST(? AS BIGINT))) "
+				+ "s(bit, word, pages) ON t.bit=s.bit AND t.word=s.word "
+				+ "WHEN MATCHED THEN UPDATE SET pages=BITOR(t.pages, s.pages) "
+				+ "WHEN NOT MATCHED THEN INSERT (bit, word, pages) VALUES (s.bit, s.word, s.pages)";
+	}
+
+	@Override
+	protected String bitAndAggregate(final String column) {
+		return String.format("BIT_AND_AGG(%s)", column);
+	}
+
+	@Override
+	protected String bitAnd(final String left, final String right) {
+		return String.format("BITAND(%s, %s)", left, right);
+	}
+
+	@Override
+	public int createPage(final Statement stmt) throws SQLException,
+			IOException {
+		ResultSet rs = null;
+		try {
+			stmt.executeUpdate("INSERT INTO PageIndex (bloom) VALUES (NULL)",
+					Statement.RETURN_GENERATED_KEYS);
+			rs = stmt.getGeneratedKeys();
+			if (!rs.next()) {
+				throw new IOException("Unable to read created table id");
+			}
+			final int id = rs.getInt(1);
+			DbUtils.closeQuietly(rs);
+			rs = null;
+			if (getPageLayout() == PageLayout.TABLE_PER_PAGE) {
+				stmt.executeUpdate(String.format(CREATE_TABLE_FMT, id));
+				stmt.executeUpdate(String.format(CREATE_HASH_INDEX_FMT, id));
+				stmt.executeUpdate(String
+						.format(CREATE_HAMMING_INDEX_FMT, id));
+			}
+			stmt.executeUpdate(String
+					.format("INSERT INTO PageStats (idx, records, deletes, bytes) VALUES (%s, 0, 0, 0)",
+							id));
+			return id;
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+	}
+}
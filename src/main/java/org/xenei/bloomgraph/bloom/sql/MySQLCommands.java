@@ -17,33 +17,65 @@
  */
 package org.xenei.bloomgraph.bloom.sql;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xenei.bloomgraph.SerializableTriple;
 import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
 import org.xenei.bloomgraph.bloom.filters.TripleBloomFilter;
 import org.xenei.bloomgraph.bloom.page.PageSearchItem;
-import org.xenei.bloomgraph.bloom.page.SerializableTripleFilter;
-
-import com.hp.hpl.jena.graph.Triple;
-import com.hp.hpl.jena.util.iterator.ExtendedIterator;
-import com.hp.hpl.jena.util.iterator.WrappedIterator;
 
 /**
  * MySQL implementation of SQL commands
  *
+ * The SQL for each page operation is fixed for a page so the statements are
+ * reused by the DBIO statement cache. The data source should enable server
+ * side prepared statements (useServerPrepStmts=true) so that reused
+ * statements are not parsed again.
+ * 
+ * With the SINGLE_TABLE layout the Triples table may be partitioned by page
+ * range. A new partition is split from the MAXVALUE partition when the first
+ * page of the range is created so that the split moves no data.
+ * 
+ * Cursors stream their rows (fetch size Integer.MIN_VALUE) so that large page
+ * scans run in constant memory. A streaming result holds its table until it
+ * is read or closed. Use setCursorFetchSize() to use a server side cursor
+ * (with useCursorFetch=true) or the buffered driver default (0) instead.
+ * 
+ * Tables are created with the MyISAM storage engine unless the INNODB engine
+ * is requested. Only InnoDB tables support transactions. Page tables are
+ * created outside of any transaction because MySQL commits the open
+ * transaction when a table is created or a partition is split. A partition
+ * split waits for open transactions on the Triples table so partitioning
+ * should not be used with transactions.
+ * 
+ * For initial loads enableBulkLoad() writes each batch of triples to a staging
+ * file and loads it with LOAD DATA LOCAL INFILE (the data source must set
+ * allowLoadLocalInfile=true). The page filter is merged client side and
+ * written once per file. The ids of the loaded rows are read back from
+ * LAST_INSERT_ID() on the load connection and assume that the rows of a load
+ * are given consecutive ids. That is true for MyISAM tables and for InnoDB
+ * with innodb_autoinc_lock_mode 0 or 1; with mode 2 no other process may
+ * insert into the table during a bulk load. Set the DBIO batch size to the page capacity so that
+ * each file fills a page.
  */
-public class MySQLCommands implements SQLCommands {
+public class MySQLCommands extends AbstractSQLCommands {
 
 	/**
 	 * Get the blob type based on the number of bytes required.
@@ -69,18 +101,37 @@ public class MySQLCommands implements SQLCommands {
 		return "LONGBLOB";
 	}
 
-	// the number depth of the approximate log for the triple bloom filters.
-	private final int APPROX_LOG_DEPTH = 1;
-
-	// parameter is the page number.
-	private static final String CREAT_TABLE_FMT = "CREATE TABLE Page_%s "
+	// parameters are the page number and the storage engine.
+	private static final String CREAT_TABLE_FMT = "CREATE TABLE Page_%1$s "
 			+ "(idx INT AUTO_INCREMENT, hamming INT, log DOUBLE, hash INT,"
 			+ "bloom "
 			+ getBlobType(TripleBloomFilter.CONFIG.getNumberOfBytes())
 			+ ", data BLOB, PRIMARY KEY USING BTREE (idx),"
 			+ "INDEX `hashIdx`( hash ),"
-			+ "INDEX `hamIdx` USING BTREE (hamming,log) ) " + "ENGINE MyISAM ";
+			+ "INDEX `hamIdx` USING BTREE (hamming,log) ) " + "ENGINE %2$s ";
 
+	// parameter is the storage engine.
+	private static final String CREATE_TRIPLE_TABLE_FMT = "CREATE TABLE IF NOT EXISTS "
+			+ TRIPLE_TABLE
+			+ " (idx INT AUTO_INCREMENT, page INT NOT NULL, hamming INT, log DOUBLE, hash INT,"
+			+ "bloom "
+			+ getBlobType(TripleBloomFilter.CONFIG.getNumberOfBytes())
+			+ ", data BLOB, PRIMARY KEY USING BTREE (idx, page),"
+			+ "INDEX `hashIdx`( page, hash ),"
+			+ "INDEX `hamIdx` USING BTREE (page,hamming,log) ) "
+			+ "ENGINE %s ";
+
+	// parameter is the number of pages per partition.
+	private static final String TRIPLE_TABLE_PARTITIONS_FMT = "PARTITION BY RANGE( page ) "
+			+ "( PARTITION p0 VALUES LESS THAN (%s), PARTITION pmax VALUES LESS THAN MAXVALUE )";
+
+	// parameters are the partition number and the upper bound.
+	private static final String SPLIT_PARTITION_FMT = "ALTER TABLE "
+			+ TRIPLE_TABLE
+			+ " REORGANIZE PARTITION pmax INTO "
+			+ "( PARTITION p%s VALUES LESS THAN (%s), PARTITION pmax VALUES LESS THAN MAXVALUE )";
+
+	// parameter is the storage engine.
 	private static final String CREAT_PAGE_INDEX_TABLE_FMT = "CREATE TABLE PageIndex "
 			+ "(idx INT AUTO_INCREMENT, "
 			+ "hamming INT, log DOUBLE, "
@@ -88,11 +139,26 @@ public class MySQLCommands implements SQLCommands {
 			+ getBlobType(PageBloomFilter.CONFIG.getNumberOfBytes())
 			+ ", PRIMARY KEY USING BTREE (idx ),"
 			+ "INDEX `hamIdx` USING BTREE (hamming,log)  ) "
-			+ "ENGINE MyISAM "
+			+ "ENGINE %s "
 			+ "PARTITION BY LINEAR KEY( idx ) PARTITIONS 10 ";
 	private static final Logger LOG = LoggerFactory
 			.getLogger(MySQLCommands.class);
 
+	// parameter is the storage engine.
+	private static final String CREATE_PAGE_STATS_TABLE_FMT = "CREATE TABLE PageStats "
+			+ "( idx INT PRIMARY KEY, records INT, deletes INT, bytes INT ) ENGINE %s";
+
+	// parameter is the storage engine.
+	private static final String CREATE_BIT_SLICE_TABLE_FMT = "CREATE TABLE IF NOT EXISTS "
+			+ BIT_SLICE_TABLE
+			+ " (bit INT NOT NULL, word INT NOT NULL, pages BIGINT NOT NULL, "
+			+ "PRIMARY KEY (bit, word) ) ENGINE %s";
+
+	// parameter is the storage engine.
+	private static final String CREATE_BIT_MASK_TABLE_FMT = "CREATE TABLE IF NOT EXISTS "
+			+ BIT_MASK_TABLE
+			+ " (pos INT NOT NULL PRIMARY KEY, mask BIGINT NOT NULL ) ENGINE %s";
+
 	// call once to create INSERT and once to create UPDATE
 	private static final String CREATE_PAGE_INDX_TRIGGER = ""
 			+ "CREATE TRIGGER `PageIndex_BEFORE_%1$s`"
@@ -100,14 +166,10 @@ public class MySQLCommands implements SQLCommands {
 			+ "			     SET NEW.hamming=bloomhamming( new.bloom );"
 			+ "			     SET NEW.log=bloomlog(new.bloom);" + "			END";
 
-	// call to create trigger on page creation.
-	private static final String CREATE_PAGE_INSERT_TRIGGER = ""
-			+ "CREATE TRIGGER `Page_%1$s_AFTER_INSERT`"
-			+ "			AFTER INSERT ON `Page_%1$s` FOR EACH ROW"
-			+ "			BEGIN"
-			+ "				INSERT INTO PageStats SET bytes=length( NEW.`data` ), records=1, deletes=0, idx=%1$s"
-			+ "					ON DUPLICATE KEY UPDATE bytes=bytes+VALUES(bytes), records=records+1;"
-			+ "			END";
+	// finds the per page insert triggers used by earlier versions to maintain
+	// PageStats. Statistics are now written by the DBIO page statistics cache.
+	private static final String LEGACY_PAGE_INSERT_TRIGGERS = "SELECT TRIGGER_NAME FROM information_schema.TRIGGERS "
+			+ "WHERE TRIGGER_SCHEMA=DATABASE() AND TRIGGER_NAME LIKE 'Page\\_%\\_AFTER\\_INSERT'";
 
 	// call to create stored procedure to add a triple.
 	private static final String CREATE_ADD_TRIPLE_PROCEDURE = ""
@@ -125,6 +187,330 @@ public class MySQLCommands implements SQLCommands {
 			+ "			    UPDATE PageIndex SET bloom=bloomupdate( bloom, pageFilter ) where idx=pageid;"
 			+ "			END";
 
+	/**
+	 * The fetch size that makes the MySQL driver stream rows one at a time.
+	 */
+	public static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+	/**
+	 * The MySQL storage engines that the tables may be created with.
+	 */
+	public static enum StorageEngine {
+		/**
+		 * Non-transactional tables with table level locking.
+		 */
+		MYISAM("MyISAM"),
+		/**
+		 * Transactional tables with row level locking.
+		 */
+		INNODB("InnoDB");
+
+		// the name of the engine in the CREATE TABLE statement.
+		private final String name;
+
+		private StorageEngine(final String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Get the engine name used in the CREATE TABLE statement.
+		 * 
+		 * @return the engine name.
+		 */
+		public String getName() {
+			return name;
+		}
+	}
+
+	// parameters are the file name, the table and the page column assignment
+	// for the SINGLE_TABLE layout.
+	private static final String LOAD_DATA_FMT = "LOAD DATA LOCAL INFILE '%s' INTO TABLE %s "
+			+ "FIELDS TERMINATED BY '\\t' ESCAPED BY '' LINES TERMINATED BY '\\n' "
+			+ "(hamming, log, hash, @bloom, @data) "
+			+ "SET %sbloom=UNHEX(@bloom), data=UNHEX(@data)";
+
+	// the first id generated by the load and the id increment.
+	private static final String LOAD_IDS = "SELECT LAST_INSERT_ID(), @@session.auto_increment_increment";
+
+	// the hex digits for the staging files.
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	// the number of pages per partition of the Triples table, 0 = none.
+	private final int pagesPerPartition;
+	// the storage engine for the tables.
+	private final StorageEngine engine;
+	// the directory for the staging files, null if bulk load is disabled.
+	private volatile File bulkLoadDirectory;
+
+	/**
+	 * Constructor using the TABLE_PER_PAGE layout.
+	 */
+	public MySQLCommands() {
+		this(PageLayout.TABLE_PER_PAGE);
+	}
+
+	/**
+	 * Constructor. The SINGLE_TABLE layout is not partitioned.
+	 * 
+	 * @param layout
+	 *            the layout of the triple storage.
+	 */
+	public MySQLCommands(final PageLayout layout) {
+		this(layout, 0);
+	}
+
+	/**
+	 * Constructor using the MyISAM storage engine.
+	 * 
+	 * @param layout
+	 *            the layout of the triple storage.
+	 * @param pagesPerPartition
+	 *            the number of pages in each partition of the Triples table
+	 *            when the table is created. 0 disables partitioning. Only used
+	 *            with the SINGLE_TABLE layout.
+	 */
+	public MySQLCommands(final PageLayout layout, final int pagesPerPartition) {
+		this(layout, pagesPerPartition, StorageEngine.MYISAM);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param layout
+	 *            the layout of the triple storage.
+	 * @param pagesPerPartition
+	 *            the number of pages in each partition of the Triples table
+	 *            when the table is created. 0 disables partitioning. Only used
+	 *            with the SINGLE_TABLE layout.
+	 * @param engine
+	 *            the storage engine for tables that are created. Existing
+	 *            tables are not altered.
+	 */
+	public MySQLCommands(final PageLayout layout, final int pagesPerPartition,
+			final StorageEngine engine) {
+		super(layout);
+		if (engine == null) {
+			throw new IllegalArgumentException("Engine may not be null");
+		}
+		if (pagesPerPartition < 0) {
+			throw new IllegalArgumentException(
+					"Pages per partition may not be negative");
+		}
+		this.pagesPerPartition = pagesPerPartition;
+		this.engine = engine;
+		setCursorFetchSize(STREAMING_FETCH_SIZE);
+	}
+
+	/**
+	 * Get the storage engine for the tables.
+	 * 
+	 * @return the storage engine.
+	 */
+	public StorageEngine getStorageEngine() {
+		return engine;
+	}
+
+	/**
+	 * Enable bulk load. Triples are written to a staging file in the directory
+	 * and loaded with LOAD DATA LOCAL INFILE rather than inserted. The ids of
+	 * the loaded triples are calculated from the first id generated by the
+	 * load (see the class description).
+	 * 
+	 * @param directory
+	 *            the directory for the staging files. The files are deleted
+	 *            after they are loaded.
+	 */
+	public void enableBulkLoad(final File directory) {
+		if (directory == null || !directory.isDirectory()) {
+			throw new IllegalArgumentException(String.format(
+					"%s is not a directory", directory));
+		}
+		this.bulkLoadDirectory = directory;
+	}
+
+	/**
+	 * Disable bulk load. Triples are inserted with INSERT statements.
+	 */
+	public void disableBulkLoad() {
+		this.bulkLoadDirectory = null;
+	}
+
+	/**
+	 * Returns true if bulk load is enabled.
+	 * 
+	 * @return true if triples are loaded from staging files.
+	 */
+	public boolean isBulkLoad() {
+		return bulkLoadDirectory != null;
+	}
+
+	/**
+	 * Write the triples to the staging file and then load the file into the
+	 * page. The rows are loaded in file order so the index of each triple is
+	 * set from the first generated id. The page filter of the triples is
+	 * merged into the page index once the file is loaded.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @param pageId
+	 *            the page to load.
+	 * @param candidates
+	 *            the triples to load.
+	 * @param directory
+	 *            the directory for the staging file.
+	 * @throws SQLException
+	 *             on error.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private void bulkLoad(final Connection connection, final int pageId,
+			final List<PageSearchItem> candidates, final File directory)
+			throws SQLException, IOException {
+		final File staging = File.createTempFile("Page_" + pageId + "_",
+				".tsv", directory);
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			final PageBloomFilter pageFilter = writeStagingFile(staging,
+					candidates);
+			stmt = connection.createStatement();
+			final int count = stmt.executeUpdate(loadData(staging, pageId));
+			if (count != candidates.size()) {
+				throw new IOException(String.format(
+						"Loaded %s of %s triples into page %s", count,
+						candidates.size(), pageId));
+			}
+			rs = stmt.executeQuery(LOAD_IDS);
+			if (!rs.next()) {
+				throw new IOException(
+						"Unable to read generated ids for bulk load");
+			}
+			final int first = rs.getInt(1);
+			final int increment = rs.getInt(2);
+			for (int i = 0; i < candidates.size(); i++) {
+				candidates.get(i).getSerializable()
+						.setIndex(first + (i * increment));
+			}
+			DbUtils.closeQuietly(rs);
+			rs = null;
+			pageFilterUpdate(connection, pageId, pageFilter);
+			LOG.debug("Loaded {} triples into page {}", candidates.size(),
+					pageId);
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+			if (!staging.delete()) {
+				LOG.warn("Unable to delete staging file {}", staging);
+			}
+		}
+	}
+
+	/**
+	 * Create the LOAD DATA statement for a staging file.
+	 * 
+	 * @param staging
+	 *            the staging file.
+	 * @param pageId
+	 *            the page to load.
+	 * @return the LOAD DATA statement.
+	 */
+	String loadData(final File staging, final int pageId) {
+		final boolean single = getPageLayout() == PageLayout.SINGLE_TABLE;
+		return String.format(LOAD_DATA_FMT, staging.getAbsolutePath()
+				.replace("\\", "\\\\").replace("'", "\\'"),
+				single ? TRIPLE_TABLE : "Page_" + pageId,
+				single ? String.format("page=%s, ", pageId) : "");
+	}
+
+	/**
+	 * Write the triples to a staging file. Each line holds the hamming
+	 * weight, approximate log, hash, hex triple filter and hex triple data
+	 * separated by tabs.
+	 * 
+	 * @param staging
+	 *            the file to write.
+	 * @param candidates
+	 *            the triples to write.
+	 * @return the merged page filter of the triples.
+	 * @throws IOException
+	 *             on error.
+	 */
+	static PageBloomFilter writeStagingFile(final File staging,
+			final List<PageSearchItem> candidates) throws IOException {
+		final PageBloomFilter pageFilter = new PageBloomFilter();
+		final Writer writer = new BufferedWriter(new OutputStreamWriter(
+				new FileOutputStream(staging), StandardCharsets.US_ASCII),
+				64 * 1024);
+		try {
+			for (final PageSearchItem candidate : candidates) {
+				final TripleBloomFilter filter = candidate.getTripleFilter();
+				writer.write(Integer.toString(filter.getHammingWeight()));
+				writer.write('\t');
+				writer.write(Double.toString(filter.getApproximateLog(3)));
+				writer.write('\t');
+				writer.write(Integer.toString(candidate.getTriple().hashCode()));
+				writer.write('\t');
+				writeHex(writer, filter.getByteBuffer());
+				writer.write('\t');
+				writeHex(writer, candidate.getSerializable().getByteBuffer());
+				writer.write('\n');
+				pageFilter.add(candidate.getPageFilter());
+			}
+		} finally {
+			writer.close();
+		}
+		return pageFilter;
+	}
+
+	/**
+	 * Write the remaining bytes of the buffer as upper case hex.
+	 * 
+	 * @param writer
+	 *            the writer to write to.
+	 * @param buffer
+	 *            the bytes to write.
+	 * @throws IOException
+	 *             on error.
+	 */
+	private static void writeHex(final Writer writer, final ByteBuffer buffer)
+			throws IOException {
+		final ByteBuffer bb = buffer.duplicate();
+		while (bb.hasRemaining()) {
+			final int b = bb.get() & 0xFF;
+			writer.write(HEX[b >>> 4]);
+			writer.write(HEX[b & 0x0F]);
+		}
+	}
+
+	@Override
+	public void tripleInsert(final Connection connection, final int pageId,
+			final List<PageSearchItem> candidates) throws SQLException,
+			IOException {
+		final File directory = bulkLoadDirectory;
+		if (directory == null || candidates.isEmpty()) {
+			super.tripleInsert(connection, pageId, candidates);
+		}
+		else {
+			bulkLoad(connection, pageId, candidates, directory);
+		}
+	}
+
+	/**
+	 * Returns true if the tables are created with the InnoDB engine.
+	 */
+	@Override
+	public boolean supportsTransactions() {
+		return engine == StorageEngine.INNODB;
+	}
+
+	@Override
+	protected String truncatePage(final int pageId) {
+		if (getPageLayout() == PageLayout.SINGLE_TABLE) {
+			return super.truncatePage(pageId);
+		}
+		return String.format("TRUNCATE Page_%s", pageId);
+	}
+
 	@Override
 	public void createSchema(final Connection connection) throws SQLException {
 		final DatabaseMetaData metadata = connection.getMetaData();
@@ -133,8 +519,15 @@ public class MySQLCommands implements SQLCommands {
 		try {
 			createPageIndexTable(metadata);
 			createPageStatsTable(metadata);
+			if (getPageLayout() == PageLayout.SINGLE_TABLE) {
+				createTripleTable(connection);
+			}
+			dropLegacyTriggers(connection);
 			createProcedures(metadata);
-
+			if (getPageIndexMode() == PageIndexMode.BIT_SLICE) {
+				createBitSliceTables(connection);
+			}
+			checkFormat(connection);
 		} finally {
 			DbUtils.closeQuietly(rs);
 			DbUtils.closeQuietly(stmt);
@@ -142,24 +535,97 @@ public class MySQLCommands implements SQLCommands {
 	}
 
 	/**
-	 * Create any necessary procedures.
+	 * Create the bit slice tables for PageIndexMode.BIT_SLICE.
 	 * 
-	 * @param metadata
-	 *            the metadata for the database.
+	 * @param connection
+	 *            the database connection.
 	 * @throws SQLException
 	 *             on error
 	 */
-	private void createProcedures(final DatabaseMetaData metadata)
+	private void createBitSliceTables(final Connection connection)
+			throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			stmt.executeUpdate(String.format(CREATE_BIT_SLICE_TABLE_FMT,
+					engine.getName()));
+			stmt.executeUpdate(String.format(CREATE_BIT_MASK_TABLE_FMT,
+					engine.getName()));
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+		initBitSlices(connection);
+	}
+
+	@Override
+	protected String bitSliceUpsert() {
+		return "INSERT INTO " + BIT_SLICE_TABLE
+				+ " (bit, word, pages) VALUES (?,?,?) "
+				+ "ON DUPLICATE KEY UPDATE pages = pages | VALUES(pages)";
+	}
+
+	@Override
+	protected String bitAndAggregate(final String column) {
+		return String.format("BIT_AND(%s)", column);
+	}
+
+	@Override
+	protected String bitAnd(final String left, final String right) {
+		return String.format("(%s & %s)", left, right);
+	}
+
+	/**
+	 * Create the Triples table for the SINGLE_TABLE layout.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @throws SQLException
+	 *             on error
+	 */
+	private void createTripleTable(final Connection connection)
+			throws SQLException {
+		Statement stmt = null;
+		try {
+			stmt = connection.createStatement();
+			if (pagesPerPartition > 0) {
+				stmt.executeUpdate(String.format(CREATE_TRIPLE_TABLE_FMT,
+						engine.getName())
+						+ String.format(TRIPLE_TABLE_PARTITIONS_FMT,
+								pagesPerPartition));
+			}
+			else {
+				stmt.executeUpdate(String.format(CREATE_TRIPLE_TABLE_FMT,
+						engine.getName()));
+			}
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Drop the per page insert triggers created by earlier versions. The
+	 * statistics are now maintained by the insert commands so the triggers
+	 * would count every record twice.
+	 * 
+	 * @param connection
+	 *            the database connection.
+	 * @throws SQLException
+	 *             on error
+	 */
+	private void dropLegacyTriggers(final Connection connection)
 			throws SQLException {
 		ResultSet rs = null;
 		Statement stmt = null;
-		final Connection connection = metadata.getConnection();
+		final List<String> triggers = new ArrayList<String>();
 		try {
-			rs = metadata.getProcedures(connection.getCatalog(),
-					connection.getSchema(), "add_triple");
-			if (!rs.next()) {
-				stmt = connection.createStatement();
-				stmt.executeUpdate(CREATE_ADD_TRIPLE_PROCEDURE);
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery(LEGACY_PAGE_INSERT_TRIGGERS);
+			while (rs.next()) {
+				triggers.add(rs.getString(1));
+			}
+			for (final String trigger : triggers) {
+				LOG.info("Dropping legacy trigger {}", trigger);
+				stmt.executeUpdate(String.format("DROP TRIGGER `%s`", trigger));
 			}
 		} finally {
 			DbUtils.closeQuietly(rs);
@@ -167,9 +633,27 @@ public class MySQLCommands implements SQLCommands {
 		}
 	}
 
-	@Override
-	public String getPageIndexTableName() {
-		return "PageIndex";
+	/**
+	 * Create any necessary procedures. The add_triple procedure is always
+	 * recreated so that databases created by earlier versions get the current
+	 * definition.
+	 * 
+	 * @param metadata
+	 *            the metadata for the database.
+	 * @throws SQLException
+	 *             on error
+	 */
+	private void createProcedures(final DatabaseMetaData metadata)
+			throws SQLException {
+		Statement stmt = null;
+		final Connection connection = metadata.getConnection();
+		try {
+			stmt = connection.createStatement();
+			stmt.executeUpdate("DROP PROCEDURE IF EXISTS add_triple");
+			stmt.executeUpdate(CREATE_ADD_TRIPLE_PROCEDURE);
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
 	}
 
 	/**
@@ -194,7 +678,8 @@ public class MySQLCommands implements SQLCommands {
 				// table does not exist
 				stmt = connection.createStatement();
 
-				stmt.executeUpdate(CREAT_PAGE_INDEX_TABLE_FMT);
+				stmt.executeUpdate(String.format(CREAT_PAGE_INDEX_TABLE_FMT,
+						engine.getName()));
 				String stmtStr = String.format(CREATE_PAGE_INDX_TRIGGER,
 						"INSERT");
 				stmt.executeUpdate(stmtStr);
@@ -218,10 +703,14 @@ public class MySQLCommands implements SQLCommands {
 				throw new IOException("Unable to read created table id");
 			}
 			final int id = rs.getInt(1);
-			String stmtStr = String.format(CREAT_TABLE_FMT, id);
-			stmt.execute(stmtStr);
-			stmtStr = String.format(CREATE_PAGE_INSERT_TRIGGER, id);
-			stmt.execute(stmtStr);
+			if (getPageLayout() == PageLayout.TABLE_PER_PAGE) {
+				stmt.execute(String.format(CREAT_TABLE_FMT, id, engine.getName()));
+			}
+			else if (pagesPerPartition > 0 && id % pagesPerPartition == 0) {
+				// first page of a new range, the pmax partition is empty.
+				stmt.execute(String.format(SPLIT_PARTITION_FMT, id
+						/ pagesPerPartition, id + pagesPerPartition));
+			}
 			stmt.executeUpdate(String
 					.format("INSERT INTO PageStats SET records=0, deletes=0, bytes=0, idx=%s",
 							id));
@@ -231,142 +720,16 @@ public class MySQLCommands implements SQLCommands {
 		}
 	}
 
-	@Override
-	public PreparedStatement pageIndexSearch(final Connection connection,
-			final PageBloomFilter filter) throws SQLException {
-		PreparedStatement stmt = null;
-		try {
-			stmt = connection
-					.prepareStatement("SELECT bloom, idx FROM PageIndex WHERE hamming>=? AND log>=? AND bloommatch( ?, PageIndex.bloom )");
-			stmt.setInt(1, filter.getHammingWeight());
-			stmt.setDouble(2, filter.getApproximateLog(0));
-			stmt.setBlob(3, DBIO.asInputStream(filter.getByteBuffer()));
-			return stmt;
-		} catch (final SQLException e) {
-			DbUtils.closeQuietly(stmt);
-			throw e;
-		}
-	}
-
-	@Override
-	public String pageIndexById() {
-		return "SELECT bloom FROM PageIndex WHERE idx=?";
-	}
-
-	@Override
-	public PreparedStatement tripleSearch(final Connection connection,
-			final int pageId, final PageSearchItem candidate)
-			throws SQLException, IOException {
-		String sql = null;
-		PreparedStatement stmt = null;
-		try {
-			if (candidate.getSerializable().containsWild()) {
-				sql = String
-						.format("SELECT data, idx FROM Page_%s WHERE hamming>=? AND log>=? AND bloommatch( ?, bloom)",
-								pageId);
-				stmt = connection.prepareStatement(sql);
-				stmt.setInt(1, candidate.getTripleFilter().getHammingWeight());
-				stmt.setDouble(2, candidate.getTripleFilter()
-						.getApproximateLog(APPROX_LOG_DEPTH));
-				stmt.setBlob(3, DBIO.asInputStream(candidate.getTripleFilter()
-						.getByteBuffer()));
-			}
-			else {
-				sql = String.format(
-						"SELECT data, idx FROM Page_%s WHERE hash=?", pageId);
-				stmt = connection.prepareStatement(sql);
-				stmt.setInt(1, candidate.getTriple().hashCode());
-			}
-			LOG.debug("Checking {} with {}", candidate.getTriple(), stmt);
-			return stmt;
-		} catch (final SQLException e) {
-			DbUtils.closeQuietly(stmt);
-			throw e;
-		} catch (final IOException e) {
-			DbUtils.closeQuietly(stmt);
-			throw e;
-		}
-	}
-
-	@Override
-	public PreparedStatement tripleScan(final Connection connection,
-			final int pageId) throws SQLException {
-		final String sql = String.format("SELECT data, idx FROM Page_%s page",
-				pageId);
-		return connection.prepareStatement(sql);
-	}
-
-	@Override
-	public int tripleDelete(final Connection connection, final DBPage page,
-			final PageSearchItem candidate) throws SQLException, IOException {
-		String sql = String.format("DELETE FROM Page_%s WHERE idx=?", page
-				.getPageIndex().getId());
-		PreparedStatement stmt = null;
-		ExtendedIterator<SerializableTriple> iter = null;
-		int count = 0;
-		try {
-			if (candidate.getTriple().equals(Triple.ANY)) {
-				sql = String.format("TRUNCATE Page_%s", page.getPageIndex()
-						.getId());
-				stmt = connection.prepareStatement(sql);
-				count = stmt.executeUpdate();
-			}
-			else {
-				stmt = connection.prepareStatement(sql);
-				iter = WrappedIterator.create(
-						page.new SerializableTripleIterator(candidate))
-						.filterKeep(new SerializableTripleFilter(candidate));
-				while (iter.hasNext()) {
-					stmt.setInt(1, iter.next().getIndex());
-					count += stmt.executeUpdate();
-				}
-			}
-
-			if (count > 0) {
-				sql = String.format(
-						"UPDATE PageStats SET deletes=deletes+? WHERE idx=%s",
-						page.getPageIndex().getId());
-				DbUtils.closeQuietly(stmt);
-				stmt = connection.prepareStatement(sql);
-				stmt.setInt(1, count);
-				stmt.executeUpdate();
-			}
-			return count;
-		} finally {
-			iter.close();
-			DbUtils.closeQuietly(stmt);
-		}
-	}
-
-	@Override
-	public int tripleCount(final Connection connection, final int pageId,
-			final TripleBloomFilter filter) throws SQLException, IOException {
-		final String sql = String
-				.format("SELECT count(*) FROM Page_%%s page WHERE hamming>=? AND log>=? AND bloommatch( ?, page.bloom)",
-						pageId);
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-		try {
-			stmt = connection.prepareStatement(sql);
-			stmt.setInt(1, filter.getHammingWeight());
-			stmt.setDouble(2, filter.getApproximateLog(APPROX_LOG_DEPTH));
-			stmt.setBlob(3, DBIO.asInputStream(filter.getByteBuffer()));
-			rs = stmt.executeQuery();
-			if (rs.next()) {
-				return rs.getInt(1);
-			}
-			else {
-				throw new IOException("No result returned from count call");
-			}
-		} finally {
-			DbUtils.closeQuietly(rs);
-			DbUtils.closeQuietly(stmt);
-		}
-	}
-
 	@Override
 	public void tripleInsert(final Connection connection, final int pageId,
 			final PageSearchItem candidate) throws SQLException, IOException {
+		if (getPageLayout() == PageLayout.SINGLE_TABLE
+				|| getPageIndexMode() == PageIndexMode.BIT_SLICE) {
+			// the add_triple procedure writes to the Page_N tables and does
+			// not maintain the bit slices.
+			super.tripleInsert(connection, pageId, candidate);
+			return;
+		}
 
 		CallableStatement stmt = null;
 
@@ -377,11 +740,11 @@ public class MySQLCommands implements SQLCommands {
 			stmt.setInt(2, candidate.getTripleFilter().getHammingWeight());
 			stmt.setDouble(3, candidate.getTripleFilter().getApproximateLog(3));
 			stmt.setInt(4, candidate.getTriple().hashCode());
-			stmt.setBlob(5, DBIO.asInputStream(candidate.getTripleFilter()
+			stmt.setBytes(5, DBIO.toByteArray(candidate.getTripleFilter()
 					.getByteBuffer()));
-			stmt.setBlob(6, DBIO.asInputStream(candidate.getSerializable()
+			stmt.setBytes(6, DBIO.toByteArray(candidate.getSerializable()
 					.getByteBuffer()));
-			stmt.setBlob(7, DBIO.asInputStream(candidate.getPageFilter()
+			stmt.setBytes(7, DBIO.toByteArray(candidate.getPageFilter()
 					.getByteBuffer()));
 			stmt.registerOutParameter(8, java.sql.Types.INTEGER);
 			stmt.execute();
@@ -391,11 +754,6 @@ public class MySQLCommands implements SQLCommands {
 		}
 	}
 
-	@Override
-	public String getPageStatsTableName() {
-		return "PageStats";
-	}
-
 	/**
 	 * Create the page stats table.
 	 * 
@@ -417,7 +775,8 @@ public class MySQLCommands implements SQLCommands {
 					});
 			if (!rs.next()) {
 				stmt = connection.createStatement();
-				stmt.execute("CREATE TABLE PageStats ( idx INT PRIMARY KEY, records INT, deletes INT, bytes INT ) ENGINE MyISAM");
+				stmt.execute(String.format(CREATE_PAGE_STATS_TABLE_FMT,
+						engine.getName()));
 			}
 		} finally {
 			DbUtils.closeQuietly(rs);
@@ -425,51 +784,4 @@ public class MySQLCommands implements SQLCommands {
 		}
 	}
 
-	@Override
-	public String getPageCountQuery() {
-		return "SELECT COUNT(*) AS size FROM PageStats";
-	}
-
-	@Override
-	public String statsIncrementRecord(final int tableId) {
-		return String.format(
-				"UPDATE PageStats SET records=records+1 WHERE idx=%s", tableId);
-	}
-
-	@Override
-	public String statsIncrementDelete(final int tableId) {
-		return String.format(
-				"UPDATE PageStats SET deletes=deletes+1 WHERE idx=%s", tableId);
-	}
-
-	@Override
-	public String statsIncrementBytes(final int tableId, final int bytes) {
-		return String.format(
-				"UPDATE PageStats SET bytes=bytes+%s WHERE idx=%s", bytes,
-				tableId);
-	}
-
-	@Override
-	public String getStats(final int tableId) {
-		return String.format(
-				"SELECT records, deletes, bytes FROM PageStats WHERE idx=%s",
-				tableId);
-	}
-
-	private static final String BEST_PAGE_QUERY = String
-			.format("SELECT idx,overs,free FROM "
-					+ "(SELECT idx, records-%1$s overs, "
-					+ "%1$s-records+deletes free from PageStats order by overs ASC, free DESC) x "
-					+ "WHERE free>0 LIMIT 1",
-					PageBloomFilter.CONFIG.getNumberOfItems());
-
-	@Override
-	public String getBestPageQuery() {
-		return BEST_PAGE_QUERY;
-	}
-
-	@Override
-	public String getRecordCountQuery() {
-		return "SUM(records-deletes) AS count FROM PageStats ";
-	}
 }
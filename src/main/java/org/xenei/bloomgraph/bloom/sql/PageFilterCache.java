@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.index.PageIndex;
+
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * A client side mirror of the PageIndex table.
+ * 
+ * The page filters only change when triples are written so the mirror is
+ * loaded once and then updated by the writes made through the DBIO. Pages are
+ * then selected locally without a query or the bloommatch function.
+ * 
+ * When other processes write to the same database the mirror can be
+ * refreshed periodically (see setRefreshInterval()) or on demand.
+ * 
+ * Entries are never modified in place. An update replaces the PageIndex so
+ * that iterators may safely read the filters while writes occur.
+ */
+class PageFilterCache {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(PageFilterCache.class);
+
+	// the SQL commands to read the page index with.
+	private final SQLCommands sqlCommands;
+	// the page indexes by page id.
+	private volatile ConcurrentNavigableMap<Integer, PageIndex> pages;
+	// milliseconds between reloads, 0 = never.
+	private volatile long refreshInterval;
+	// time of the last load.
+	private volatile long lastLoad;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sqlCommands
+	 *            the SQL commands to read the page index with.
+	 */
+	PageFilterCache(final SQLCommands sqlCommands) {
+		this.sqlCommands = sqlCommands;
+		this.pages = new ConcurrentSkipListMap<Integer, PageIndex>();
+		this.refreshInterval = 0;
+		this.lastLoad = 0;
+	}
+
+	/**
+	 * Set the time between reloads of the page filters.
+	 * 
+	 * @param refreshInterval
+	 *            the time in milliseconds. 0 disables periodic reloads.
+	 */
+	void setRefreshInterval(final long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Get the time between reloads of the page filters.
+	 * 
+	 * @return the time in milliseconds, 0 if periodic reloads are disabled.
+	 */
+	long getRefreshInterval() {
+		return refreshInterval;
+	}
+
+	/**
+	 * Load all of the page filters from the database, replacing the current
+	 * contents.
+	 * 
+	 * @param connection
+	 *            the connection to read with.
+	 * @throws SQLException
+	 *             on error.
+	 * @throws IOException
+	 *             on error.
+	 */
+	synchronized void load(final Connection connection) throws SQLException,
+			IOException {
+		final ConcurrentNavigableMap<Integer, PageIndex> loaded = new ConcurrentSkipListMap<Integer, PageIndex>();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery(sqlCommands.pageIndexScan());
+			while (rs.next()) {
+				final int id = rs.getInt(2);
+				final byte[] bloom = rs.getBytes(1);
+				loaded.put(id, bloom == null ? new PageIndex(id)
+						: new PageIndex(DBIO.toByteBuffer(bloom), id));
+			}
+			pages = loaded;
+			lastLoad = System.currentTimeMillis();
+			LOG.debug("Loaded {} page filters", loaded.size());
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Reload the page filters if the refresh interval has passed.
+	 * 
+	 * @param io
+	 *            the DBIO to get the connection from.
+	 */
+	void checkRefresh(final DBIO io) {
+		final long interval = refreshInterval;
+		if (interval > 0
+				&& lastLoad < (System.currentTimeMillis() - interval)) {
+			try {
+				final Connection connection = io.getConnection();
+				try {
+					load(connection);
+				} finally {
+					io.releaseConnection(connection);
+				}
+			} catch (final SQLException e) {
+				LOG.warn("Unable to refresh page filters: " + e.getMessage(),
+						e);
+			} catch (final IOException e) {
+				LOG.warn("Unable to refresh page filters: " + e.getMessage(),
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Get the page index for a page.
+	 * 
+	 * @param id
+	 *            the page id.
+	 * @return the page index or null if the page is not known.
+	 */
+	PageIndex get(final int id) {
+		return pages.get(id);
+	}
+
+	/**
+	 * Add a new empty page.
+	 * 
+	 * @param id
+	 *            the page id.
+	 */
+	void addPage(final int id) {
+		pages.putIfAbsent(id, new PageIndex(id));
+	}
+
+	/**
+	 * Merge a filter into the filter for a page. Used after triples have been
+	 * written to the page.
+	 * 
+	 * @param id
+	 *            the page id.
+	 * @param filter
+	 *            the filter to merge.
+	 */
+	synchronized void merge(final int id, final PageBloomFilter filter) {
+		final PageBloomFilter merged = new PageBloomFilter();
+		final PageIndex old = pages.get(id);
+		if (old != null) {
+			merged.add(old.getFilter());
+		}
+		merged.add(filter);
+		pages.put(id, new PageIndex(merged, id));
+	}
+
+	/**
+	 * Get the number of pages in the cache.
+	 * 
+	 * @return the number of pages.
+	 */
+	int size() {
+		return pages.size();
+	}
+
+	/**
+	 * Get an iterator over the page indexes whose filter matches the target.
+	 * 
+	 * @param target
+	 *            the filter to match.
+	 * @return the iterator of matching page indexes in page id order.
+	 */
+	ExtendedIterator<PageIndex> iterator(final PageBloomFilter target) {
+		return WrappedIterator.create(pages.values().iterator()).filterKeep(
+				new Filter<PageIndex>() {
+					@Override
+					public boolean accept(final PageIndex o) {
+						return target.match(o.getFilter());
+					}
+				});
+	}
+}
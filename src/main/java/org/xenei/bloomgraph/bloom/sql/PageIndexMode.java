@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+/**
+ * The method used by the database to find the pages whose filter matches a
+ * search filter.
+ */
+public enum PageIndexMode {
+	/**
+	 * The PageIndex hamming and log columns limit the candidate pages and the
+	 * bloommatch function is evaluated for each candidate. Pages are selected
+	 * from the client side mirror of the page filters.
+	 */
+	BLOOM_FUNCTION,
+	/**
+	 * The page filters are also stored as bit slices: for each filter bit a
+	 * row per word of 32 pages holds a mask of the pages that have the bit
+	 * set. The pages that have all the bits of a search filter are found by
+	 * an indexed lookup of those bits and a bitwise AND of their words, so no
+	 * bloom function is evaluated. Pages are selected by the database rather
+	 * than the client side mirror.
+	 */
+	BIT_SLICE
+}
@@ -0,0 +1,36 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+/**
+ * The layout of the triple storage in the database.
+ * 
+ * The layout is fixed when the store is created. A store must always be
+ * opened with the layout it was created with.
+ */
+public enum PageLayout {
+	/**
+	 * Each page has its own Page_N table. Page creation creates a table.
+	 */
+	TABLE_PER_PAGE,
+	/**
+	 * All pages share the Triples table which has a page column. Page
+	 * creation only inserts the page index and statistics rows.
+	 */
+	SINGLE_TABLE
+}
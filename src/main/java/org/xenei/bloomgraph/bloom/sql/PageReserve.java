@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A reserve of empty pages for the DBIO.
+ * 
+ * Creating a page runs DDL (the page table and its indexes) and several
+ * inserts. The reserve creates the pages on a background thread so that a
+ * writer that needs a new page claims a ready one instead of waiting for the
+ * DDL. Each claim starts a refill when the reserve is below its size.
+ * 
+ * Reserved pages exist in the database but are not known to the page caches
+ * until they are claimed so they are not selected for writing. Pages that are
+ * still reserved when the DBIO closes are ordinary empty pages to the next
+ * DBIO.
+ */
+class PageReserve {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(PageReserve.class);
+
+	// the DBIO to create pages with.
+	private final DBIO io;
+	// the number of pages to keep ready.
+	private final int size;
+	// the ids of the ready pages.
+	private final BlockingQueue<Integer> ready;
+	// the thread that creates the pages.
+	private final ExecutorService creator;
+	// true while a refill is scheduled or running.
+	private boolean refilling;
+	// true once close() has been called.
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Starts filling the reserve.
+	 * 
+	 * @param io
+	 *            the DBIO to create pages with.
+	 * @param size
+	 *            the number of pages to keep ready.
+	 */
+	PageReserve(final DBIO io, final int size) {
+		this.io = io;
+		this.size = size;
+		this.ready = new LinkedBlockingQueue<Integer>();
+		this.creator = Executors
+				.newSingleThreadExecutor(new CreatorThreadFactory());
+		this.refilling = false;
+		this.closed = false;
+		refill();
+	}
+
+	/**
+	 * Get the number of pages to keep ready.
+	 * 
+	 * @return the reserve size.
+	 */
+	int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the number of pages that are ready.
+	 * 
+	 * @return the number of ready pages.
+	 */
+	int getReadyCount() {
+		return ready.size();
+	}
+
+	/**
+	 * Claim a ready page and start a refill.
+	 * 
+	 * @return the page id or null if no page is ready.
+	 */
+	Integer claim() {
+		final Integer retval = ready.poll();
+		refill();
+		return retval;
+	}
+
+	/**
+	 * Start a refill unless one is already scheduled.
+	 */
+	private synchronized void refill() {
+		if (closed || refilling || ready.size() >= size) {
+			return;
+		}
+		refilling = true;
+		creator.execute(new Creator());
+	}
+
+	/**
+	 * Mark the refill as finished.
+	 * 
+	 * @param succeeded
+	 *            true if the refill did not fail. A successful refill is
+	 *            restarted if pages were claimed while it finished.
+	 */
+	private synchronized void refilled(final boolean succeeded) {
+		refilling = false;
+		if (succeeded) {
+			refill();
+		}
+	}
+
+	/**
+	 * Stop creating pages. A page that is being created is completed. The
+	 * ready pages are left in the database.
+	 */
+	void close() {
+		closed = true;
+		creator.shutdown();
+		try {
+			creator.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates pages until the reserve is full.
+	 */
+	private class Creator implements Runnable {
+		@Override
+		public void run() {
+			boolean succeeded = false;
+			try {
+				while (!closed && ready.size() < size) {
+					ready.add(io.createPageTable());
+				}
+				succeeded = true;
+			} catch (final SQLException e) {
+				LOG.warn("Unable to reserve page: " + e.getMessage(), e);
+			} catch (final IOException e) {
+				LOG.warn("Unable to reserve page: " + e.getMessage(), e);
+			} finally {
+				refilled(succeeded);
+			}
+		}
+	}
+
+	/**
+	 * Creates the named daemon creator thread.
+	 */
+	private static class CreatorThreadFactory implements ThreadFactory {
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "DBIO-page-reserve");
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,553 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-back cache of the PageStats table shared by all the pages of a
+ * DBIO.
+ * 
+ * Writes and deletes record their changes as deltas against the cached
+ * values. The deltas are written to the database in a single batch when the
+ * number of pages with pending changes reaches the flush threshold, when
+ * flush() is called and before queries that read the PageStats table. Cached values are
+ * reloaded from the database once they are older than the maximum age, the
+ * pending deltas are applied to the reloaded values. The reload query runs
+ * without holding the cache lock; its result is discarded if a flush wrote
+ * deltas while it ran.
+ * 
+ * The cache also orders the pages that have free space so that the page to
+ * write to is selected without a query. The order matches the original best
+ * page query: fewest records first, then most free space, then lowest id. The
+ * cache is seeded with the statistics for every page by load().
+ */
+class PageStatsCache {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(PageStatsCache.class);
+
+	/**
+	 * The default time in milliseconds that cached values are considered
+	 * current.
+	 */
+	static final long DEFAULT_MAX_AGE = 60 * 1000; // 60 seconds
+
+	/**
+	 * The default number of pages with pending changes that triggers a flush.
+	 */
+	static final int DEFAULT_FLUSH_THRESHOLD = 100;
+
+	// the SQL commands to read and write the statistics with.
+	private final SQLCommands sqlCommands;
+	// the statistics by page id.
+	private final ConcurrentMap<Integer, Entry> entries;
+	// the number of pages with changes not yet written to the database.
+	private final AtomicInteger pending;
+	// milliseconds that cached values are considered current.
+	private volatile long maxAge;
+	// the number of pages with pending changes that triggers a flush.
+	private volatile int flushThreshold;
+	// the number of triples a page is designed to hold.
+	private final int capacity;
+	// the pages with free space in best page order. Guarded by this.
+	private final TreeSet<Entry> freeSpace;
+	// incremented by each flush that writes deltas. Written while holding
+	// this.
+	private volatile long generation;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param sqlCommands
+	 *            the SQL commands to read and write the statistics with.
+	 * @param capacity
+	 *            the number of triples a page is designed to hold.
+	 */
+	PageStatsCache(final SQLCommands sqlCommands, final int capacity) {
+		this.sqlCommands = sqlCommands;
+		this.capacity = capacity;
+		this.freeSpace = new TreeSet<Entry>(new Comparator<Entry>() {
+			@Override
+			public int compare(final Entry e1, final Entry e2) {
+				final long r1 = e1.records + e1.dRecords;
+				final long r2 = e2.records + e2.dRecords;
+				if (r1 != r2) {
+					return r1 < r2 ? -1 : 1;
+				}
+				final long f1 = e1.free();
+				final long f2 = e2.free();
+				if (f1 != f2) {
+					return f1 > f2 ? -1 : 1;
+				}
+				return Integer.compare(e1.pageId, e2.pageId);
+			}
+		});
+		this.entries = new ConcurrentHashMap<Integer, Entry>();
+		this.pending = new AtomicInteger();
+		this.maxAge = DEFAULT_MAX_AGE;
+		this.flushThreshold = DEFAULT_FLUSH_THRESHOLD;
+		this.generation = 0;
+	}
+
+	/**
+	 * Set the time that cached values are considered current.
+	 * 
+	 * @param maxAge
+	 *            the time in milliseconds.
+	 */
+	void setMaxAge(final long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Get the time that cached values are considered current.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Set the number of pages with pending changes that triggers a flush.
+	 * 
+	 * @param flushThreshold
+	 *            the number of pages, 1 writes every change immediately.
+	 */
+	void setFlushThreshold(final int flushThreshold) {
+		this.flushThreshold = flushThreshold;
+	}
+
+	/**
+	 * Get the number of pages with pending changes that triggers a flush.
+	 * 
+	 * @return the number of pages.
+	 */
+	int getFlushThreshold() {
+		return flushThreshold;
+	}
+
+	/**
+	 * Get the number of pages with changes that have not been written to the
+	 * database.
+	 * 
+	 * @return the number of pages with pending changes.
+	 */
+	int getPendingCount() {
+		return pending.get();
+	}
+
+	/**
+	 * Load the statistics for every page from the database, replacing the
+	 * cached values. Pending changes are kept.
+	 * 
+	 * @param connection
+	 *            the connection to read with.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	synchronized void load(final Connection connection) throws SQLException {
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery(sqlCommands.getStatsScan());
+			final long now = System.currentTimeMillis();
+			while (rs.next()) {
+				final Entry entry = entry(rs.getInt(1));
+				synchronized (entry) {
+					freeSpace.remove(entry);
+					entry.records = rs.getLong(2);
+					entry.deletes = rs.getLong(3);
+					entry.bytes = rs.getLong(4);
+					entry.loaded = now;
+					entry.exists = true;
+					reorder(entry);
+				}
+			}
+			LOG.debug("Loaded statistics for {} pages", entries.size());
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Add the statistics for a new empty page.
+	 * 
+	 * @param pageId
+	 *            the page id.
+	 */
+	synchronized void addPage(final int pageId) {
+		final Entry entry = entry(pageId);
+		synchronized (entry) {
+			freeSpace.remove(entry);
+			entry.loaded = System.currentTimeMillis();
+			entry.exists = true;
+			reorder(entry);
+		}
+	}
+
+	/**
+	 * Get the best page to write to. This is the page with the fewest records
+	 * that has free space.
+	 * 
+	 * @return the page id, records, deletes and free space in that order or
+	 *         null if no page has free space.
+	 */
+	synchronized long[] bestPage() {
+		if (freeSpace.isEmpty()) {
+			return null;
+		}
+		final Entry entry = freeSpace.first();
+		synchronized (entry) {
+			return new long[] {
+					entry.pageId, entry.records + entry.dRecords,
+					entry.deletes + entry.dDeletes, entry.free()
+			};
+		}
+	}
+
+	/**
+	 * Place the entry in the free space order if the page is known to exist
+	 * and has free space. The entry must have been removed from the order
+	 * before its values were changed. Must be called while holding the cache
+	 * and entry locks.
+	 * 
+	 * @param entry
+	 *            the entry to place.
+	 */
+	private void reorder(final Entry entry) {
+		if (entry.exists && entry.free() > 0) {
+			freeSpace.add(entry);
+		}
+	}
+
+	/**
+	 * Get the entry for a page.
+	 * 
+	 * @param pageId
+	 *            the page id.
+	 * @return the entry, never null.
+	 */
+	private Entry entry(final int pageId) {
+		Entry retval = entries.get(pageId);
+		if (retval == null) {
+			final Entry e = new Entry(pageId);
+			retval = entries.putIfAbsent(pageId, e);
+			if (retval == null) {
+				retval = e;
+			}
+		}
+		return retval;
+	}
+
+	/**
+	 * Get the current statistics for a page. The statistics are reloaded if
+	 * they are older than the maximum age.
+	 * 
+	 * @param io
+	 *            the DBIO to get the connection from.
+	 * @param pageId
+	 *            the page id.
+	 * @return the record count, delete count and data size in that order.
+	 */
+	long[] get(final DBIO io, final int pageId) {
+		final Entry entry = entry(pageId);
+		synchronized (entry) {
+			if (!entry.isStale()) {
+				return entry.values();
+			}
+		}
+		// read without the cache lock. If a flush wrote deltas while the
+		// query ran the values read may or may not include them so they are
+		// discarded and the entry stays stale.
+		final long gen = generation;
+		final long[] values = entry.read(io);
+		synchronized (this) {
+			synchronized (entry) {
+				if (values != null && gen == generation && entry.isStale()) {
+					freeSpace.remove(entry);
+					entry.records = values[0];
+					entry.deletes = values[1];
+					entry.bytes = values[2];
+					entry.loaded = System.currentTimeMillis();
+					entry.exists = true;
+					reorder(entry);
+				}
+				return entry.values();
+			}
+		}
+	}
+
+	/**
+	 * Get the number of live records on a page from the cached values. The
+	 * database is not read even if the values are stale.
+	 * 
+	 * @param pageId
+	 *            the page id.
+	 * @return the records less the deletes, 0 if the page is not cached.
+	 */
+	long cachedCount(final int pageId) {
+		final Entry entry = entries.get(pageId);
+		if (entry == null) {
+			return 0;
+		}
+		synchronized (entry) {
+			return (entry.records + entry.dRecords)
+					- (entry.deletes + entry.dDeletes);
+		}
+	}
+
+	/**
+	 * Record a change to the statistics for a page. The change is written to
+	 * the database when the number of pages with pending changes reaches the
+	 * flush threshold.
+	 * 
+	 * @param io
+	 *            the DBIO to get the connection from.
+	 * @param pageId
+	 *            the page id.
+	 * @param records
+	 *            the number of records added.
+	 * @param deletes
+	 *            the number of records deleted.
+	 * @param bytes
+	 *            the number of bytes added.
+	 */
+	void update(final DBIO io, final int pageId, final int records,
+			final int deletes, final long bytes) {
+		final Entry entry = entry(pageId);
+		synchronized (this) {
+			synchronized (entry) {
+				if (!entry.isDirty()) {
+					pending.incrementAndGet();
+				}
+				freeSpace.remove(entry);
+				entry.dRecords += records;
+				entry.dDeletes += deletes;
+				entry.dBytes += bytes;
+				reorder(entry);
+			}
+		}
+		if (pending.get() >= flushThreshold) {
+			flush(io);
+		}
+	}
+
+	/**
+	 * Write the pending changes to the database. Errors are logged and the
+	 * changes are retained for the next flush.
+	 * 
+	 * @param io
+	 *            the DBIO to get the connection from.
+	 */
+	void flush(final DBIO io) {
+		if (pending.get() == 0) {
+			return;
+		}
+		try {
+			final Connection connection = io.getAutoCommitConnection();
+			try {
+				flush(connection);
+			} finally {
+				io.releaseAutoCommitConnection(connection);
+			}
+		} catch (final SQLException e) {
+			LOG.error("Unable to write page statistics: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Write the pending changes to the database in a single batch.
+	 * 
+	 * @param connection
+	 *            the connection to write with.
+	 * @throws SQLException
+	 *             on error.
+	 */
+	synchronized void flush(final Connection connection) throws SQLException {
+		final List<long[]> changes = new ArrayList<long[]>();
+		for (final Entry entry : entries.values()) {
+			synchronized (entry) {
+				if (entry.isDirty()) {
+					changes.add(new long[] {
+							entry.pageId, entry.dRecords, entry.dDeletes,
+							entry.dBytes
+					});
+				}
+			}
+		}
+		if (changes.isEmpty()) {
+			return;
+		}
+		PreparedStatement stmt = null;
+		try {
+			stmt = connection.prepareStatement(sqlCommands.statsUpdate());
+			for (final long[] change : changes) {
+				stmt.setLong(1, change[1]);
+				stmt.setLong(2, change[2]);
+				stmt.setLong(3, change[3]);
+				stmt.setInt(4, (int) change[0]);
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+		// move the written deltas into the cached values.
+		for (final long[] change : changes) {
+			final Entry entry = entry((int) change[0]);
+			synchronized (entry) {
+				entry.records += change[1];
+				entry.deletes += change[2];
+				entry.bytes += change[3];
+				entry.dRecords -= change[1];
+				entry.dDeletes -= change[2];
+				entry.dBytes -= change[3];
+				if (!entry.isDirty()) {
+					pending.decrementAndGet();
+				}
+			}
+		}
+		generation++;
+		LOG.debug("Wrote statistics for {} pages", changes.size());
+	}
+
+	/**
+	 * The statistics for a page. The values read from the database and the
+	 * changes that have not been written.
+	 */
+	private class Entry {
+		// the page id.
+		private final int pageId;
+		// the values read from the database.
+		private long records;
+		private long deletes;
+		private long bytes;
+		// the changes not yet written to the database.
+		private long dRecords;
+		private long dDeletes;
+		private long dBytes;
+		// the time of the last load, 0 = never loaded.
+		private long loaded;
+		// true once the page has been read from or created in the database.
+		private boolean exists;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param pageId
+		 *            the page id.
+		 */
+		private Entry(final int pageId) {
+			this.pageId = pageId;
+			this.loaded = 0;
+			this.exists = false;
+		}
+
+		/**
+		 * Returns true if the values are older than the maximum age.
+		 * 
+		 * @return true if the values should be reloaded.
+		 */
+		private boolean isStale() {
+			return loaded < (System.currentTimeMillis() - maxAge);
+		}
+
+		/**
+		 * Get the current values.
+		 * 
+		 * @return the record count, delete count and data size in that order.
+		 */
+		private long[] values() {
+			return new long[] {
+					records + dRecords, deletes + dDeletes, bytes + dBytes
+			};
+		}
+
+		/**
+		 * Get the number of triples that may be added before the page is full.
+		 * 
+		 * @return the free space.
+		 */
+		private long free() {
+			return capacity - (records + dRecords) + (deletes + dDeletes);
+		}
+
+		/**
+		 * Returns true if there are changes that have not been written.
+		 * 
+		 * @return true if there are pending changes.
+		 */
+		private boolean isDirty() {
+			return dRecords != 0 || dDeletes != 0 || dBytes != 0;
+		}
+
+		/**
+		 * Read the values from the database. Must be called without holding
+		 * the cache or entry locks.
+		 * 
+		 * @param io
+		 *            the DBIO to get the connection from.
+		 * @return the record count, delete count and data size in that order
+		 *         or null if they could not be read.
+		 */
+		private long[] read(final DBIO io) {
+			Connection connection = null;
+			Statement stmt = null;
+			ResultSet rs = null;
+			try {
+				connection = io.getAutoCommitConnection();
+				stmt = connection.createStatement();
+				rs = stmt.executeQuery(sqlCommands.getStats(pageId));
+				if (rs.next()) {
+					return new long[] {
+							rs.getLong(1), rs.getLong(2), rs.getLong(3)
+					};
+				}
+				LOG.error("Unable to retrieve statistics for page " + pageId);
+				return null;
+			} catch (final SQLException e) {
+				LOG.error("Error retrieving statistics for page " + pageId, e);
+				return null;
+			} finally {
+				DbUtils.closeQuietly(rs);
+				DbUtils.closeQuietly(stmt);
+				if (connection != null) {
+					io.releaseAutoCommitConnection(connection);
+				}
+			}
+		}
+	}
+}
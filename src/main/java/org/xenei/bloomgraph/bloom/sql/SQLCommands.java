@@ -22,6 +22,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 
 import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
 import org.xenei.bloomgraph.bloom.filters.TripleBloomFilter;
@@ -69,6 +70,15 @@ public interface SQLCommands {
 	public PreparedStatement pageIndexSearch(Connection connection,
 			final PageBloomFilter filter) throws SQLException;
 
+	/**
+	 * Get the method used by pageIndexSearch() to find the matching pages.
+	 * With PageIndexMode.BIT_SLICE the DBIO selects pages with
+	 * pageIndexSearch() rather than the client side page filters.
+	 * 
+	 * @return the page index mode.
+	 */
+	public PageIndexMode getPageIndexMode();
+
 	/**
 	 * Return the query that will return the bloom data for a specific page.
 	 *
@@ -80,6 +90,16 @@ public interface SQLCommands {
 	 */
 	public String pageIndexById();
 
+	/**
+	 * Return the query that will return the bloom data for all pages.
+	 *
+	 * The first column must be the blob that is the page bloom filter and the
+	 * second the page id.
+	 * 
+	 * @return The query string.
+	 */
+	public String pageIndexScan();
+
 	// PAGE DATA QUERIES
 
 	/**
@@ -117,6 +137,61 @@ public interface SQLCommands {
 	public PreparedStatement tripleScan(final Connection connection,
 			final int pageId) throws SQLException;
 
+	/**
+	 * Get the fetch size for the statements returned by tripleSearch(),
+	 * tripleScan() and multiPageSearch() when they are read by a cursor. The
+	 * cursor reads the rows once in order on a dedicated connection so the
+	 * value may request streaming from the driver.
+	 * 
+	 * @return the fetch size, 0 to use the driver default.
+	 */
+	public int getCursorFetchSize();
+
+	/**
+	 * Returns true if the tables support transactions. When true the DBIO may
+	 * run several operations in a single JDBC transaction. Page creation is
+	 * always performed outside of the transaction.
+	 * 
+	 * @return true if transactions are supported.
+	 */
+	public boolean supportsTransactions();
+
+	/**
+	 * Search several pages with one statement. Query should perform the same
+	 * checks as tripleSearch() (or tripleScan() for Triple.ANY) on every page.
+	 * must return data in first and id in second result columns.
+	 * 
+	 * @param connection
+	 *            The database connection.
+	 * @param pageIds
+	 *            The page IDs of the pages to search.
+	 * @param candidate
+	 *            The page search item to match.
+	 * @return the statement with the parameters set.
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public PreparedStatement multiPageSearch(final Connection connection,
+			final List<Integer> pageIds, final PageSearchItem candidate)
+			throws SQLException, IOException;
+
+	/**
+	 * Search a page for the triples with any of the hashes. Used to check a
+	 * batch of triples for duplicates with one statement per page. Must return
+	 * data in first and id in second result columns.
+	 * 
+	 * @param connection
+	 *            The database connection.
+	 * @param pageId
+	 *            The page ID of the page to search.
+	 * @param hashes
+	 *            The triple hashes to match.
+	 * @return the statement with the parameters set.
+	 * @throws SQLException
+	 */
+	public PreparedStatement tripleHashSearch(final Connection connection,
+			final int pageId, final List<Integer> hashes) throws SQLException;
+
 	/**
 	 * Delete matching triples from the page.
 	 *
@@ -126,7 +201,8 @@ public interface SQLCommands {
 	 *            The page ID of the page to search.
 	 * @param PageSearchItem
 	 *            the page search item describing the triples to delete.
-	 * @return number of triples deleted
+	 * @return number of triples deleted. The statistics are updated by the
+	 *         caller.
 	 * @throws SQLException
 	 * @throws IOException
 	 */
@@ -149,8 +225,9 @@ public interface SQLCommands {
 			final TripleBloomFilter filter) throws SQLException, IOException;
 
 	/**
-	 * Insert the triple on the page, update the page index, and the statistics.
-	 *
+	 * Insert the triple on the page and update the page index. The statistics
+	 * are updated by the caller.
+	 * 
 	 * @param connection
 	 *            The database connection.
 	 * @param pageId
@@ -162,6 +239,27 @@ public interface SQLCommands {
 	public void tripleInsert(final Connection connection, final int pageId,
 			final PageSearchItem candidate) throws SQLException, IOException;
 
+	/**
+	 * Insert the triples on the page and update the page index. The triples
+	 * should be written in as few statements as possible. The page filters of
+	 * the candidates are merged before the page index is updated. The
+	 * statistics are updated by the caller.
+	 * 
+	 * The index of each serializable triple must be set to the id assigned by
+	 * the database.
+	 *
+	 * @param connection
+	 *            The database connection.
+	 * @param pageId
+	 *            The page ID of the page to write to.
+	 * @param candidates
+	 *            the page search items to write.
+	 * @throws IOException
+	 */
+	public void tripleInsert(final Connection connection, final int pageId,
+			final List<PageSearchItem> candidates) throws SQLException,
+			IOException;
+
 	// PAGE DATA STATISTICS
 
 	public String getPageStatsTableName();
@@ -183,29 +281,24 @@ public interface SQLCommands {
 	 */
 	public String getPageCountQuery();
 
+	public String getStats(final int tableId);
+
 	/**
-	 * Define string to create a page data tables. this is actually a format
-	 * string that has a %s where the page number should be inserted.
-	 *
-	 * @return query creates page tables.
+	 * Query to read the statistics for every page. Must return the page id,
+	 * records, deletes and bytes in that order.
+	 * 
+	 * @return the query string.
 	 */
-	public String statsIncrementRecord(final int tableId);
-
-	public String statsIncrementDelete(final int tableId);
-
-	public String statsIncrementBytes(final int tableId, final int bytes);
-
-	public String getStats(final int tableId);
+	public String getStatsScan();
 
 	/**
-	 * Query should select a page id based on the number of records on the page.
-	 * We greatest (records<PAGE_SIZE) SQL = (PAGE_SIZE - records) in case of
-	 * tie we want min overs (records-deletes) in case of tie we want min page
-	 * id.
-	 *
-	 * @return a query that returns id, overs, and free
+	 * Statement to add changes to the statistics for a page. Parameters are the
+	 * records, deletes and bytes to add followed by the page id. Executed as a
+	 * batch to write the statistics for several pages.
+	 * 
+	 * @return the update statement.
 	 */
-	public String getBestPageQuery();
+	public String statsUpdate();
 
 	public String getRecordCountQuery();
 }
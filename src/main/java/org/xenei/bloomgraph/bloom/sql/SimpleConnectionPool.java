@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A lightweight connection pool over a DataSource.
+ * 
+ * The number of borrowed connections is bounded. When all connections are in
+ * use getConnection() waits up to the maximum wait time and then throws an
+ * SQLException. Idle connections are reused most recently returned first.
+ * 
+ * Unless the statement cache size is 0 each connection caches the statements
+ * it prepares (see CachingConnection). The cache lives as long as the
+ * connection so it is retained while the connection is idle.
+ * 
+ * Connections that are closed or that can not be reset when they are returned
+ * are discarded.
+ */
+public class SimpleConnectionPool implements ConnectionPool {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(SimpleConnectionPool.class);
+
+	/**
+	 * The default maximum number of borrowed connections.
+	 */
+	public static final int DEFAULT_MAX_ACTIVE = 16;
+
+	/**
+	 * The default maximum time in milliseconds to wait for a connection.
+	 */
+	public static final long DEFAULT_MAX_WAIT = 30 * 1000;
+
+	// the source of new connections.
+	private final DataSource dataSource;
+	// the maximum number of borrowed connections.
+	private final int maxActive;
+	// the permits for borrowed connections.
+	private final Semaphore permits;
+	// the idle connections, most recently returned first.
+	private final ConcurrentLinkedDeque<Connection> idle;
+	// the maximum time in milliseconds to wait for a connection.
+	private volatile long maxWait;
+	// the maximum number of idle prepared statements per connection.
+	private volatile int statementCacheSize;
+	// true once the pool is closed.
+	private volatile boolean closed;
+
+	/**
+	 * Constructor using the default limits.
+	 * 
+	 * @param dataSource
+	 *            the source of new connections.
+	 */
+	public SimpleConnectionPool(final DataSource dataSource) {
+		this(dataSource, DEFAULT_MAX_ACTIVE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param dataSource
+	 *            the source of new connections.
+	 * @param maxActive
+	 *            the maximum number of borrowed connections.
+	 */
+	public SimpleConnectionPool(final DataSource dataSource,
+			final int maxActive) {
+		if (maxActive < 1) {
+			throw new IllegalArgumentException(
+					"Maximum active connections must be at least 1");
+		}
+		this.dataSource = dataSource;
+		this.maxActive = maxActive;
+		this.permits = new Semaphore(maxActive, true);
+		this.idle = new ConcurrentLinkedDeque<Connection>();
+		this.maxWait = DEFAULT_MAX_WAIT;
+		this.statementCacheSize = CachingConnection.DEFAULT_CACHE_SIZE;
+		this.closed = false;
+	}
+
+	/**
+	 * Get the maximum time to wait for a connection.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getMaxWait() {
+		return maxWait;
+	}
+
+	/**
+	 * Set the maximum time to wait for a connection.
+	 * 
+	 * @param maxWait
+	 *            the time in milliseconds.
+	 */
+	public void setMaxWait(final long maxWait) {
+		if (maxWait < 0) {
+			throw new IllegalArgumentException(
+					"Maximum wait may not be negative");
+		}
+		this.maxWait = maxWait;
+	}
+
+	/**
+	 * Get the maximum number of idle prepared statements cached per
+	 * connection.
+	 * 
+	 * @return the statement cache size.
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Set the maximum number of idle prepared statements cached per
+	 * connection. Applies to connections created after the call. 0 disables
+	 * the cache.
+	 * 
+	 * @param statementCacheSize
+	 *            the statement cache size.
+	 */
+	public void setStatementCacheSize(final int statementCacheSize) {
+		if (statementCacheSize < 0) {
+			throw new IllegalArgumentException(
+					"Statement cache size may not be negative");
+		}
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		try {
+			if (!permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+				throw new SQLException(String.format(
+						"Timeout waiting for connection: %s in use",
+						maxActive));
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for connection", e);
+		}
+		try {
+			Connection connection = idle.pollFirst();
+			while (connection != null && connection.isClosed()) {
+				connection = idle.pollFirst();
+			}
+			if (connection == null) {
+				connection = dataSource.getConnection();
+				if (statementCacheSize > 0) {
+					connection = CachingConnection.wrap(connection,
+							statementCacheSize);
+				}
+			}
+			return (Connection) Proxy.newProxyInstance(
+					SimpleConnectionPool.class.getClassLoader(),
+					new Class<?>[] {
+						Connection.class
+					}, new PooledConnection(connection));
+		} catch (final SQLException e) {
+			permits.release();
+			throw e;
+		} catch (final RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public int getActiveCount() {
+		return maxActive - permits.availablePermits();
+	}
+
+	@Override
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		Connection connection = idle.pollFirst();
+		while (connection != null) {
+			DbUtils.closeQuietly(connection);
+			connection = idle.pollFirst();
+		}
+	}
+
+	/**
+	 * Return a connection to the pool.
+	 * 
+	 * @param connection
+	 *            the connection to return.
+	 */
+	private void release(final Connection connection) {
+		try {
+			if (closed || connection.isClosed()) {
+				DbUtils.closeQuietly(connection);
+				return;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			idle.offerFirst(connection);
+		} catch (final SQLException e) {
+			LOG.warn("Discarding connection: " + e.getMessage(), e);
+			DbUtils.closeQuietly(connection);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Handler for a borrowed connection. Returns the connection to the pool
+	 * when it is closed.
+	 */
+	private class PooledConnection implements InvocationHandler {
+		// the pooled connection.
+		private final Connection connection;
+		// true once close() has been called.
+		private volatile boolean returned;
+
+		private PooledConnection(final Connection connection) {
+			this.connection = connection;
+			this.returned = false;
+		}
+
+		@Override
+		public Object invoke(final Object proxy, final Method method,
+				final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if ("close".equals(name)) {
+				synchronized (this) {
+					if (!returned) {
+						returned = true;
+						release(connection);
+					}
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return returned || connection.isClosed();
+			}
+			if (returned) {
+				throw new SQLException("Connection is closed");
+			}
+			try {
+				return method.invoke(connection, args);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.SerializableTriple;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+import org.xenei.bloomgraph.bloom.page.SerializableTripleFilter;
+
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ClosableIterator;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Map1;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+/**
+ * An iterator over the serializable triples returned by a query.
+ * 
+ * The query must return the triple data in the first column and the triple id
+ * in the second. The cursor borrows a dedicated connection from the DBIO when
+ * the query is executed and returns it when the cursor is closed or
+ * exhausted.
+ * 
+ * The statement is forward only and read only and is given the cursor fetch
+ * size of the SQL commands so that drivers that support it stream the rows
+ * rather than reading the whole result before the first row is returned. The
+ * rows are read strictly in order and each row is only read once.
+ * 
+ * When the thread is in a transaction the cursor reads on the transaction
+ * connection with the driver default fetch size.
+ * 
+ * If the query or reading a row fails the cursor is closed and an
+ * IllegalStateException is thrown so that a truncated result is not mistaken
+ * for a complete one.
+ */
+abstract class TripleCursor implements ClosableIterator<SerializableTriple> {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(TripleCursor.class);
+
+	// the DBIO to get the connection and node cache from.
+	protected final DBIO io;
+	private Connection connection;
+	private PreparedStatement stmt;
+	private ResultSet rs;
+	private SerializableTriple next;
+	// true once the cursor has been closed.
+	private boolean closed;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param io
+	 *            the DBIO to get the connection and node cache from.
+	 */
+	protected TripleCursor(final DBIO io) {
+		this.io = io;
+		this.connection = null;
+		this.stmt = null;
+		this.rs = null;
+		this.next = null;
+		this.closed = false;
+	}
+
+	/**
+	 * Create the statement for the query.
+	 * 
+	 * @param connection
+	 *            the connection to prepare the statement on.
+	 * @return the statement with the parameters set.
+	 * @throws SQLException
+	 *             on error.
+	 * @throws IOException
+	 *             on error.
+	 */
+	protected abstract PreparedStatement prepare(Connection connection)
+			throws SQLException, IOException;
+
+	/**
+	 * Create an iterator of the triples that match the candidate.
+	 * 
+	 * @param candidate
+	 *            the candidate the triples must match.
+	 * @return the matching triples.
+	 */
+	public ExtendedIterator<Triple> triples(final PageSearchItem candidate) {
+		return WrappedIterator.create(this)
+				.filterKeep(new SerializableTripleFilter(candidate))
+				.mapWith(new Map1<SerializableTriple, Triple>() {
+
+					@Override
+					public Triple map1(final SerializableTriple o) {
+						try {
+							return o.getTriple();
+						} catch (final IOException e) {
+							throw new IllegalArgumentException(e.getMessage(),
+									e);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Make sure we close the DB resources.
+	 */
+	@Override
+	public void finalize() {
+		close();
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		DbUtils.closeQuietly(rs);
+		DbUtils.closeQuietly(stmt);
+		if (connection != null) {
+			io.closeCursor(this, connection);
+			connection = null;
+		}
+	}
+
+	/**
+	 * Read a serializable triple from the database.
+	 * 
+	 * @param rs
+	 *            The result set to read the serializable triple from.
+	 * @return the SerializableTriple.
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	private SerializableTriple readResult(final ResultSet rs)
+			throws IOException, SQLException {
+		final SerializableTriple retval = new SerializableTriple(
+				DBIO.toByteBuffer(rs.getBytes(1)), io.getNodeCache());
+		retval.setIndex(rs.getInt(2));
+		return retval;
+	}
+
+	@Override
+	public final boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				if (rs == null) {
+					// a transaction connection is shared with other
+					// statements so it may not stream.
+					final boolean shared = io.inTransaction();
+					connection = io.openCursor(this);
+					stmt = prepare(connection);
+					final int fetchSize = io.getSqlCommands()
+							.getCursorFetchSize();
+					if (fetchSize != 0 && !shared) {
+						stmt.setFetchSize(fetchSize);
+					}
+					rs = stmt.executeQuery();
+				}
+				if (rs.next()) {
+					next = readResult(rs);
+				}
+				else {
+					close();
+				}
+			} catch (final SQLException e) {
+				// a partial result must not look complete.
+				LOG.error(e.getMessage(), e);
+				close();
+				throw new IllegalStateException(e.getMessage(), e);
+			} catch (final IOException e) {
+				LOG.error(e.getMessage(), e);
+				close();
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public final SerializableTriple next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		try {
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+}
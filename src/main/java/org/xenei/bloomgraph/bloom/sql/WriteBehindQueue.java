@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Triple;
+
+/**
+ * A write-behind queue for the DBIO.
+ * 
+ * Producers add prepared page search items to a bounded queue and return
+ * immediately. A pool of writer threads drains the queue and writes the items
+ * in batches through the DBIO. When the queue is full the producers block
+ * until the writers have made space.
+ * 
+ * The triples that have been queued but not written are tracked so that a
+ * search for a triple can be answered without waiting for the writers. Other
+ * operations call flush() to wait until every queued item has been written.
+ * 
+ * A write error is reported by the next call to add() or flush().
+ */
+class WriteBehindQueue {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(WriteBehindQueue.class);
+
+	// time in milliseconds a writer waits for an item before checking for
+	// close.
+	private static final long POLL_TIME = 100;
+
+	// the DBIO to write with.
+	private final DBIO io;
+	// the queued items.
+	private final BlockingQueue<PageSearchItem> queue;
+	// the queued and in progress items by triple.
+	private final ConcurrentMap<Triple, PageSearchItem> pending;
+	// the writer threads.
+	private final ExecutorService writers;
+	// the number of items added.
+	private long submitted;
+	// the number of items written or failed.
+	private long completed;
+	// the first write error since the last add() or flush().
+	private IOException error;
+	// true once close() has been called.
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Starts the writer threads.
+	 * 
+	 * @param io
+	 *            the DBIO to write with.
+	 * @param capacity
+	 *            the maximum number of queued items.
+	 * @param writerCount
+	 *            the number of writer threads.
+	 */
+	WriteBehindQueue(final DBIO io, final int capacity, final int writerCount) {
+		this.io = io;
+		this.queue = new ArrayBlockingQueue<PageSearchItem>(capacity);
+		this.pending = new ConcurrentHashMap<Triple, PageSearchItem>();
+		this.submitted = 0;
+		this.completed = 0;
+		this.error = null;
+		this.closed = false;
+		this.writers = Executors.newFixedThreadPool(writerCount,
+				new WriterThreadFactory());
+		for (int i = 0; i < writerCount; i++) {
+			writers.execute(new Writer());
+		}
+	}
+
+	/**
+	 * Add an item to the queue. Blocks while the queue is full.
+	 * 
+	 * @param candidate
+	 *            the item to write.
+	 * @throws IOException
+	 *             if the queue is closed, the thread is interrupted or a
+	 *             previous write failed.
+	 */
+	void add(final PageSearchItem candidate) throws IOException {
+		checkError();
+		if (closed) {
+			throw new IOException("Write behind queue is closed");
+		}
+		// prepare the item on the producer thread.
+		candidate.getSerializable();
+		candidate.getTripleFilter();
+		candidate.getPageFilter();
+		synchronized (this) {
+			submitted++;
+		}
+		pending.put(candidate.getTriple(), candidate);
+		try {
+			queue.put(candidate);
+		} catch (final InterruptedException e) {
+			pending.remove(candidate.getTriple(), candidate);
+			completed(1);
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while queueing write", e);
+		}
+	}
+
+	/**
+	 * Returns true if the triple has been queued but not yet written.
+	 * 
+	 * @param triple
+	 *            the triple to check.
+	 * @return true if the triple is pending.
+	 */
+	boolean isPending(final Triple triple) {
+		return pending.containsKey(triple);
+	}
+
+	/**
+	 * Get the number of items that have been added but not yet written.
+	 * 
+	 * @return the number of pending items.
+	 */
+	synchronized long getPendingCount() {
+		return submitted - completed;
+	}
+
+	/**
+	 * Wait until all the items added before the call have been written.
+	 * 
+	 * @throws IOException
+	 *             if the thread is interrupted or a write failed.
+	 */
+	void flush() throws IOException {
+		synchronized (this) {
+			final long target = submitted;
+			while (completed < target) {
+				try {
+					wait();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while flushing writes",
+							e);
+				}
+			}
+		}
+		checkError();
+	}
+
+	/**
+	 * Write the queued items and stop the writer threads.
+	 * 
+	 * @throws IOException
+	 *             if a write failed.
+	 */
+	void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			closed = true;
+			writers.shutdown();
+			try {
+				writers.awaitTermination(POLL_TIME * 10, TimeUnit.MILLISECONDS);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Throw and clear the pending write error if there is one.
+	 * 
+	 * @throws IOException
+	 *             the pending write error.
+	 */
+	private synchronized void checkError() throws IOException {
+		if (error != null) {
+			final IOException e = error;
+			error = null;
+			throw new IOException("Write behind failed: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Record the completion of items and wake the flushing threads.
+	 * 
+	 * @param count
+	 *            the number of items completed.
+	 */
+	private synchronized void completed(final int count) {
+		completed += count;
+		notifyAll();
+	}
+
+	/**
+	 * Record a write error. Only the first error is kept.
+	 * 
+	 * @param e
+	 *            the error.
+	 */
+	private synchronized void failed(final IOException e) {
+		if (error == null) {
+			error = e;
+		}
+	}
+
+	/**
+	 * A writer that drains the queue in batches.
+	 */
+	private class Writer implements Runnable {
+		@Override
+		public void run() {
+			final List<PageSearchItem> batch = new ArrayList<PageSearchItem>();
+			while (!closed || !queue.isEmpty()) {
+				try {
+					final PageSearchItem first = queue.poll(POLL_TIME,
+							TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+					queue.drainTo(batch, io.getBatchSize() - 1);
+				} catch (final InterruptedException e) {
+					return;
+				}
+				try {
+					io.write(batch);
+				} catch (final IOException e) {
+					LOG.error("Unable to write batch of " + batch.size()
+							+ " triples", e);
+					failed(e);
+				} catch (final RuntimeException e) {
+					LOG.error("Unable to write batch of " + batch.size()
+							+ " triples", e);
+					failed(new IOException(e.getMessage(), e));
+				} finally {
+					for (final PageSearchItem item : batch) {
+						pending.remove(item.getTriple(), item);
+					}
+					completed(batch.size());
+					batch.clear();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the named daemon writer threads.
+	 */
+	private static class WriterThreadFactory implements ThreadFactory {
+		// the number of threads created.
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread t = new Thread(r, "DBIO-writer-"
+					+ count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+
+public class NodeCacheTest {
+
+	private SerializableNode read(final Node n, final NodeCache cache)
+			throws IOException {
+		final byte[] b = new SerializableNode(n).getByteBuffer().array();
+		return new SerializableNode(ByteBuffer.wrap(b), cache);
+	}
+
+	@Test
+	public void testHitAndMiss() throws IOException {
+		final NodeCache cache = new NodeCache();
+		final Node n = NodeFactory.createURI("http://example.com/s");
+		final Node first = read(n, cache).getNode();
+		assertEquals(n, first);
+		assertEquals(0, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+
+		final Node second = read(n, cache).getNode();
+		assertSame(first, second);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+		assertEquals(1, cache.size());
+		assertEquals(0.5, cache.getHitRate(), 0.0001);
+	}
+
+	@Test
+	public void testBounded() throws IOException {
+		final NodeCache cache = new NodeCache(16 * 1024);
+		for (int i = 0; i < 1000; i++) {
+			final Node n = NodeFactory.createURI("http://example.com/" + i);
+			assertEquals(n, read(n, cache).getNode());
+		}
+		assertTrue(cache.getWeight() <= 16 * 1024);
+		assertTrue(cache.getEvictionCount() > 0);
+		assertEquals(1000, cache.getMissCount());
+
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getWeight());
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.hp.hpl.jena.datatypes.xsd.XSDDatatype;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class SerializableNodeTest {
+
+	private String longText() {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			sb.append("A long description literal that repeats ");
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testCompressedLiteral() throws IOException {
+		final Node n = NodeFactory.createLiteral(longText(), "en", null);
+		final SerializableNode plain = new SerializableNode(n);
+		final SerializableNode compressed = new SerializableNode(n, 100);
+
+		assertEquals(NodeTypes._LIT | NodeTypes._ASCII, plain.getType());
+		assertEquals(NodeTypes._LIT | NodeTypes._COMPRESSED
+				| NodeTypes._ASCII, compressed.getType());
+		assertTrue(compressed.getSize() < plain.getSize());
+		assertEquals(n.hashCode(), compressed.hashCode());
+
+		final SerializableNode read = new SerializableNode(compressed
+				.getByteBuffer().array());
+		assertEquals(n, read.getNode());
+	}
+
+	@Test
+	public void testIncompressibleLiteral() throws IOException {
+		final Node n = NodeFactory.createLiteral("abc");
+		final SerializableNode sn = new SerializableNode(n, 1);
+		assertEquals(NodeTypes._LIT | NodeTypes._ASCII, sn.getType());
+		assertEquals(n,
+				new SerializableNode(sn.getByteBuffer().array()).getNode());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		final Node[] nodes = {
+				Node.ANY, NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createAnon(),
+				NodeFactory.createVariable("x"),
+				NodeFactory.createLiteral("plain"),
+				NodeFactory.createLiteral("lang", "fr", null)
+		};
+		for (final Node n : nodes) {
+			final SerializableNode sn = new SerializableNode(n);
+			assertEquals(n,
+					new SerializableNode(sn.getByteBuffer().array()).getNode());
+		}
+	}
+
+	@Test
+	public void testUTF8Encoding() throws IOException {
+		final String uri = "http://example.com/\u00e9t\u00e9/\u4e2d/\ud83d\ude00";
+		final Node n = NodeFactory.createURI(uri);
+		final SerializableNode sn = new SerializableNode(n);
+		final byte[] expected = uri.getBytes(StandardCharsets.UTF_8);
+		assertEquals(expected.length, sn.getSize());
+		final byte[] actual = new byte[sn.getSize()];
+		((ByteBuffer) sn.getByteBuffer().duplicate().position(5))
+				.get(actual);
+		assertArrayEquals(expected, actual);
+		assertEquals(n,
+				new SerializableNode(sn.getByteBuffer().array()).getNode());
+	}
+
+	@Test
+	public void testAsciiFlag() throws IOException {
+		final SerializableNode ascii = new SerializableNode(
+				NodeFactory.createURI("http://example.com/ascii"));
+		assertEquals(NodeTypes._URI | NodeTypes._ASCII, ascii.getType());
+		final Node n = NodeFactory.createLiteral("caf\u00e9", "fr", null);
+		final SerializableNode utf8 = new SerializableNode(n);
+		assertEquals(NodeTypes._LIT, utf8.getType());
+		assertEquals(n,
+				new SerializableNode(utf8.getByteBuffer().array()).getNode());
+		assertEquals(SerializableNode.ANY.getType(), NodeTypes._ANY);
+	}
+
+	@Test
+	public void testTripleEncoding() throws IOException {
+		final Node s = NodeFactory.createURI("http://example.com/s");
+		final Node p = NodeFactory.createURI("http://example.com/p");
+		final Node o = NodeFactory.createLiteral("\u00e9l\u00e8ve", "fr", null);
+		final Triple t = new Triple(s, p, o);
+		final SerializableTriple fromTriple = new SerializableTriple(t);
+		final SerializableTriple fromNodes = new SerializableTriple(
+				new SerializableNode(s), new SerializableNode(p),
+				new SerializableNode(o));
+		assertEquals(fromNodes, fromTriple);
+		assertEquals(fromNodes.hashCode(), fromTriple.hashCode());
+		assertEquals(new SerializableNode(o), fromTriple.getObject());
+
+		final SerializableTriple read = new SerializableTriple(
+				fromTriple.getByteBuffer());
+		assertEquals(t, read.getTriple());
+	}
+
+	@Test
+	public void testNativeLiterals() throws IOException {
+		final Object[][] values = {
+				{ XSDDatatype.XSDinteger, "12345", NodeTypes._LIT_INTEGER },
+				{ XSDDatatype.XSDinteger, "-7", NodeTypes._LIT_INTEGER },
+				{ XSDDatatype.XSDinteger, "+7", NodeTypes._LIT },
+				{ XSDDatatype.XSDinteger, "007", NodeTypes._LIT },
+				{ XSDDatatype.XSDinteger, "123456789012345678901234567890",
+						NodeTypes._LIT },
+				{ XSDDatatype.XSDlong, "-9223372036854775808",
+						NodeTypes._LIT_LONG },
+				{ XSDDatatype.XSDdecimal, "37.50", NodeTypes._LIT_DECIMAL },
+				{ XSDDatatype.XSDdecimal, "-0.001", NodeTypes._LIT_DECIMAL },
+				{ XSDDatatype.XSDdecimal, ".5", NodeTypes._LIT },
+				{ XSDDatatype.XSDdouble, "-122.4194", NodeTypes._LIT_DOUBLE },
+				{ XSDDatatype.XSDdouble, "1e7", NodeTypes._LIT },
+				{ XSDDatatype.XSDdateTime, "2014-03-01T10:15:30",
+						NodeTypes._LIT_DATETIME },
+				{ XSDDatatype.XSDdateTime, "2014-03-01T10:15:30.120Z",
+						NodeTypes._LIT_DATETIME },
+				{ XSDDatatype.XSDdateTime, "1969-12-31T23:59:59-05:30",
+						NodeTypes._LIT_DATETIME },
+				{ XSDDatatype.XSDdateTime, "2014-03-01T10:15",
+						NodeTypes._LIT },
+				{ XSDDatatype.XSDboolean, "true", NodeTypes._LIT_BOOLEAN },
+				{ XSDDatatype.XSDboolean, "1", NodeTypes._LIT },
+		};
+		for (final Object[] value : values) {
+			final Node n = NodeFactory.createLiteral((String) value[1], null,
+					(XSDDatatype) value[0]);
+			final SerializableNode sn = new SerializableNode(n);
+			assertEquals((String) value[1], value[2],
+					(byte) (sn.getType() & ~NodeTypes._ASCII));
+			assertTrue(sn.isLiteral());
+			final Node read = new SerializableNode(sn.getByteBuffer().array())
+					.getNode();
+			assertEquals(n, read);
+			assertEquals(n.getLiteralLexicalForm(),
+					read.getLiteralLexicalForm());
+		}
+	}
+}
@@ -21,6 +21,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.log4j.Level;
@@ -163,4 +164,30 @@ public class BloomGraphTest {
 		assertTrue(ts.contains(t3));
 		assertTrue(ts.contains(t1));
 	}
+
+	@Test
+	public void testAddAll() {
+		final Node p = NodeFactory.createURI("http://example.text/p");
+		final List<Triple> triples = new ArrayList<Triple>();
+		for (int i = 0; i < 25; i++) {
+			triples.add(new Triple(NodeFactory
+					.createURI("http://example.text/s" + i), p, NodeFactory
+					.createLiteral("o" + i)));
+		}
+		graph.add(triples.get(0));
+		// includes a duplicate within the batch and one already stored.
+		triples.add(triples.get(1));
+		graph.addAll(triples.iterator());
+
+		List<Triple> ts = graph.find(Node.ANY, p, Node.ANY).toList();
+		assertEquals(25, ts.size());
+		for (int i = 0; i < 25; i++) {
+			assertTrue(ts.contains(triples.get(i)));
+		}
+
+		// a batch that is all stored adds nothing.
+		graph.addAll(triples.iterator());
+		ts = graph.find(Node.ANY, p, Node.ANY).toList();
+		assertEquals(25, ts.size());
+	}
 }
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.xenei.bloomgraph.bloom.sql.DBIO;
+import org.xenei.bloomgraph.bloom.sql.H2Commands;
+
+public class H2BigLoadTest extends BloomBigLoadTest {
+
+	public static final String DIR = "/tmp/h2bloom";
+
+	@Override
+	protected BloomIO getBloomIO() throws SQLException, IOException {
+		LoggingConfig.setLogger("org.xenei.bloomgraph.bloom", Level.INFO);
+		final File dir = new File(DIR);
+		if (dir.exists()) {
+			FileUtils.deleteDirectory(dir);
+		}
+		return new DBIO(H2BloomGraphTest.getH2DataSource("jdbc:h2:file:"
+				+ DIR + "/bloom"), new H2Commands());
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final H2BigLoadTest test = new H2BigLoadTest();
+		test.setup();
+		test.loadData();
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.xenei.bloomgraph.bloom.sql.DBIO;
+import org.xenei.bloomgraph.bloom.sql.H2Commands;
+import org.xenei.bloomgraph.bloom.sql.SQLCommands;
+
+public class H2BloomGraphTest extends BloomGraphTest {
+
+	// each test gets a new in memory database.
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	@Override
+	protected BloomIO getBloomIO() throws SQLException {
+		return new DBIO(getH2DataSource("jdbc:h2:mem:bloomTest"
+				+ COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1"),
+				getSQLCommands());
+	}
+
+	protected SQLCommands getSQLCommands() {
+		return new H2Commands();
+	}
+
+	public static DataSource getH2DataSource(final String url) {
+		final JdbcDataSource h2DS = new JdbcDataSource();
+		h2DS.setURL(url);
+		h2DS.setUser("sa");
+		h2DS.setPassword("");
+		return h2DS;
+	}
+}
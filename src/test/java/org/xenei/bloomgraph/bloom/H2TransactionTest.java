@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.mem.MemIO;
+import org.xenei.bloomgraph.bloom.sql.DBIO;
+import org.xenei.bloomgraph.bloom.sql.H2Commands;
+
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.shared.Command;
+
+public class H2TransactionTest {
+
+	// each test gets a new in memory database.
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private DBIO io;
+	private BloomGraph graph;
+
+	@Before
+	public void setup() throws Exception {
+		io = new DBIO(H2BloomGraphTest.getH2DataSource("jdbc:h2:mem:txTest"
+				+ COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1"),
+				new H2Commands());
+		graph = new BloomGraph(io);
+	}
+
+	@After
+	public void teardown() {
+		graph.close();
+	}
+
+	private Triple triple(final int i) {
+		return new Triple(NodeFactory.createURI("http://example.text/s" + i),
+				NodeFactory.createURI("http://example.text/p"),
+				NodeFactory.createURI("http://example.text/o" + i));
+	}
+
+	/**
+	 * Returns true if another thread can see the triple.
+	 */
+	private boolean visibleToOtherThread(final Triple t) throws Exception {
+		final AtomicBoolean found = new AtomicBoolean();
+		final Thread thread = new Thread() {
+			@Override
+			public void run() {
+				found.set(graph.contains(t));
+			}
+		};
+		thread.start();
+		thread.join();
+		return found.get();
+	}
+
+	@Test
+	public void testCommit() throws Exception {
+		assertTrue(graph.getTransactionHandler().transactionsSupported());
+		graph.add(triple(0));
+		graph.getTransactionHandler().begin();
+		assertTrue(io.inTransaction());
+		graph.add(triple(1));
+		assertTrue(graph.contains(triple(1)));
+		assertFalse(visibleToOtherThread(triple(1)));
+		graph.getTransactionHandler().commit();
+		assertFalse(io.inTransaction());
+		assertTrue(visibleToOtherThread(triple(1)));
+		assertEquals(2, graph.size());
+	}
+
+	@Test
+	public void testAbort() throws Exception {
+		graph.add(triple(0));
+		graph.getTransactionHandler().begin();
+		graph.add(triple(1));
+		graph.delete(triple(0));
+		assertTrue(graph.contains(triple(1)));
+		assertFalse(graph.contains(triple(0)));
+		graph.getTransactionHandler().abort();
+		assertFalse(io.inTransaction());
+		assertFalse(graph.contains(triple(1)));
+		assertTrue(graph.contains(triple(0)));
+		assertEquals(1, graph.size());
+	}
+
+	@Test
+	public void testExecuteInTransaction() throws Exception {
+		try {
+			graph.getTransactionHandler().executeInTransaction(new Command() {
+				@Override
+				public Object execute() {
+					graph.add(triple(1));
+					throw new IllegalArgumentException("abort");
+				}
+			});
+			fail("Should have thrown an exception");
+		} catch (final RuntimeException expected) {
+			// expected
+		}
+		assertFalse(io.inTransaction());
+		assertFalse(graph.contains(triple(1)));
+		assertEquals(0, graph.size());
+	}
+
+	@Test
+	public void testBeginTwice() throws Exception {
+		graph.getTransactionHandler().begin();
+		try {
+			graph.getTransactionHandler().begin();
+			fail("Should have thrown IllegalStateException");
+		} catch (final IllegalStateException expected) {
+			// expected
+		} finally {
+			graph.getTransactionHandler().abort();
+		}
+	}
+
+	@Test
+	public void testMemIONotSupported() throws Exception {
+		assertFalse(new BloomGraph(new MemIO()).getTransactionHandler()
+				.transactionsSupported());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.mem.MemIO;
+import org.xenei.bloomgraph.bloom.sql.DBIO;
+import org.xenei.bloomgraph.bloom.sql.H2Commands;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.graph.TripleMatch;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+public class MultiFindTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final Node p = NodeFactory.createURI("http://example.com/p");
+	private final Node q = NodeFactory.createURI("http://example.com/q");
+
+	@Test
+	public void testH2() throws Exception {
+		doTest(new BloomGraph(new DBIO(H2BloomGraphTest.getH2DataSource(
+				"jdbc:h2:mem:multiFind" + COUNTER.incrementAndGet()),
+				new H2Commands())));
+	}
+
+	@Test
+	public void testMem() throws Exception {
+		doTest(new BloomGraph(new MemIO()));
+	}
+
+	private Node s(final int i) {
+		return NodeFactory.createURI("http://example.com/s" + i);
+	}
+
+	private void doTest(final BloomGraph graph) throws Exception {
+		try {
+			for (int i = 0; i < 10; i++) {
+				graph.add(new Triple(s(i), p, NodeFactory.createLiteral("o" + i)));
+				graph.add(new Triple(s(i), q, s(i + 1)));
+			}
+			final List<TripleMatch> patterns = new ArrayList<TripleMatch>();
+			patterns.add(new Triple(s(3), Node.ANY, Node.ANY));
+			patterns.add(new Triple(Node.ANY, q, Node.ANY));
+			patterns.add(new Triple(s(20), Node.ANY, Node.ANY));
+			patterns.add(new Triple(s(4), p, NodeFactory.createLiteral("o4")));
+
+			final List<ExtendedIterator<Triple>> results = graph.find(patterns);
+			assertEquals(4, results.size());
+			assertEquals(2, count(results.get(0), patterns.get(0)));
+			assertEquals(10, count(results.get(1), patterns.get(1)));
+			assertFalse(results.get(2).hasNext());
+			assertEquals(1, count(results.get(3), patterns.get(3)));
+
+			final List<Node> probes = new ArrayList<Node>();
+			probes.add(s(2));
+			probes.add(s(5));
+			probes.add(s(20));
+			assertEquals(2, count(graph.find(new Triple(Node.ANY, q, Node.ANY),
+					TriplePosition.SUBJECT, probes), new Triple(Node.ANY, q,
+					Node.ANY)));
+			probes.add(s(10));
+			assertEquals(3, count(graph.find(new Triple(Node.ANY, q, Node.ANY),
+					TriplePosition.OBJECT, probes), new Triple(Node.ANY, q,
+					Node.ANY)));
+			assertFalse(graph.find(new Triple(Node.ANY, p, Node.ANY),
+					TriplePosition.OBJECT, probes).hasNext());
+		} finally {
+			graph.close();
+		}
+	}
+
+	private int count(final ExtendedIterator<Triple> iter,
+			final TripleMatch pattern) {
+		int retval = 0;
+		while (iter.hasNext()) {
+			assertTrue(pattern.asTriple().matches(iter.next()));
+			retval++;
+		}
+		return retval;
+	}
+}
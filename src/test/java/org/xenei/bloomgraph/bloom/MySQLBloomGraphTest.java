@@ -32,7 +32,7 @@ import org.xenei.bloomgraph.bloom.sql.DBIO;
 import org.xenei.bloomgraph.bloom.sql.MySQLCommands;
 import org.xenei.bloomgraph.bloom.sql.SQLCommands;
 
-import com.mysql.jdbc.jdbc2.optional.MysqlDataSource;
+import com.mysql.cj.jdbc.MysqlDataSource;
 
 public class MySQLBloomGraphTest extends BloomGraphTest {
 
@@ -85,7 +85,7 @@ public class MySQLBloomGraphTest extends BloomGraphTest {
 	}
 
 	public static DataSource getMySQLDataSource(final String url,
-			final String user, final String pwd) {
+			final String user, final String pwd) throws SQLException {
 		final Properties props = new Properties();
 		final FileInputStream fis = null;
 		MysqlDataSource mysqlDS = null;
@@ -100,6 +100,7 @@ public class MySQLBloomGraphTest extends BloomGraphTest {
 		mysqlDS.setURL(url);
 		mysqlDS.setUser(user);
 		mysqlDS.setPassword(pwd);
+		mysqlDS.setUseServerPrepStmts(true);
 		// } catch (IOException e) {
 		// e.printStackTrace();
 		// }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.mem.MemIO;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+import com.hp.hpl.jena.util.iterator.Filter;
+import com.hp.hpl.jena.util.iterator.Map1;
+import com.hp.hpl.jena.util.iterator.NiceIterator;
+import com.hp.hpl.jena.util.iterator.WrappedIterator;
+
+public class PatternFanOutTest {
+	private final Node p = NodeFactory.createURI("http://example.com/p");
+	private final Node q = NodeFactory.createURI("http://example.com/q");
+
+	private MemIO io;
+	private List<Triple> triples;
+	private List<PageSearchItem> candidates;
+	private List<Filter<Triple>> filters;
+	// the number of rows read from the scan.
+	private int read;
+
+	@Before
+	public void setup() throws Exception {
+		io = new MemIO();
+		triples = new ArrayList<Triple>();
+		for (int i = 0; i < 20; i++) {
+			triples.add(new Triple(s(i), p, s(i + 1)));
+			triples.add(new Triple(s(i), q, s(i + 1)));
+		}
+		final BloomGraph graph = new BloomGraph(io);
+		for (final Triple t : triples) {
+			graph.add(t);
+		}
+		candidates = new ArrayList<PageSearchItem>();
+		candidates.add(new PageSearchItem(new Triple(Node.ANY, p, Node.ANY)));
+		candidates.add(new PageSearchItem(new Triple(Node.ANY, q, Node.ANY)));
+		filters = new ArrayList<Filter<Triple>>();
+		for (final PageSearchItem candidate : candidates) {
+			filters.add(new Filter<Triple>() {
+				@Override
+				public boolean accept(final Triple o) {
+					return candidate.getTriple().matches(o);
+				}
+			});
+		}
+		read = 0;
+	}
+
+	private Node s(final int i) {
+		return NodeFactory.createURI("http://example.com/s" + i);
+	}
+
+	private List<ExtendedIterator<Triple>> fanOut(final int maxBuffered) {
+		final List<Iterator<Triple>> batches = new ArrayList<Iterator<Triple>>();
+		batches.add(new NiceIterator<Triple>() {
+			private final Iterator<Triple> iter = triples.iterator();
+
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			@Override
+			public Triple next() {
+				read++;
+				return iter.next();
+			}
+		});
+		return new PatternFanOut<Triple>(io, candidates, filters,
+				batches.iterator(), new Map1<Triple, Triple>() {
+					@Override
+					public Triple map1(final Triple o) {
+						return o;
+					}
+				}, maxBuffered).iterators();
+	}
+
+	@Test
+	public void testReadInStep() {
+		final List<ExtendedIterator<Triple>> results = fanOut(1);
+		for (int i = 0; i < 20; i++) {
+			assertTrue(results.get(0).hasNext());
+			assertEquals(new Triple(s(i), p, s(i + 1)), results.get(0).next());
+			assertTrue(results.get(1).hasNext());
+			assertEquals(new Triple(s(i), q, s(i + 1)), results.get(1).next());
+		}
+		assertFalse(results.get(0).hasNext());
+		assertFalse(results.get(1).hasNext());
+		assertEquals(40, read);
+	}
+
+	@Test
+	public void testReadIsLazy() {
+		final List<ExtendedIterator<Triple>> results = fanOut(100);
+		assertEquals(0, read);
+		results.get(1).next();
+		assertEquals(2, read);
+	}
+
+	@Test
+	public void testDetach() {
+		final List<ExtendedIterator<Triple>> results = fanOut(5);
+		assertEquals(20, WrappedIterator.create(results.get(0)).toList()
+				.size());
+		assertEquals(20, WrappedIterator.create(results.get(1)).toList()
+				.size());
+		// the detached candidate does not read the scan again.
+		assertEquals(40, read);
+	}
+
+	@Test
+	public void testClose() {
+		final List<ExtendedIterator<Triple>> results = fanOut(100);
+		results.get(1).close();
+		assertFalse(results.get(1).hasNext());
+		assertEquals(20, WrappedIterator.create(results.get(0)).toList()
+				.size());
+		results.get(0).close();
+		assertFalse(results.get(0).hasNext());
+	}
+}
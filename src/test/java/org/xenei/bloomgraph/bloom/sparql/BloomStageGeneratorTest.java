@@ -0,0 +1,222 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sparql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.BloomGraph;
+import org.xenei.bloomgraph.bloom.GraphStatistics;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.mem.MemIO;
+import org.xenei.bloomgraph.bloom.sql.DBIO;
+import org.xenei.bloomgraph.bloom.sql.H2Commands;
+
+import com.hp.hpl.jena.graph.Graph;
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.query.ARQ;
+import com.hp.hpl.jena.query.QueryExecution;
+import com.hp.hpl.jena.query.QueryExecutionFactory;
+import com.hp.hpl.jena.query.QuerySolution;
+import com.hp.hpl.jena.query.ResultSet;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.sparql.core.BasicPattern;
+import com.hp.hpl.jena.sparql.core.Var;
+import com.hp.hpl.jena.sparql.engine.ExecutionContext;
+import com.hp.hpl.jena.sparql.engine.QueryIterator;
+import com.hp.hpl.jena.sparql.engine.binding.Binding;
+import com.hp.hpl.jena.sparql.engine.binding.BindingFactory;
+import com.hp.hpl.jena.sparql.engine.iterator.QueryIterPlainWrapper;
+import com.hp.hpl.jena.sparql.engine.main.StageBuilder;
+import com.hp.hpl.jena.sparql.engine.main.StageGenerator;
+import com.hp.hpl.jena.sparql.graph.GraphFactory;
+
+public class BloomStageGeneratorTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private static final String NS = "http://example.com/";
+
+	private static final String QUERY = "PREFIX ex: <" + NS + ">\n"
+			+ "SELECT ?s ?name ?pop ?c WHERE { ?s ex:name ?name . "
+			+ "?s ex:population ?pop . ?s ex:country ?c . ?c ex:name \"c1\" }";
+
+	@Test
+	public void testMem() throws Exception {
+		doTest(new BloomGraph(new MemIO()));
+	}
+
+	@Test
+	public void testH2() throws Exception {
+		doTest(new BloomGraph(new DBIO(H2BloomGraphTest.getH2DataSource(
+				"jdbc:h2:mem:stageGen" + COUNTER.incrementAndGet()),
+				new H2Commands())));
+	}
+
+	@Test
+	public void testOrder() {
+		final Node s = Var.alloc("s");
+		final Node o = Var.alloc("o");
+		final Node x = Var.alloc("x");
+		final Triple big = new Triple(s, uri("name"), o);
+		final Triple small = new Triple(s, uri("country"),
+				NodeFactory.createLiteral("c1"));
+		final Triple unjoined = new Triple(x, uri("tiny"), Node.ANY);
+		final Triple joined = new Triple(o, uri("label"), x);
+		final List<Triple> triples = new ArrayList<Triple>();
+		triples.add(big);
+		triples.add(joined);
+		triples.add(unjoined);
+		triples.add(small);
+		final List<Triple> order = BloomStageGenerator.order(triples,
+				new GraphStatistics() {
+					@Override
+					public long estimate(final Node S, final Node P,
+							final Node O) {
+						if (P.equals(uri("name"))) {
+							return 100;
+						}
+						if (P.equals(uri("tiny"))) {
+							return 5;
+						}
+						return O.equals(Node.ANY) ? 50 : 1;
+					}
+
+					@Override
+					public long getStatistic(final Node S, final Node P,
+							final Node O) {
+						throw new UnsupportedOperationException();
+					}
+
+					@Override
+					public long size() {
+						return 0;
+					}
+
+					@Override
+					public int pages() {
+						return 0;
+					}
+				});
+		assertEquals(small, order.get(0));
+		assertEquals(big, order.get(1));
+		assertEquals(joined, order.get(2));
+		assertEquals(unjoined, order.get(3));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final BloomGraph graph = new BloomGraph(new MemIO());
+		try {
+			load(graph);
+			final Node s = Var.alloc("s");
+			final List<Binding> input = new ArrayList<Binding>();
+			for (int i = 0; i < 20; i++) {
+				input.add(BindingFactory.binding(Var.alloc(s),
+						uri("place" + i)));
+			}
+			final ExecutionContext execCxt = new ExecutionContext(
+					ARQ.getContext(), graph, null, null);
+			final BloomPatternIterator iter = new BloomPatternIterator(
+					new QueryIterPlainWrapper(input.iterator(), execCxt),
+					new Triple(s, Var.alloc("p"), Var.alloc("o")), graph, 10,
+					execCxt);
+			assertTrue(iter.hasNext());
+			iter.next();
+			// as if cancel() arrived from another thread while the matches are
+			// read.
+			iter.requestSubCancel();
+			assertFalse(iter.hasNext());
+			iter.close();
+		} finally {
+			graph.close();
+		}
+	}
+
+	private Node uri(final String name) {
+		return NodeFactory.createURI(NS + name);
+	}
+
+	private void load(final Graph graph) {
+		for (int i = 0; i < 20; i++) {
+			final Node s = uri("place" + i);
+			final Node c = uri("country" + (i % 3));
+			graph.add(new Triple(s, uri("name"), NodeFactory
+					.createLiteral("place " + i)));
+			graph.add(new Triple(s, uri("population"), NodeFactory
+					.createLiteral(Integer.toString(i * 1000))));
+			graph.add(new Triple(s, uri("country"), c));
+			graph.add(new Triple(c, uri("name"), NodeFactory
+					.createLiteral("c" + (i % 3))));
+		}
+	}
+
+	private Set<String> query(final Graph graph, final StageGenerator generator) {
+		final QueryExecution qexec = QueryExecutionFactory.create(QUERY,
+				ModelFactory.createModelForGraph(graph));
+		try {
+			if (generator != null) {
+				StageBuilder.setGenerator(qexec.getContext(), generator);
+			}
+			final Set<String> retval = new HashSet<String>();
+			final ResultSet rs = qexec.execSelect();
+			while (rs.hasNext()) {
+				final QuerySolution soln = rs.next();
+				retval.add(String.format("%s %s %s %s", soln.get("s"),
+						soln.get("name"), soln.get("pop"), soln.get("c")));
+			}
+			return retval;
+		} finally {
+			qexec.close();
+		}
+	}
+
+	private void doTest(final BloomGraph graph) throws Exception {
+		try {
+			load(graph);
+			final Graph expected = GraphFactory.createDefaultGraph();
+			load(expected);
+			final AtomicInteger calls = new AtomicInteger();
+			final StageGenerator generator = new BloomStageGenerator(
+					StageBuilder.standardGenerator(), 2) {
+				@Override
+				public QueryIterator execute(final BasicPattern pattern,
+						final QueryIterator input,
+						final ExecutionContext execCxt) {
+					calls.incrementAndGet();
+					return super.execute(pattern, input, execCxt);
+				}
+			};
+			final Set<String> result = query(graph, generator);
+			assertTrue(calls.get() > 0);
+			assertEquals(7, result.size());
+			assertEquals(query(expected, null), result);
+		} finally {
+			graph.close();
+		}
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class BitSliceSearchTest {
+
+	private final Node s = NodeFactory.createURI("http://example.com/s");
+	private final Node p = NodeFactory.createURI("http://example.com/p");
+
+	/**
+	 * Pages written before the bit slices exist are indexed when the bit
+	 * slice tables are created, later writes are indexed as they are made.
+	 * Both must select the same pages as the bloommatch function.
+	 */
+	@Test
+	public void testSearch() throws Exception {
+		final Connection connection = H2BloomGraphTest.getH2DataSource(
+				"jdbc:h2:mem:bitSlice").getConnection();
+		try {
+			final H2Commands function = new H2Commands(
+					PageLayout.SINGLE_TABLE);
+			function.createSchema(connection);
+			final Statement stmt = connection.createStatement();
+			try {
+				// more than one bit slice word of pages.
+				for (int i = 0; i < 40; i++) {
+					final int pageId = function.createPage(stmt);
+					function.tripleInsert(connection, pageId,
+							new PageSearchItem(triple(i)));
+				}
+				final H2Commands slices = new H2Commands(
+						PageLayout.SINGLE_TABLE);
+				slices.setPageIndexMode(PageIndexMode.BIT_SLICE);
+				slices.createSchema(connection);
+				final int pageId = slices.createPage(stmt);
+				slices.tripleInsert(connection, pageId, new PageSearchItem(
+						triple(3)));
+				slices.tripleInsert(connection, pageId, new PageSearchItem(
+						triple(100)));
+
+				assertEquals(41, pages(slices, connection, Triple.ANY).size());
+				assertEquals(41,
+						pages(slices, connection, new Triple(s, p, Node.ANY))
+								.size());
+				for (final int i : new int[] {
+						0, 3, 31, 32, 39, 100, 200
+				}) {
+					final List<Integer> expected = pages(function, connection,
+							triple(i));
+					assertEquals(expected, pages(slices, connection, triple(i)));
+				}
+				assertTrue(pages(slices, connection, triple(3)).contains(
+						pageId));
+				assertTrue(pages(slices, connection, triple(100)).contains(
+						pageId));
+			} finally {
+				DbUtils.closeQuietly(stmt);
+			}
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+	}
+
+	private Triple triple(final int i) {
+		return new Triple(s, p, NodeFactory.createLiteral("o" + i));
+	}
+
+	private List<Integer> pages(final SQLCommands commands,
+			final Connection connection, final Triple triple)
+			throws SQLException, IOException {
+		final PageBloomFilter filter = new PageSearchItem(triple)
+				.getPageFilter();
+		final PreparedStatement stmt = commands.pageIndexSearch(connection,
+				filter);
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery();
+			final List<Integer> retval = new ArrayList<Integer>();
+			while (rs.next()) {
+				retval.add(rs.getInt(2));
+			}
+			Collections.sort(retval);
+			return retval;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+}
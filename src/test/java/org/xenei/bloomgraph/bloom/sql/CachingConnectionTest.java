@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CachingConnectionTest {
+
+	// the number of statements prepared by the fake connection.
+	private AtomicInteger prepared;
+	// the number of statements closed on the fake connection.
+	private AtomicInteger closed;
+
+	@Before
+	public void setup() {
+		prepared = new AtomicInteger();
+		closed = new AtomicInteger();
+	}
+
+	private Connection fakeConnection() {
+		return (Connection) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] {
+			Connection.class
+		}, new InvocationHandler() {
+			private boolean isClosed = false;
+
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) {
+				final String name = method.getName();
+				if (name.startsWith("prepare")) {
+					prepared.incrementAndGet();
+					return fakeStatement();
+				}
+				if ("close".equals(name)) {
+					isClosed = true;
+				}
+				if ("isClosed".equals(name)) {
+					return isClosed;
+				}
+				return null;
+			}
+		});
+	}
+
+	private PreparedStatement fakeStatement() {
+		return (PreparedStatement) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] {
+			PreparedStatement.class
+		}, new InvocationHandler() {
+			private int fetchSize = 0;
+
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) {
+				if ("setFetchSize".equals(method.getName())) {
+					fetchSize = (Integer) args[0];
+				}
+				if ("getFetchSize".equals(method.getName())) {
+					return fetchSize;
+				}
+				if ("close".equals(method.getName())) {
+					closed.incrementAndGet();
+				}
+				if ("isClosed".equals(method.getName())) {
+					return false;
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testReuse() throws SQLException {
+		final Connection conn = CachingConnection.wrap(fakeConnection(), 10);
+		final CachingConnection handler = CachingConnection.handler(conn);
+		assertNotNull(handler);
+
+		PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+		stmt.close();
+		assertTrue(stmt.isClosed());
+		stmt = conn.prepareStatement("SELECT 1");
+		assertFalse(stmt.isClosed());
+		stmt.close();
+		assertEquals(1, prepared.get());
+		assertEquals(1, handler.getHitCount());
+		assertEquals(1, handler.getMissCount());
+		assertEquals(1, handler.size());
+		assertEquals(0, closed.get());
+
+		conn.close();
+		assertEquals(0, handler.size());
+		assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void testInUseNotShared() throws SQLException {
+		final Connection conn = CachingConnection.wrap(fakeConnection(), 10);
+		final PreparedStatement first = conn.prepareStatement("SELECT 1");
+		final PreparedStatement second = conn.prepareStatement("SELECT 1");
+		assertEquals(2, prepared.get());
+		first.close();
+		second.close();
+		// only one idle statement per query is kept.
+		assertEquals(1, CachingConnection.handler(conn).size());
+		assertEquals(1, closed.get());
+	}
+
+	@Test
+	public void testEviction() throws SQLException {
+		final Connection conn = CachingConnection.wrap(fakeConnection(), 2);
+		for (int i = 0; i < 5; i++) {
+			conn.prepareStatement("SELECT " + i).close();
+		}
+		assertEquals(2, CachingConnection.handler(conn).size());
+		assertEquals(3, closed.get());
+	}
+
+	@Test(expected = SQLException.class)
+	public void testUseAfterClose() throws SQLException {
+		final Connection conn = CachingConnection.wrap(fakeConnection(), 10);
+		final PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+		stmt.close();
+		stmt.execute();
+	}
+
+	@Test
+	public void testFetchSizeReset() throws SQLException {
+		final Connection conn = CachingConnection.wrap(fakeConnection(), 10);
+		PreparedStatement stmt = conn.prepareStatement("SELECT 1");
+		stmt.setFetchSize(Integer.MIN_VALUE);
+		assertEquals(Integer.MIN_VALUE, stmt.getFetchSize());
+		stmt.close();
+		stmt = conn.prepareStatement("SELECT 1");
+		assertEquals(1, prepared.get());
+		assertEquals(0, stmt.getFetchSize());
+		stmt.close();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class MultiPageSearchTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final Node s = NodeFactory.createURI("http://example.com/s");
+	private final Node p = NodeFactory.createURI("http://example.com/p");
+
+	@Test
+	public void testTablePerPage() throws Exception {
+		doTest(new H2Commands(PageLayout.TABLE_PER_PAGE));
+	}
+
+	@Test
+	public void testSingleTable() throws Exception {
+		doTest(new H2Commands(PageLayout.SINGLE_TABLE));
+	}
+
+	@Test
+	public void testInListSize() {
+		assertEquals(1, AbstractSQLCommands.inListSize(1));
+		assertEquals(8, AbstractSQLCommands.inListSize(2));
+		assertEquals(128, AbstractSQLCommands.inListSize(100));
+		assertEquals(512, AbstractSQLCommands.inListSize(512));
+		assertEquals(1024, AbstractSQLCommands.inListSize(513));
+	}
+
+	private void doTest(final SQLCommands commands) throws Exception {
+		final Connection connection = H2BloomGraphTest.getH2DataSource(
+				"jdbc:h2:mem:multiPage" + COUNTER.incrementAndGet())
+				.getConnection();
+		try {
+			commands.createSchema(connection);
+			final List<Integer> pageIds = new ArrayList<Integer>();
+			final Statement stmt = connection.createStatement();
+			try {
+				for (int i = 0; i < 3; i++) {
+					final int pageId = commands.createPage(stmt);
+					pageIds.add(pageId);
+					commands.tripleInsert(connection, pageId,
+							new PageSearchItem(triple(i)));
+					commands.tripleInsert(connection, pageId,
+							new PageSearchItem(triple(i + 10)));
+				}
+			} finally {
+				DbUtils.closeQuietly(stmt);
+			}
+
+			assertEquals(6, count(commands, connection, pageIds, Triple.ANY));
+			assertEquals(1, count(commands, connection, pageIds, triple(1)));
+			assertEquals(1, count(commands, connection, pageIds, triple(12)));
+			assertEquals(0, count(commands, connection, pageIds, triple(5)));
+			assertEquals(6, count(commands, connection, pageIds, new Triple(
+					s, p, Node.ANY)));
+			assertEquals(2, count(commands, connection, pageIds.subList(1, 2),
+					new Triple(s, Node.ANY, Node.ANY)));
+		} finally {
+			DbUtils.closeQuietly(connection);
+		}
+	}
+
+	private Triple triple(final int i) {
+		return new Triple(s, p, NodeFactory.createLiteral("o" + i));
+	}
+
+	private int count(final SQLCommands commands, final Connection connection,
+			final List<Integer> pageIds, final Triple triple)
+			throws SQLException, IOException {
+		final PreparedStatement stmt = commands.multiPageSearch(connection,
+				pageIds, new PageSearchItem(triple));
+		ResultSet rs = null;
+		try {
+			rs = stmt.executeQuery();
+			int retval = 0;
+			while (rs.next()) {
+				retval++;
+			}
+			return retval;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+}
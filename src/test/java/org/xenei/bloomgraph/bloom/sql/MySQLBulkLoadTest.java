@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Test;
+import org.xenei.bloomgraph.SerializableTriple;
+import org.xenei.bloomgraph.bloom.MySQLBloomGraphTest;
+import org.xenei.bloomgraph.bloom.filters.PageBloomFilter;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.mysql.cj.jdbc.MysqlDataSource;
+
+public class MySQLBulkLoadTest {
+
+	private Triple triple(final int i) {
+		return new Triple(NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"),
+				NodeFactory.createLiteral("o\t'" + i + "\\\n"));
+	}
+
+	private byte[] unhex(final String hex) {
+		final byte[] retval = new byte[hex.length() / 2];
+		for (int i = 0; i < retval.length; i++) {
+			retval[i] = (byte) Integer.parseInt(
+					hex.substring(i * 2, (i * 2) + 2), 16);
+		}
+		return retval;
+	}
+
+	@Test
+	public void testStagingFile() throws Exception {
+		final List<PageSearchItem> candidates = new ArrayList<PageSearchItem>();
+		final PageBloomFilter expected = new PageBloomFilter();
+		for (int i = 0; i < 5; i++) {
+			final PageSearchItem candidate = new PageSearchItem(triple(i));
+			candidates.add(candidate);
+			expected.add(candidate.getPageFilter());
+		}
+		final File staging = File.createTempFile("staging", ".tsv");
+		try {
+			final PageBloomFilter pageFilter = MySQLCommands.writeStagingFile(
+					staging, candidates);
+			assertTrue(expected.match(pageFilter));
+			assertTrue(pageFilter.match(expected));
+
+			@SuppressWarnings("unchecked")
+			final List<String> lines = FileUtils.readLines(staging, "US-ASCII");
+			assertEquals(5, lines.size());
+			for (int i = 0; i < 5; i++) {
+				final String[] fields = lines.get(i).split("\t");
+				assertEquals(5, fields.length);
+				final PageSearchItem candidate = candidates.get(i);
+				assertEquals(candidate.getTripleFilter().getHammingWeight(),
+						Integer.parseInt(fields[0]));
+				assertEquals(candidate.getTriple().hashCode(),
+						Integer.parseInt(fields[2]));
+				final SerializableTriple st = new SerializableTriple(
+						ByteBuffer.wrap(unhex(fields[4])));
+				assertEquals(triple(i), st.getTriple());
+			}
+		} finally {
+			staging.delete();
+		}
+	}
+
+	/**
+	 * Loads two pages through LOAD DATA and checks the rows and ids. Skipped
+	 * if the MySQL test database is not available.
+	 */
+	@Test
+	public void testLoadTablePerPage() throws Exception {
+		doLoad(new MySQLCommands(PageLayout.TABLE_PER_PAGE));
+	}
+
+	@Test
+	public void testLoadSingleTable() throws Exception {
+		doLoad(new MySQLCommands(PageLayout.SINGLE_TABLE));
+	}
+
+	private Connection getConnection() throws SQLException {
+		final MysqlDataSource ds = (MysqlDataSource) MySQLBloomGraphTest
+				.getMySQLDataSource(MySQLBloomGraphTest.URL,
+						MySQLBloomGraphTest.USR, MySQLBloomGraphTest.PWD);
+		ds.setAllowLoadLocalInfile(true);
+		try {
+			return ds.getConnection();
+		} catch (final SQLException e) {
+			Assume.assumeNoException("MySQL is not available", e);
+			return null;
+		}
+	}
+
+	private void dropTables(final Connection connection) throws SQLException {
+		final List<String> tables = new ArrayList<String>();
+		ResultSet rs = null;
+		try {
+			rs = connection.getMetaData().getTables(connection.getCatalog(),
+					connection.getSchema(), "Page%", new String[] {
+						"TABLE"
+					});
+			while (rs.next()) {
+				tables.add(rs.getString(3));
+			}
+		} finally {
+			DbUtils.closeQuietly(rs);
+		}
+		tables.add("Triples");
+		final Statement stmt = connection.createStatement();
+		try {
+			for (final String table : tables) {
+				stmt.execute("DROP TABLE IF EXISTS " + table);
+			}
+		} finally {
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+
+	private void doLoad(final MySQLCommands commands) throws Exception {
+		final Connection connection = getConnection();
+		// the quote in the directory name checks the file name escaping.
+		final File directory = new File(System.getProperty("java.io.tmpdir"),
+				"bulk'load" + System.nanoTime());
+		assertTrue(directory.mkdir());
+		try {
+			dropTables(connection);
+			commands.createSchema(connection);
+			commands.enableBulkLoad(directory);
+			final int[] pageIds = new int[2];
+			final Statement stmt = connection.createStatement();
+			try {
+				pageIds[0] = commands.createPage(stmt);
+				pageIds[1] = commands.createPage(stmt);
+			} finally {
+				DbUtils.closeQuietly(stmt);
+			}
+			final List<List<PageSearchItem>> loaded = new ArrayList<List<PageSearchItem>>();
+			for (int page = 0; page < 2; page++) {
+				final List<PageSearchItem> candidates = new ArrayList<PageSearchItem>();
+				for (int i = 0; i < 5; i++) {
+					candidates.add(new PageSearchItem(triple((page * 5) + i)));
+				}
+				commands.tripleInsert(connection, pageIds[page], candidates);
+				loaded.add(candidates);
+			}
+			for (int page = 0; page < 2; page++) {
+				final Map<Integer, Triple> expected = new HashMap<Integer, Triple>();
+				for (final PageSearchItem candidate : loaded.get(page)) {
+					expected.put(candidate.getSerializable().getIndex(),
+							candidate.getTriple());
+				}
+				assertEquals(5, expected.size());
+				assertEquals(expected, readPage(commands, connection,
+						pageIds[page]));
+			}
+			assertEquals(0, directory.list().length);
+		} finally {
+			FileUtils.deleteDirectory(directory);
+			DbUtils.closeQuietly(connection);
+		}
+	}
+
+	private Map<Integer, Triple> readPage(final SQLCommands commands,
+			final Connection connection, final int pageId) throws Exception {
+		final Map<Integer, Triple> retval = new HashMap<Integer, Triple>();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = commands.tripleScan(connection, pageId);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				retval.put(rs.getInt(2), new SerializableTriple(ByteBuffer
+						.wrap(rs.getBytes(1))).getTriple());
+			}
+			return retval;
+		} finally {
+			DbUtils.closeQuietly(rs);
+			DbUtils.closeQuietly(stmt);
+		}
+	}
+}
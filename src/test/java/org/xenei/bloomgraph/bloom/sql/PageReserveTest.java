@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+import com.hp.hpl.jena.util.iterator.ExtendedIterator;
+
+public class PageReserveTest {
+
+	private DBIO io;
+
+	@Before
+	public void setup() throws Exception {
+		io = new DBIO(
+				H2BloomGraphTest
+						.getH2DataSource("jdbc:h2:mem:pageReserve;DB_CLOSE_DELAY=-1"),
+				new H2Commands());
+	}
+
+	@After
+	public void teardown() {
+		io.close();
+	}
+
+	private Triple triple(final int i) {
+		return new Triple(NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"),
+				NodeFactory.createLiteral("o" + i));
+	}
+
+	/**
+	 * Wait for the number of pages in the database to reach the count.
+	 */
+	private void waitForPages(final int count) throws InterruptedException {
+		final long end = System.currentTimeMillis() + 10000;
+		while (io.getStatistics().pages() < count
+				&& System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, io.getStatistics().pages());
+	}
+
+	@Test
+	public void testReserve() throws Exception {
+		io.setPageReserve(2);
+		assertEquals(2, io.getPageReserve());
+		// the reserved pages are created in the background.
+		waitForPages(2);
+
+		// the first write claims a reserved page and the reserve is refilled.
+		io.add(new PageSearchItem(triple(1)));
+		waitForPages(3);
+		final ExtendedIterator<Triple> iter = io.find(new PageSearchItem(
+				triple(1)));
+		try {
+			assertTrue(iter.hasNext());
+		} finally {
+			iter.close();
+		}
+		assertEquals(1, io.getPage(1).getStatistics().getRecordCount());
+
+		io.setPageReserve(0);
+		assertEquals(0, io.getPageReserve());
+	}
+}
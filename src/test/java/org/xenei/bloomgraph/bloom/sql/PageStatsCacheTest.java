@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+import org.xenei.bloomgraph.bloom.page.PageStatistics;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class PageStatsCacheTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private String url;
+	private DBIO io;
+
+	@Before
+	public void setup() throws Exception {
+		url = "jdbc:h2:mem:pageStats" + COUNTER.incrementAndGet()
+				+ ";DB_CLOSE_DELAY=-1";
+		io = new DBIO(H2BloomGraphTest.getH2DataSource(url), new H2Commands());
+		io.setStatisticsFlushThreshold(1000);
+	}
+
+	@After
+	public void teardown() {
+		io.close();
+	}
+
+	private Triple triple(final int i) {
+		return new Triple(NodeFactory.createURI("http://example.com/s"),
+				NodeFactory.createURI("http://example.com/p"),
+				NodeFactory.createLiteral("o" + i));
+	}
+
+	@Test
+	public void testWriteBack() throws Exception {
+		io.add(new PageSearchItem(triple(1)));
+		io.add(new PageSearchItem(triple(2)));
+		final PageStatistics stats = io.getPage(1).getStatistics();
+		assertEquals(2, stats.getRecordCount());
+		assertEquals(0, stats.getDeleteCount());
+
+		io.delete(new PageSearchItem(triple(1)));
+		assertEquals(2, stats.getRecordCount());
+		assertEquals(1, stats.getDeleteCount());
+
+		// the size query writes the pending changes first.
+		assertEquals(1, io.getStatistics().size());
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		io.add(new PageSearchItem(triple(1)));
+		final int size = io.getPage(1).getStatistics().getDataSize();
+		io.flushStatistics();
+		io.setStatisticsMaxAge(0);
+		Thread.sleep(2);
+		final PageStatistics stats = io.getPage(1).getStatistics();
+		assertEquals(1, stats.getRecordCount());
+		assertEquals(size, stats.getDataSize());
+		io.add(new PageSearchItem(triple(2)));
+		assertEquals(2, stats.getRecordCount());
+	}
+
+	@Test
+	public void testSelectPage() throws Exception {
+		final PageStatsCache cache = new PageStatsCache(new H2Commands(), 2);
+		cache.addPage(1);
+		cache.addPage(2);
+		assertEquals(1, cache.bestPage()[0]);
+		cache.update(io, 1, 1, 0, 10);
+		assertEquals(2, cache.bestPage()[0]);
+		cache.update(io, 2, 2, 0, 10);
+		assertEquals(1, cache.bestPage()[0]);
+		assertEquals(1, cache.bestPage()[3]);
+		cache.update(io, 1, 1, 0, 10);
+		assertNull(cache.bestPage());
+		cache.update(io, 2, 0, 1, 0);
+		assertEquals(2, cache.bestPage()[0]);
+	}
+
+	@Test
+	public void testSeed() throws Exception {
+		io.add(new PageSearchItem(triple(1)));
+		io.close();
+		io = new DBIO(H2BloomGraphTest.getH2DataSource(url), new H2Commands());
+		io.add(new PageSearchItem(triple(2)));
+		assertEquals(1, io.getPageCount());
+		assertEquals(2, io.getPage(1).getStatistics().getRecordCount());
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimpleConnectionPoolTest {
+
+	// the number of connections created by the data source.
+	private AtomicInteger created;
+	// the number of connections closed.
+	private AtomicInteger closed;
+	private SimpleConnectionPool pool;
+
+	@Before
+	public void setup() {
+		created = new AtomicInteger();
+		closed = new AtomicInteger();
+		final DataSource ds = (DataSource) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] {
+			DataSource.class
+		}, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) {
+				if ("getConnection".equals(method.getName())) {
+					created.incrementAndGet();
+					return fakeConnection();
+				}
+				return null;
+			}
+		});
+		pool = new SimpleConnectionPool(ds, 2);
+		pool.setMaxWait(10);
+	}
+
+	private Connection fakeConnection() {
+		return (Connection) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class<?>[] {
+			Connection.class
+		}, new InvocationHandler() {
+			private boolean isClosed = false;
+
+			@Override
+			public Object invoke(final Object proxy, final Method method,
+					final Object[] args) {
+				final String name = method.getName();
+				if ("close".equals(name)) {
+					if (!isClosed) {
+						closed.incrementAndGet();
+					}
+					isClosed = true;
+				}
+				if ("isClosed".equals(name)) {
+					return isClosed;
+				}
+				if ("getAutoCommit".equals(name)) {
+					return true;
+				}
+				return null;
+			}
+		});
+	}
+
+	@Test
+	public void testReuse() throws SQLException {
+		Connection conn = pool.getConnection();
+		assertEquals(1, pool.getActiveCount());
+		conn.close();
+		assertTrue(conn.isClosed());
+		assertEquals(0, pool.getActiveCount());
+		assertEquals(1, pool.getIdleCount());
+
+		conn = pool.getConnection();
+		conn.close();
+		// closing twice only returns the connection once.
+		conn.close();
+		assertEquals(1, created.get());
+		assertEquals(0, closed.get());
+		assertEquals(1, pool.getIdleCount());
+	}
+
+	@Test
+	public void testBounded() throws SQLException {
+		final Connection first = pool.getConnection();
+		final Connection second = pool.getConnection();
+		try {
+			pool.getConnection();
+			fail("Should have timed out");
+		} catch (final SQLException expected) {
+			// expected
+		}
+		assertEquals(2, pool.getActiveCount());
+		first.close();
+		pool.getConnection().close();
+		second.close();
+		assertEquals(2, created.get());
+	}
+
+	@Test
+	public void testClose() throws SQLException {
+		final Connection active = pool.getConnection();
+		pool.getConnection().close();
+		pool.close();
+		assertEquals(1, closed.get());
+		active.close();
+		assertEquals(2, closed.get());
+		assertEquals(0, pool.getIdleCount());
+		try {
+			pool.getConnection();
+			fail("Should have thrown SQLException");
+		} catch (final SQLException expected) {
+			// expected
+		}
+	}
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class StoreFormatTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private DataSource ds;
+
+	@Before
+	public void setup() throws Exception {
+		ds = H2BloomGraphTest.getH2DataSource("jdbc:h2:mem:storeFormat"
+				+ COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		final DBIO io = new DBIO(ds, new H2Commands());
+		io.add(new PageSearchItem(new Triple(NodeFactory
+				.createURI("http://example.com/s"), NodeFactory
+				.createURI("http://example.com/p"), NodeFactory
+				.createLiteral("o"))));
+		io.close();
+	}
+
+	private void execute(final String sql) throws SQLException {
+		final Connection connection = ds.getConnection();
+		try {
+			final Statement stmt = connection.createStatement();
+			stmt.executeUpdate(sql);
+			stmt.close();
+		} finally {
+			connection.close();
+		}
+	}
+
+	@Test
+	public void testReopen() throws Exception {
+		new DBIO(ds, new H2Commands()).close();
+	}
+
+	@Test(expected = SQLException.class)
+	public void testOldVersion() throws Exception {
+		execute("UPDATE " + AbstractSQLCommands.FORMAT_TABLE
+				+ " SET version=1");
+		new DBIO(ds, new H2Commands()).close();
+	}
+
+	@Test(expected = SQLException.class)
+	public void testUnversionedStore() throws Exception {
+		execute("DROP TABLE " + AbstractSQLCommands.FORMAT_TABLE);
+		new DBIO(ds, new H2Commands()).close();
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.xenei.bloomgraph.bloom.sql;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.xenei.bloomgraph.bloom.BloomGraph;
+import org.xenei.bloomgraph.bloom.H2BloomGraphTest;
+import org.xenei.bloomgraph.bloom.page.PageSearchItem;
+
+import com.hp.hpl.jena.graph.Node;
+import com.hp.hpl.jena.graph.NodeFactory;
+import com.hp.hpl.jena.graph.Triple;
+
+public class TripleDeleteTest {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private final Node s = NodeFactory.createURI("http://example.com/s");
+	private final Node p = NodeFactory.createURI("http://example.com/p");
+	private final Node q = NodeFactory.createURI("http://example.com/q");
+
+	@Test
+	public void testTablePerPage() throws Exception {
+		doTest(new H2Commands(PageLayout.TABLE_PER_PAGE));
+	}
+
+	@Test
+	public void testSingleTable() throws Exception {
+		doTest(new H2Commands(PageLayout.SINGLE_TABLE));
+	}
+
+	@Test
+	public void testAddWithOneConnection() throws Exception {
+		final SimpleConnectionPool pool = new SimpleConnectionPool(
+				H2BloomGraphTest.getH2DataSource("jdbc:h2:mem:tripleAdd"
+						+ COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1"), 1);
+		pool.setMaxWait(1000);
+		final BloomGraph graph = new BloomGraph(new DBIO(pool,
+				new H2Commands()));
+		try {
+			for (int i = 0; i < 10; i++) {
+				graph.add(new Triple(s, p, NodeFactory.createLiteral("o" + i)));
+			}
+			// the duplicate is found and not added again.
+			graph.add(new Triple(s, p, NodeFactory.createLiteral("o1")));
+			assertEquals(10, graph.size());
+		} finally {
+			graph.close();
+		}
+	}
+
+	/**
+	 * Deletes more than DELETE_BATCH_SIZE triples through a DBIO with a pool
+	 * of one connection so the delete must not borrow a second connection.
+	 */
+	private void doTest(final SQLCommands commands) throws Exception {
+		final String url = "jdbc:h2:mem:tripleDelete"
+				+ COUNTER.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+		final int n = (AbstractSQLCommands.DELETE_BATCH_SIZE * 2) + 10;
+		BloomGraph graph = new BloomGraph(new DBIO(
+				H2BloomGraphTest.getH2DataSource(url), commands));
+		try {
+			for (int i = 0; i < n; i++) {
+				graph.add(new Triple(s, p, NodeFactory.createLiteral("o" + i)));
+			}
+			graph.add(new Triple(s, q, NodeFactory.createLiteral("o1")));
+			assertEquals(n + 1, graph.size());
+		} finally {
+			graph.close();
+		}
+
+		final SimpleConnectionPool pool = new SimpleConnectionPool(
+				H2BloomGraphTest.getH2DataSource(url), 1);
+		pool.setMaxWait(1000);
+		final DBIO io = new DBIO(pool, commands);
+		graph = new BloomGraph(io);
+		try {
+			io.delete(new PageSearchItem(new Triple(s, p, Node.ANY)));
+			assertEquals(1, graph.size());
+			assertFalse(graph.contains(s, p, Node.ANY));
+			assertTrue(graph.contains(s, q, NodeFactory.createLiteral("o1")));
+		} finally {
+			graph.close();
+		}
+	}
+}